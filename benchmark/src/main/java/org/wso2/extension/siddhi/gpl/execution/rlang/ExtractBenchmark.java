@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPString;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the extraction of an output attribute from the vector returned by R, per attribute type and number of
+ * output rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractBenchmark {
+
+    @Param({"DOUBLE", "FLOAT", "LONG", "INT", "BOOL", "STRING"})
+    public Attribute.Type type;
+
+    @Param({"1", "100", "10000"})
+    public int rows;
+
+    private REXP vector;
+    private Attribute attribute;
+
+    @Setup
+    public void setup() {
+        SyntheticData data = new SyntheticData(42);
+        attribute = new Attribute("value", type);
+        // R returns every numeric output as a double vector, unless the script yields integers
+        switch (type) {
+            case INT:
+                int[] integers = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    integers[i] = (Integer) data.value(type);
+                }
+                vector = new REXPInteger(integers);
+                break;
+            case BOOL:
+                boolean[] logicals = new boolean[rows];
+                for (int i = 0; i < rows; i++) {
+                    logicals[i] = (Boolean) data.value(type);
+                }
+                vector = new REXPLogical(logicals);
+                break;
+            case STRING:
+                String[] strings = new String[rows];
+                for (int i = 0; i < rows; i++) {
+                    strings[i] = (String) data.value(type);
+                }
+                vector = new REXPString(strings);
+                break;
+            default:
+                double[] doubles = new double[rows];
+                for (int i = 0; i < rows; i++) {
+                    doubles[i] = ((Number) data.value(type)).doubleValue();
+                }
+                vector = new REXPDouble(doubles);
+        }
+    }
+
+    @Benchmark
+    public Object[] extract() throws REXPMismatchException {
+        return RStreamProcessor.column(vector, attribute);
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.core.util.config.InMemoryConfigManager;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a Siddhi app which runs {@code r:eval} or {@code r:evalSource} with synthetic events at a target rate, and
+ * reports the sustained rate, the latency percentiles and the heap and GC activity. Scenarios are given as
+ * {@code key=value} arguments:
+ * <ul>
+ * <li>engine: R engine, 'java' by default, or 'jri' when JRI_HOME is on the library path</li>
+ * <li>extension: 'eval' (default) or 'evalSource'</li>
+ * <li>window: window in front of the processor, 'lengthBatch(100)' by default, or 'none'</li>
+ * <li>options: options of the processor, e.g. 'batch.size=100, batch.latency=50'</li>
+ * <li>types: types of the generated attributes besides the timestamp, 'double,int,string' by default</li>
+ * <li>cost: milliseconds the script sleeps per batch, 0 by default</li>
+ * <li>work: number of times the script sorts the timestamps of a batch, 0 by default</li>
+ * <li>rate: target events per second, 10000 by default</li>
+ * <li>warmup and duration: seconds of warm-up and of measurement, 10 and 30 by default</li>
+ * </ul>
+ * Without arguments a suite of scenarios covering the usual windows and both extensions is run. Latency is measured
+ * from the time the oldest event of a batch is sent to the time the output of the batch is received, hence it
+ * includes the time events wait for their batch to fill.
+ */
+public final class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+
+    static {
+        DEFAULTS.put("engine", "java");
+        DEFAULTS.put("extension", "eval");
+        DEFAULTS.put("window", "lengthBatch(100)");
+        DEFAULTS.put("options", "");
+        DEFAULTS.put("types", "double,int,string");
+        DEFAULTS.put("cost", "0");
+        DEFAULTS.put("work", "0");
+        DEFAULTS.put("rate", "10000");
+        DEFAULTS.put("warmup", "10");
+        DEFAULTS.put("duration", "30");
+    }
+
+    private final Map<String, String> scenario;
+    private final long base = System.nanoTime();
+    private final AtomicLong received = new AtomicLong();
+    private final Latencies latencies = new Latencies();
+    private volatile boolean measuring;
+
+    private LoadTest(Map<String, String> scenario) {
+        this.scenario = scenario;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Map<String, String>> scenarios = new ArrayList<Map<String, String>>();
+        if (args.length == 0) {
+            scenarios.add(scenario());
+            scenarios.add(scenario("window=lengthBatch(1000)", "work=5"));
+            scenarios.add(scenario("window=timeBatch(100 millisec)"));
+            scenarios.add(scenario("window=none", "options=batch.size=500, batch.latency=50"));
+            scenarios.add(scenario("window=none", "options=batch.latency.target=20"));
+            scenarios.add(scenario("extension=evalSource", "cost=5"));
+        } else {
+            scenarios.add(scenario(args));
+        }
+        for (Map<String, String> scenario : scenarios) {
+            new LoadTest(scenario).run();
+        }
+    }
+
+    /**
+     * Returns the scenario given by the defaults overridden by the given {@code key=value} settings.
+     */
+    private static Map<String, String> scenario(String... overrides) {
+        Map<String, String> scenario = new LinkedHashMap<String, String>(DEFAULTS);
+        String jriHome = System.getenv("JRI_HOME");
+        if (jriHome != null && System.getProperty("java.library.path", "").contains(jriHome)) {
+            // Real R is only used when JRI can be loaded, as a missing library would end the JVM
+            scenario.put("engine", "jri");
+        }
+        for (String override : overrides) {
+            int separator = override.indexOf('=');
+            String key = separator < 0 ? override : override.substring(0, separator).trim();
+            if (!DEFAULTS.containsKey(key)) {
+                throw new IllegalArgumentException("Unknown setting '" + override + "'. Settings are given as " +
+                        "key=value, where the keys are " + DEFAULTS.keySet());
+            }
+            scenario.put(key, override.substring(separator + 1).trim());
+        }
+        return scenario;
+    }
+
+    private void run() throws IOException, InterruptedException {
+        Attribute.Type[] types = types(scenario.get("types"));
+        int rate = Integer.parseInt(scenario.get("rate"));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(scenario.get("warmup")));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(scenario.get("duration")));
+        Path scriptFile = null;
+        String script = script(types);
+        if ("evalSource".equals(scenario.get("extension"))) {
+            scriptFile = Files.createTempFile("siddhi-r-load", ".R");
+            Files.write(scriptFile, script.getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, String> configs = new HashMap<String, String>();
+        configs.put("r.eval.engine", scenario.get("engine"));
+        configs.put("r.evalSource.engine", scenario.get("engine"));
+        SiddhiManager siddhiManager = new SiddhiManager();
+        siddhiManager.setConfigManager(new InMemoryConfigManager(configs, null));
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(app(types, script, scriptFile));
+        siddhiAppRuntime.addCallback("results", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                long now = micros();
+                for (Event event : events) {
+                    if (measuring) {
+                        latencies.add(now - ((Number) event.getData(0)).longValue());
+                        received.addAndGet(((Number) event.getData(1)).longValue());
+                    }
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        try {
+            InputHandler inputHandler = siddhiAppRuntime.getInputHandler("load");
+            SyntheticData data = new SyntheticData(42);
+            Object[][] rows = new Object[1024][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = data.data(types);
+            }
+            System.out.println("Scenario " + scenario);
+            send(inputHandler, rows, rate, warmup);
+            Gc gc = new Gc();
+            measuring = true;
+            long start = System.nanoTime();
+            long sent = send(inputHandler, rows, rate, duration);
+            long elapsed = System.nanoTime() - start;
+            measuring = false;
+            report(sent, elapsed, rate, gc);
+        } finally {
+            siddhiAppRuntime.shutdown();
+            siddhiManager.shutdown();
+            if (scriptFile != null) {
+                Files.deleteIfExists(scriptFile);
+            }
+        }
+    }
+
+    /**
+     * Sends events at the given rate for the given time. Sending blocks while the processor is busy, in which case
+     * the generator falls behind the target rate.
+     *
+     * @return number of events sent
+     */
+    private long send(InputHandler inputHandler, Object[][] rows, int rate, long duration)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long sent = 0;
+        for (long elapsed = 0; elapsed < duration; elapsed = System.nanoTime() - start) {
+            long due = elapsed * rate / 1000000000L;
+            for (; sent < due; sent++) {
+                Object[] row = rows[(int) (sent % rows.length)];
+                Object[] event = new Object[row.length + 1];
+                event[0] = micros();
+                System.arraycopy(row, 0, event, 1, row.length);
+                inputHandler.send(event);
+            }
+            LockSupport.parkNanos(100000);
+        }
+        return sent;
+    }
+
+    private void report(long sent, long elapsed, int rate, Gc gc) throws InterruptedException {
+        // Batches still in flight are given a moment to come out before the latencies are read
+        Thread.sleep(1000);
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format(Locale.ROOT, "  rate: target %d events/s, sent %.0f events/s, processed " +
+                "%.0f events/s", rate, sent / seconds, received.get() / seconds));
+        long[] sorted = latencies.sorted();
+        if (sorted.length == 0) {
+            System.out.println("  latency: no batch was emitted");
+        } else {
+            System.out.println(String.format(Locale.ROOT, "  latency of %d batches (ms): p50 %.3f, p99 %.3f, " +
+                    "p999 %.3f, max %.3f", sorted.length, percentile(sorted, 0.5), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted[sorted.length - 1] / 1000.0));
+        }
+        gc.report();
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)] / 1000.0;
+    }
+
+    private String script(Attribute.Type[] types) {
+        StringBuilder sb = new StringBuilder();
+        int work = Integer.parseInt(scenario.get("work"));
+        for (int i = 0; i < work; i++) {
+            sb.append("sorted <- sort(sent)\n");
+        }
+        int cost = Integer.parseInt(scenario.get("cost"));
+        if (cost > 0) {
+            sb.append("Sys.sleep(").append(cost / 1000.0).append(")\n");
+        }
+        sb.append("oldest <- min(sent)\nevents <- length(sent)\n");
+        for (int i = 0; i < types.length; i++) {
+            String name = "a" + i;
+            sb.append("r").append(i).append(" <- ").append(types[i] == Attribute.Type.STRING ||
+                    types[i] == Attribute.Type.BOOL ? "length(unique(" + name + "))" : "sum(" + name + ")")
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String app(Attribute.Type[] types, String script, Path scriptFile) {
+        StringBuilder stream = new StringBuilder("define stream load (sent long");
+        StringBuilder outputs = new StringBuilder("oldest long, events int");
+        StringBuilder inputs = new StringBuilder("sent");
+        StringBuilder select = new StringBuilder("oldest, events");
+        for (int i = 0; i < types.length; i++) {
+            stream.append(", a").append(i).append(' ').append(types[i].name().toLowerCase(Locale.ROOT));
+            outputs.append(", r").append(i).append(types[i] == Attribute.Type.STRING ||
+                    types[i] == Attribute.Type.BOOL ? " int" : " double");
+            inputs.append(", a").append(i);
+            select.append(", r").append(i);
+        }
+        String window = scenario.get("window");
+        String options = scenario.get("options");
+        String source = scriptFile == null ? "r:eval(\"" + script.replace("\n", "; ") + "\"" :
+                "r:evalSource('" + scriptFile.toString().replace(File.separatorChar, '/') + "'";
+        return stream.append("); ") +
+                "@info(name = 'load') from load" + ("none".equals(window) ? "" : "#window." + window) +
+                "#" + source + ", '" + outputs + "'" + (options.isEmpty() ? "" : ", '" + options + "'") +
+                ", " + inputs + ") select " + select + " insert into results;";
+    }
+
+    private static Attribute.Type[] types(String types) {
+        List<Attribute.Type> list = new ArrayList<Attribute.Type>();
+        for (String type : types.split(",")) {
+            if (!type.trim().isEmpty()) {
+                list.add(Attribute.Type.valueOf(type.trim().toUpperCase(Locale.ROOT)));
+            }
+        }
+        return list.toArray(new Attribute.Type[list.size()]);
+    }
+
+    private long micros() {
+        return (System.nanoTime() - base) / 1000;
+    }
+
+    /**
+     * Latencies in microseconds, kept in full so that the high percentiles are exact.
+     */
+    private static final class Latencies {
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long latency) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = latency;
+        }
+
+        synchronized long[] sorted() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /**
+     * Heap and collector activity since the measurement started.
+     */
+    private static final class Gc {
+        private final Map<String, long[]> start = new LinkedHashMap<String, long[]>();
+
+        Gc() {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                start.put(collector.getName(), new long[]{collector.getCollectionCount(),
+                        collector.getCollectionTime()});
+            }
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+        }
+
+        void report() {
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+            System.out.println(String.format(Locale.ROOT, "  heap: used %.1f MB, peak %.1f MB",
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1048576.0,
+                    peak / 1048576.0));
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                long[] before = start.get(collector.getName());
+                if (before != null) {
+                    System.out.println(String.format(Locale.ROOT, "  gc %s: %d collections, %d ms",
+                            collector.getName(), collector.getCollectionCount() - before[0],
+                            collector.getCollectionTime() - before[1]));
+                }
+            }
+        }
+    }
+}
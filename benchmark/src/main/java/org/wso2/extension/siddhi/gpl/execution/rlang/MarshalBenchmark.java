@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rosuda.REngine.REXP;
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+import org.wso2.siddhi.core.executor.ExpressionExecutor;
+import org.wso2.siddhi.core.executor.VariableExpressionExecutor;
+import org.wso2.siddhi.core.util.SiddhiConstants;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the transposition of a batch of events into the input vector of an attribute, per attribute type and
+ * batch size, either into pooled arrays or into a transfer file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarshalBenchmark {
+
+    @Param({"DOUBLE", "FLOAT", "LONG", "INT", "BOOL", "STRING"})
+    public Attribute.Type type;
+
+    @Param({"1", "100", "10000"})
+    public int batchSize;
+
+    @Param({"assign", "file"})
+    public String transfer;
+
+    private RColumns columns;
+    private List<StreamEvent> events;
+    private Path directory;
+
+    @Setup
+    public void setup() {
+        VariableExpressionExecutor executor = new VariableExpressionExecutor(new Attribute("value", type), 0, 0);
+        executor.setPosition(new int[]{0, 0, SiddhiConstants.OUTPUT_DATA_INDEX, 0});
+        columns = new RColumns(new ExpressionExecutor[]{executor});
+        events = new SyntheticData(42).events(new Attribute.Type[]{type}, batchSize);
+        directory = Paths.get(System.getProperty("java.io.tmpdir"));
+    }
+
+    @Benchmark
+    public REXP[] marshal() throws IOException {
+        RColumns.Buffer buffer = ROptions.FILE.equals(transfer) ? columns.write(events, directory) :
+                columns.marshal(events);
+        // Giving the buffer back lets the next batch reuse it, as processors do once a batch is evaluated
+        columns.release(buffer);
+        return buffer.vectors;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.core.util.config.InMemoryConfigManager;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a whole batch going through {@code r:eval}: marshalling the events, evaluating a cheap script and
+ * emitting its outputs. The java engine is measured by default; with R installed the other engines are measured
+ * with {@code -p engine=jri} or {@code -p engine=rserve}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessBenchmark {
+
+    private static final Attribute.Type[] TYPES = {Attribute.Type.DOUBLE, Attribute.Type.INT, Attribute.Type.STRING};
+
+    @Param({"java"})
+    public String engine;
+
+    @Param({"1", "100", "10000"})
+    public int batchSize;
+
+    private SiddhiManager siddhiManager;
+    private SiddhiAppRuntime siddhiAppRuntime;
+    private InputHandler inputHandler;
+    private Event[] events;
+    private volatile long outputs;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        Map<String, String> configs = new HashMap<String, String>();
+        configs.put("r.eval.engine", engine);
+        siddhiManager = new SiddhiManager();
+        siddhiManager.setConfigManager(new InMemoryConfigManager(configs, null));
+        siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(
+                "define stream readings (value double, count int, label string); " +
+                        "@info(name = 'query1') from readings#window.lengthBatch(" + batchSize + ")" +
+                        "#r:eval(\"total <- sum(value); top <- max(count); labels <- length(unique(label))\", " +
+                        "\"total double, top int, labels int\", value, count, label) " +
+                        "select total, top, labels " +
+                        "insert into dataOut;");
+        siddhiAppRuntime.addCallback("dataOut", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                outputs += events.length;
+            }
+        });
+        siddhiAppRuntime.start();
+        inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        SyntheticData data = new SyntheticData(42);
+        events = new Event[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            events[i] = new Event(System.currentTimeMillis(), data.data(TYPES));
+        }
+    }
+
+    /**
+     * Sends one full batch, which the window hands over to the processor as a single chunk.
+     */
+    @Benchmark
+    public long process() throws InterruptedException {
+        inputHandler.send(events);
+        return outputs;
+    }
+
+    @TearDown
+    public void tearDown() {
+        siddhiAppRuntime.shutdown();
+        siddhiManager.shutdown();
+    }
+}
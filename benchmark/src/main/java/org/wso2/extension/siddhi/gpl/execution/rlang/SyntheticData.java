@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic attribute values and events for the benchmarks. Values are drawn from a fixed seed, hence every run
+ * marshals the same data.
+ */
+final class SyntheticData {
+
+    private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel"};
+
+    private final Random random;
+
+    SyntheticData(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Returns a random value of the given type. Strings come from a small vocabulary, the way categorical
+     * attributes usually do.
+     */
+    Object value(Attribute.Type type) {
+        switch (type) {
+            case DOUBLE:
+                return random.nextGaussian() * 100;
+            case FLOAT:
+                return (float) (random.nextGaussian() * 100);
+            case LONG:
+                return random.nextLong() >> 20;
+            case INT:
+                return random.nextInt(1000);
+            case BOOL:
+                return random.nextBoolean();
+            default:
+                return WORDS[random.nextInt(WORDS.length)];
+        }
+    }
+
+    /**
+     * Returns events holding random values of the given types as their output data, which is where the input
+     * attributes of a stream processor are read from.
+     */
+    List<StreamEvent> events(Attribute.Type[] types, int count) {
+        List<StreamEvent> events = new ArrayList<StreamEvent>(count);
+        for (int i = 0; i < count; i++) {
+            StreamEvent event = new StreamEvent(0, 0, types.length);
+            event.setOutputData(data(types));
+            events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * Returns one random value per given type.
+     */
+    Object[] data(Attribute.Type[] types) {
+        Object[] data = new Object[types.length];
+        for (int j = 0; j < types.length; j++) {
+            data[j] = value(types[j]);
+        }
+        return data;
+    }
+}
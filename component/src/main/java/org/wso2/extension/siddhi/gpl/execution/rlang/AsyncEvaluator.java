@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.wso2.siddhi.core.exception.SiddhiAppRuntimeException;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Evaluates the batches of a processor off the Siddhi thread. The Siddhi thread marshals a batch and hands it over,
+ * so it marshals the next batch while the previous one is still being evaluated. Evaluated batches are queued
+ * until the processor collects them and a notification is raised so that it does so promptly.
+ * <p>
+ * In ordered mode batches are evaluated one after the other, hence they are collected in the order they were
+ * submitted and the script sees them in that order. In unordered mode they are evaluated concurrently and
+ * collected as they complete. Either way at most the configured number of batches are in flight, beyond which
+ * submitting blocks.
+ */
+final class AsyncEvaluator {
+
+    private static final Logger log = Logger.getLogger(AsyncEvaluator.class);
+
+    private final Consumer<RBatch> evaluator;
+    private final Consumer<RBatch> releaser;
+    private final Runnable notifier;
+    private final ExecutorService executorService;
+    private final boolean ordered;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Queue<RBatch> completed = new ConcurrentLinkedQueue<RBatch>();
+    private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+    AsyncEvaluator(Consumer<RBatch> evaluator, Consumer<RBatch> releaser, Runnable notifier,
+                   ExecutorService executorService, boolean ordered, int maxInFlight) {
+        this.evaluator = evaluator;
+        this.releaser = releaser;
+        this.notifier = notifier;
+        this.executorService = executorService;
+        this.ordered = ordered;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Hands a batch over for evaluation, blocking while the maximum number of batches are in flight. A batch which
+     * is not handed over, because the caller is interrupted or the executor rejects it, is released.
+     *
+     * @param batch marshalled batch
+     */
+    void submit(final RBatch batch) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            releaser.accept(batch);
+            Thread.currentThread().interrupt();
+            throw new SiddhiAppRuntimeException("Interrupted while waiting to hand a batch over to R", e);
+        }
+        if (ordered) {
+            synchronized (this) {
+                // Each stage runs whether or not the previous one failed, and a stage only fails when the executor
+                // rejects it, in which case its batch was never evaluated
+                tail = tail.<Void>handleAsync((ignored, failure) -> {
+                    evaluate(batch);
+                    return null;
+                }, executorService).exceptionally(failure -> {
+                    discard(batch, failure);
+                    return null;
+                });
+            }
+        } else {
+            try {
+                executorService.execute(() -> evaluate(batch));
+            } catch (RejectedExecutionException e) {
+                discard(batch, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the next evaluated batch.
+     *
+     * @return evaluated batch, or null if there is none
+     */
+    RBatch poll() {
+        return completed.poll();
+    }
+
+    /**
+     * Returns the number of batches which have been submitted and not yet evaluated.
+     *
+     * @return number of batches in flight
+     */
+    int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Waits for the batches in flight to be evaluated.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     */
+    void drain(long timeout) {
+        try {
+            if (inFlight.tryAcquire(maxInFlight, timeout, TimeUnit.MILLISECONDS)) {
+                inFlight.release(maxInFlight);
+            } else {
+                log.warn("R evaluations still in flight after waiting " + timeout + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Evaluates a batch, giving its permit back whatever the evaluator throws. The evaluator releases the batches
+     * it is handed, only the batches which never reach it are released here.
+     */
+    private void evaluate(RBatch batch) {
+        try {
+            evaluator.accept(batch);
+            completed.add(batch);
+        } catch (Throwable t) {
+            log.error("Unable to evaluate the R script, dropping the batch", t);
+        } finally {
+            inFlight.release();
+        }
+        notifyCompletion();
+    }
+
+    private void discard(RBatch batch, Throwable failure) {
+        log.error("Unable to hand a batch over to R, dropping it", failure);
+        try {
+            releaser.accept(batch);
+        } catch (Throwable t) {
+            log.error("Unable to release a dropped R batch", t);
+        } finally {
+            inFlight.release();
+        }
+        notifyCompletion();
+    }
+
+    private void notifyCompletion() {
+        try {
+            notifier.run();
+        } catch (Throwable t) {
+            log.error("Unable to notify the completion of an R evaluation", t);
+        }
+    }
+}
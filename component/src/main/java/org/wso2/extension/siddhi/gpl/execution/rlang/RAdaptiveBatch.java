@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import java.util.Arrays;
+
+/**
+ * Adapts the size of the micro batches of a processor to a latency target. Every evaluation is measured; the cost
+ * of an evaluation is modelled as a fixed cost per call plus a cost per row, fitted by exponentially weighted least
+ * squares, and the 99th percentile of the recent evaluation times is tracked. Every few evaluations the batch size
+ * shrinks multiplicatively when the percentile misses the target, else it grows towards the largest size the cost
+ * model predicts to meet the target.
+ */
+final class RAdaptiveBatch implements RAdaptiveBatchMBean {
+
+    static final int MAX_SIZE = 65536;
+
+    private static final int WINDOW = 128;
+    private static final int ADJUST_EVERY = 16;
+    private static final double DECAY = 0.95;
+    private static final double DECREASE = 0.7;
+    private static final double INCREASE = 1.5;
+
+    private final double target;
+    private final double[] latencies = new double[WINDOW];
+    private int position;
+    private int samples;
+    private long evaluations;
+    private double weight;
+    private double sumRows;
+    private double sumTime;
+    private double sumRowsSquared;
+    private double sumRowsTime;
+    private double costPerCall;
+    private double costPerRow;
+    private double latencyP99;
+    private volatile int batchSize;
+
+    /**
+     * @param target      target of the 99th percentile of the evaluation time of a batch, in milliseconds
+     * @param initialSize batch size until enough evaluations are measured
+     */
+    RAdaptiveBatch(double target, int initialSize) {
+        this.target = target;
+        this.batchSize = Math.max(1, Math.min(initialSize, MAX_SIZE));
+    }
+
+    /**
+     * Records the evaluation time of a batch and adjusts the batch size.
+     *
+     * @param rows   number of events of the batch
+     * @param millis evaluation time in milliseconds
+     */
+    synchronized void record(int rows, double millis) {
+        latencies[position] = millis;
+        position = (position + 1) % WINDOW;
+        evaluations++;
+        samples = Math.min(samples + 1, WINDOW);
+        weight = weight * DECAY + 1;
+        sumRows = sumRows * DECAY + rows;
+        sumTime = sumTime * DECAY + millis;
+        sumRowsSquared = sumRowsSquared * DECAY + (double) rows * rows;
+        sumRowsTime = sumRowsTime * DECAY + rows * millis;
+        double variance = weight * sumRowsSquared - sumRows * sumRows;
+        if (variance > 1e-9 * weight * weight) {
+            costPerRow = Math.max(0, (weight * sumRowsTime - sumRows * sumTime) / variance);
+        } else {
+            // Every batch had the same size, the cost cannot be split between the call and the rows yet
+            costPerRow = sumRows > 0 ? sumTime / sumRows : 0;
+        }
+        costPerCall = Math.max(0, (sumTime - costPerRow * sumRows) / weight);
+        if (evaluations % ADJUST_EVERY == 0) {
+            adjust();
+        }
+    }
+
+    private void adjust() {
+        double[] recent = new double[samples];
+        for (int i = 0; i < samples; i++) {
+            recent[i] = latencies[(position - 1 - i + WINDOW) % WINDOW];
+        }
+        Arrays.sort(recent);
+        latencyP99 = recent[Math.min(samples - 1, (int) Math.ceil(samples * 0.99) - 1)];
+        long size;
+        if (latencyP99 > target) {
+            size = (long) (batchSize * DECREASE);
+            // Older samples belong to the larger batches, judge the new size on its own
+            samples = 0;
+        } else {
+            long limit = costPerRow > 0 ? (long) ((target - costPerCall) / costPerRow) : MAX_SIZE;
+            size = Math.min((long) Math.ceil(batchSize * INCREASE), limit);
+        }
+        batchSize = (int) Math.max(1, Math.min(size, MAX_SIZE));
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public double getTargetLatency() {
+        return target;
+    }
+
+    @Override
+    public synchronized double getLatencyP99() {
+        return latencyP99;
+    }
+
+    @Override
+    public synchronized double getCostPerCall() {
+        return costPerCall;
+    }
+
+    @Override
+    public synchronized double getCostPerRow() {
+        return costPerRow;
+    }
+
+    @Override
+    public synchronized long getEvaluations() {
+        return evaluations;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+/**
+ * Management interface of the adaptive micro batch size of an R stream processor.
+ */
+public interface RAdaptiveBatchMBean {
+
+    /**
+     * @return current maximum number of events of a micro batch
+     */
+    int getBatchSize();
+
+    /**
+     * @return target of the 99th percentile of the evaluation time of a batch, in milliseconds
+     */
+    double getTargetLatency();
+
+    /**
+     * @return 99th percentile of the recent evaluation times, in milliseconds
+     */
+    double getLatencyP99();
+
+    /**
+     * @return estimated fixed cost of an evaluation, in milliseconds
+     */
+    double getCostPerCall();
+
+    /**
+     * @return estimated cost of each row of an evaluation, in milliseconds
+     */
+    double getCostPerRow();
+
+    /**
+     * @return number of evaluations measured
+     */
+    long getEvaluations();
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.rosuda.REngine.REXP;
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batch of events handed to the R backend by a processor. It is split into parts, one per shard key or a single
+ * one when the query is not sharded. Each part is evaluated once and populates its output events, which are
+ * copies of the input events: one per part, one per group of a grouped part, or one per event of the part when
+ * the query outputs per event.
+ */
+final class RBatch {
+
+    /**
+     * Output events of all the parts, in the order they are emitted.
+     */
+    final List<StreamEvent> events = new ArrayList<StreamEvent>();
+    final List<Part> parts = new ArrayList<Part>(1);
+    /**
+     * Buffers backing the input vectors of the parts, given back once the batch has been evaluated.
+     */
+    final List<RColumns.Buffer> buffers = new ArrayList<RColumns.Buffer>(1);
+    /**
+     * Number of input events of the batch.
+     */
+    int size;
+    /**
+     * Whether the batch was not evaluated in time, or skipped by the circuit breaker, in which case it gets the
+     * timeout action instead of the outputs of the evaluation.
+     */
+    volatile boolean timedOut;
+
+    Part add(REXP[] values, int worker, int[] indexes) {
+        Part part = new Part(values, worker, indexes);
+        parts.add(part);
+        return part;
+    }
+
+    /**
+     * Inputs and output of one evaluation of the script.
+     */
+    static final class Part {
+        final REXP[] values;
+        /**
+         * Worker the part is pinned to, or -1 if any worker may evaluate it.
+         */
+        final int worker;
+        /**
+         * Positions of the output events of the part in {@link RBatch#events}.
+         */
+        final int[] indexes;
+        /**
+         * Group of each element of the input vectors, numbered from one in order of appearance, or null if the part
+         * is evaluated as a whole. A grouped part has one output event per group.
+         */
+        int[] groups;
+        /**
+         * Output data of each output event, or null if the part was coalesced into a later batch.
+         */
+        Object[][] rows;
+
+        Part(REXP[] values, int worker, int[] indexes) {
+            this.values = values;
+            this.worker = worker;
+            this.indexes = indexes;
+        }
+    }
+}
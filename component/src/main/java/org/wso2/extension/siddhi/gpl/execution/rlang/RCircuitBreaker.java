@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+/**
+ * Circuit breaker of the evaluations of a processor. Once the given number of evaluations in a row time out, R is
+ * skipped for the cool-down period. Then a single evaluation is let through: the breaker closes if it succeeds,
+ * and stays open for another period if it times out too.
+ */
+final class RCircuitBreaker {
+
+    private final int threshold;
+    private final long coolDown;
+    private int failures;
+    private long openUntil = -1;
+
+    /**
+     * @param threshold number of consecutive timeouts which open the breaker
+     * @param coolDown  time in milliseconds for which an open breaker skips R
+     */
+    RCircuitBreaker(int threshold, long coolDown) {
+        this.threshold = threshold;
+        this.coolDown = coolDown;
+    }
+
+    /**
+     * Tells whether an evaluation may go to R.
+     *
+     * @param now current time in milliseconds
+     * @return false while the breaker is open
+     */
+    synchronized boolean allow(long now) {
+        if (openUntil < 0) {
+            return true;
+        }
+        if (now < openUntil) {
+            return false;
+        }
+        // Let a single evaluation probe R, the others are skipped until it completes
+        openUntil = now + coolDown;
+        return true;
+    }
+
+    synchronized void success() {
+        failures = 0;
+        openUntil = -1;
+    }
+
+    /**
+     * Records a timeout.
+     *
+     * @param now current time in milliseconds
+     * @return whether the breaker opened because of it
+     */
+    synchronized boolean failure(long now) {
+        if (++failures < threshold) {
+            return false;
+        }
+        boolean opened = openUntil < 0;
+        openUntil = now + coolDown;
+        return opened;
+    }
+}
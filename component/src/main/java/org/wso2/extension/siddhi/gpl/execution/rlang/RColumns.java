@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPString;
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+import org.wso2.siddhi.core.executor.ExpressionExecutor;
+import org.wso2.siddhi.core.executor.VariableExpressionExecutor;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Transposes events into the input vectors of a script, reading all the columns in a single pass over the events.
+ * The primitive arrays backing the vectors are pooled per processor and reused by later batches of the same size,
+ * which is the common case for length batch windows. A batch holds on to its buffer until it has been evaluated, as
+ * backends may only read the vectors during the evaluation.
+ * <p>
+ * Large batches may instead be transferred through a file, preferably on tmpfs, which the script reads with
+ * {@code readBin}. The file holds the numeric and logical attributes one after the other, in the order of the input
+ * attributes, each as a block of one value per event. Double, float and long attributes are written as 8 byte
+ * doubles, int attributes as 4 byte integers and bool attributes as 4 byte integers which are 1 for true and 0 for
+ * false, all little endian, with R's NA values for nulls. String attributes are still sent as vectors.
+ */
+final class RColumns {
+
+    private static final Logger log = Logger.getLogger(RColumns.class);
+    private static final int MAX_POOLED = 8;
+
+    private final VariableExpressionExecutor[] executors;
+    private final Attribute.Type[] types;
+    private final Deque<Buffer> pool = new ArrayDeque<Buffer>(MAX_POOLED);
+
+    RColumns(ExpressionExecutor[] executors) {
+        this.executors = new VariableExpressionExecutor[executors.length];
+        this.types = new Attribute.Type[executors.length];
+        for (int i = 0; i < executors.length; i++) {
+            this.executors[i] = (VariableExpressionExecutor) executors[i];
+            this.types[i] = executors[i].getReturnType();
+        }
+    }
+
+    /**
+     * Fills a buffer with the input attributes of the given events. Null values are sent as NA.
+     *
+     * @param events events of the batch
+     * @return buffer holding one input vector per attribute
+     */
+    Buffer marshal(List<StreamEvent> events) {
+        Buffer buffer = acquire(events.size());
+        // Positions are resolved once per batch, as they are only final once the query is fully built
+        int[][] positions = new int[executors.length][];
+        long bytes = 0;
+        for (int j = 0; j < executors.length; j++) {
+            positions[j] = executors[j].getPosition();
+            if (types[j] != Attribute.Type.STRING) {
+                bytes += (long) buffer.size * width(types[j]);
+            }
+        }
+        for (int i = 0; i < buffer.size; i++) {
+            StreamEvent event = events.get(i);
+            for (int j = 0; j < positions.length; j++) {
+                Object value = event.getAttribute(positions[j]);
+                switch (types[j]) {
+                    case DOUBLE:
+                    case FLOAT:
+                    case LONG:
+                        buffer.doubles[j][i] = value == null ? REXPDouble.NA : ((Number) value).doubleValue();
+                        break;
+                    case INT:
+                        buffer.integers[j][i] = value == null ? REXPInteger.NA : (Integer) value;
+                        break;
+                    case STRING:
+                        buffer.strings[j][i] = (String) value;
+                        bytes += size((String) value);
+                        break;
+                    default:
+                        buffer.logicals[j][i] = value == null ? REXPLogical.NA :
+                                (Boolean) value ? REXPLogical.TRUE : REXPLogical.FALSE;
+                }
+            }
+        }
+        buffer.bytes = bytes;
+        return buffer;
+    }
+
+    /**
+     * Builds input vectors of the given length holding synthetic values of the types of the attributes: increasing
+     * numbers, alternating logicals and strings drawn from a few levels.
+     *
+     * @param size number of elements of each vector
+     * @return one input vector per attribute
+     */
+    REXP[] sample(int size) {
+        REXP[] vectors = new REXP[types.length];
+        for (int j = 0; j < types.length; j++) {
+            switch (types[j]) {
+                case DOUBLE:
+                case FLOAT:
+                case LONG:
+                    double[] doubles = new double[size];
+                    for (int i = 0; i < size; i++) {
+                        doubles[i] = i + 1;
+                    }
+                    vectors[j] = new REXPDouble(doubles);
+                    break;
+                case INT:
+                    int[] integers = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        integers[i] = i + 1;
+                    }
+                    vectors[j] = new REXPInteger(integers);
+                    break;
+                case STRING:
+                    String[] strings = new String[size];
+                    for (int i = 0; i < size; i++) {
+                        strings[i] = "level" + (i % 4);
+                    }
+                    vectors[j] = new REXPString(strings);
+                    break;
+                default:
+                    byte[] logicals = new byte[size];
+                    for (int i = 0; i < size; i++) {
+                        logicals[i] = i % 2 == 0 ? REXPLogical.TRUE : REXPLogical.FALSE;
+                    }
+                    vectors[j] = new REXPLogical(logicals);
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Writes the numeric and logical attributes of the events to a new file in the given directory, see the layout
+     * above, and fills a buffer with the string attributes.
+     *
+     * @param events    events of the batch
+     * @param directory directory of the file
+     * @return buffer holding the path of the file, the number of events and one input vector per string attribute
+     * @throws IOException if the file cannot be written
+     */
+    Buffer write(List<StreamEvent> events, Path directory) throws IOException {
+        int size = events.size();
+        int[][] positions = new int[executors.length][];
+        int[] offsets = new int[executors.length];
+        int length = 0;
+        int stringCount = 0;
+        for (int j = 0; j < executors.length; j++) {
+            positions[j] = executors[j].getPosition();
+            if (types[j] == Attribute.Type.STRING) {
+                stringCount++;
+            } else {
+                offsets[j] = length;
+                length += size * width(types[j]);
+            }
+        }
+        String[][] strings = new String[executors.length][];
+        REXP[] vectors = new REXP[stringCount + 2];
+        for (int j = 0, k = 2; j < executors.length; j++) {
+            if (types[j] == Attribute.Type.STRING) {
+                strings[j] = new String[size];
+                vectors[k++] = new REXPString(strings[j]);
+            }
+        }
+        long bytes = length;
+        Path file = Files.createTempFile(directory, "siddhi-r-", ".bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < size; i++) {
+                StreamEvent event = events.get(i);
+                for (int j = 0; j < positions.length; j++) {
+                    Object value = event.getAttribute(positions[j]);
+                    switch (types[j]) {
+                        case DOUBLE:
+                        case FLOAT:
+                        case LONG:
+                            buffer.putDouble(offsets[j] + i * 8, value == null ? REXPDouble.NA :
+                                    ((Number) value).doubleValue());
+                            break;
+                        case INT:
+                            buffer.putInt(offsets[j] + i * 4, value == null ? REXPInteger.NA : (Integer) value);
+                            break;
+                        case STRING:
+                            strings[j][i] = (String) value;
+                            bytes += size((String) value);
+                            break;
+                        default:
+                            buffer.putInt(offsets[j] + i * 4, value == null ? REXPInteger.NA :
+                                    (Boolean) value ? 1 : 0);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        vectors[0] = new REXPString(file.toString());
+        vectors[1] = new REXPInteger(size);
+        Buffer buffer = new Buffer(file, vectors);
+        buffer.bytes = bytes;
+        return buffer;
+    }
+
+    /**
+     * Builds the R statements which read the file written by {@link #write(List, Path)} into the input variables.
+     *
+     * @param names        names of the input variables
+     * @param pathVariable variable holding the path of the file
+     * @param sizeVariable variable holding the number of events
+     * @return R statements
+     */
+    String readScript(String[] names, String pathVariable, String sizeVariable) {
+        StringBuilder sb = new StringBuilder(".siddhi.con <- file(").append(pathVariable).append(", \"rb\")\n");
+        for (int j = 0; j < types.length; j++) {
+            if (types[j] == Attribute.Type.STRING) {
+                continue;
+            }
+            String what = types[j] == Attribute.Type.INT ? "integer" :
+                    types[j] == Attribute.Type.BOOL ? "logical" : "double";
+            sb.append(names[j]).append(" <- readBin(.siddhi.con, \"").append(what).append("\", ")
+                    .append(sizeVariable).append(", size = ").append(width(types[j]))
+                    .append(", endian = \"little\")\n");
+        }
+        return sb.append("close(.siddhi.con)\n").toString();
+    }
+
+    /**
+     * Gives back a buffer once its batch has been evaluated.
+     */
+    synchronized void release(Buffer buffer) {
+        if (buffer.file != null) {
+            try {
+                Files.deleteIfExists(buffer.file);
+            } catch (IOException e) {
+                log.warn("Unable to delete the transfer file " + buffer.file, e);
+            }
+            return;
+        }
+        if (buffer.size == 0) {
+            return;
+        }
+        pool.addFirst(buffer);
+        if (pool.size() > MAX_POOLED) {
+            pool.removeLast();
+        }
+    }
+
+    /**
+     * Estimates the size of a string element the way R holds it, a pointer to the cached string and its bytes.
+     */
+    private static int size(String value) {
+        return value == null ? 8 : 8 + value.length();
+    }
+
+    private static int width(Attribute.Type type) {
+        return type == Attribute.Type.DOUBLE || type == Attribute.Type.FLOAT || type == Attribute.Type.LONG ? 8 : 4;
+    }
+
+    private Buffer acquire(int size) {
+        synchronized (this) {
+            for (Iterator<Buffer> iterator = pool.iterator(); iterator.hasNext(); ) {
+                Buffer buffer = iterator.next();
+                if (buffer.size == size) {
+                    iterator.remove();
+                    return buffer;
+                }
+            }
+        }
+        return new Buffer(types, size);
+    }
+
+    /**
+     * Input vectors of one batch along with the arrays, or the file, backing them.
+     */
+    static final class Buffer {
+        final int size;
+        final REXP[] vectors;
+        final Path file;
+        final double[][] doubles;
+        final int[][] integers;
+        final String[][] strings;
+        final byte[][] logicals;
+        // Estimated size of the inputs sent to R, or written to the file
+        long bytes;
+
+        Buffer(Path file, REXP[] vectors) {
+            this.size = 0;
+            this.vectors = vectors;
+            this.file = file;
+            doubles = null;
+            integers = null;
+            strings = null;
+            logicals = null;
+        }
+
+        Buffer(Attribute.Type[] types, int size) {
+            this.size = size;
+            file = null;
+            vectors = new REXP[types.length];
+            doubles = new double[types.length][];
+            integers = new int[types.length][];
+            strings = new String[types.length][];
+            logicals = new byte[types.length][];
+            for (int j = 0; j < types.length; j++) {
+                switch (types[j]) {
+                    case DOUBLE:
+                    case FLOAT:
+                    case LONG:
+                        doubles[j] = new double[size];
+                        vectors[j] = new REXPDouble(doubles[j]);
+                        break;
+                    case INT:
+                        integers[j] = new int[size];
+                        vectors[j] = new REXPInteger(integers[j]);
+                        break;
+                    case STRING:
+                        strings[j] = new String[size];
+                        vectors[j] = new REXPString(strings[j]);
+                        break;
+                    default:
+                        logicals[j] = new byte[size];
+                        vectors[j] = new REXPLogical(logicals[j]);
+                }
+            }
+        }
+    }
+}
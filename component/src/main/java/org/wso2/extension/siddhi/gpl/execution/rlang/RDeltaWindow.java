@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.RList;
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sliding window of a processor with 'window=delta'. Rather than the whole window, each batch sends the arrivals
+ * and the expirations since the previous batch, exposed to the script as the lists '.added' and '.removed' of the
+ * input vectors. Expirations reach the processor between batches, hence they wait for the next batch here.
+ */
+final class RDeltaWindow {
+
+    static final String ADDED = ".added";
+    static final String REMOVED = ".removed";
+    static final String[] VARIABLES = {ADDED, REMOVED};
+
+    private final String[] inputNames;
+    private List<StreamEvent> expired = new ArrayList<StreamEvent>();
+
+    /**
+     * @param inputNames names of the input vectors, which name the elements of both lists
+     */
+    RDeltaWindow(String[] inputNames) {
+        this.inputNames = inputNames;
+    }
+
+    /**
+     * Keeps an expired event until the next batch.
+     *
+     * @param event copy of the expired event
+     */
+    void expire(StreamEvent event) {
+        expired.add(event);
+    }
+
+    /**
+     * Returns the events expired since the previous batch, which are then sent along with the current one.
+     *
+     * @return expired events, in the order they expired
+     */
+    List<StreamEvent> takeExpired() {
+        List<StreamEvent> taken = expired;
+        expired = new ArrayList<StreamEvent>();
+        return taken;
+    }
+
+    /**
+     * Returns the values of the '.added' and '.removed' variables.
+     *
+     * @param added   input vectors of the arrivals
+     * @param removed input vectors of the expirations
+     * @return values of the variables, in the order of {@link #VARIABLES}
+     */
+    REXP[] values(REXP[] added, REXP[] removed) {
+        return new REXP[]{new REXPGenericVector(new RList(added, inputNames)),
+                new REXPGenericVector(new RList(removed, inputNames))};
+    }
+
+    /**
+     * Returns the expirations which wait for the next batch, to be saved along with the environment.
+     */
+    ArrayList<StreamEvent> currentState() {
+        return new ArrayList<StreamEvent>(expired);
+    }
+
+    void restoreState(List<StreamEvent> state) {
+        expired = new ArrayList<StreamEvent>(state);
+    }
+}
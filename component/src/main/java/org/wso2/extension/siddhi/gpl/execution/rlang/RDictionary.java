@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary of the values of a string attribute, which is sent to R as a factor: the values are replaced by their
+ * one-based codes, and only the levels which a worker has not seen yet are sent along with them. Suits attributes
+ * of low cardinality, as the levels are never forgotten.
+ */
+final class RDictionary {
+
+    private final Map<String, Integer> codes = new HashMap<String, Integer>();
+    private final List<String> levels = new ArrayList<String>();
+    /**
+     * Number of levels already sent to each worker.
+     */
+    private final int[] sent;
+
+    RDictionary(int workerCount) {
+        sent = new int[workerCount];
+    }
+
+    /**
+     * Replaces the values by their codes, adding the values seen for the first time to the levels. Null values
+     * are encoded as NA.
+     */
+    REXP encode(String[] values) {
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                result[i] = REXPInteger.NA;
+                continue;
+            }
+            Integer code = codes.get(values[i]);
+            if (code == null) {
+                levels.add(values[i]);
+                code = levels.size();
+                codes.put(values[i], code);
+            }
+            result[i] = code;
+        }
+        return new REXPInteger(result);
+    }
+
+    /**
+     * Returns the levels which have not been sent to the given worker yet, and marks them as sent.
+     */
+    REXP newLevels(int worker) {
+        List<String> newLevels = levels.subList(sent[worker], levels.size());
+        sent[worker] = levels.size();
+        return new REXPString(newLevels.toArray(new String[newLevels.size()]));
+    }
+
+    /**
+     * Marks every level as not sent, so that the levels are sent again to an environment which was reset.
+     */
+    void resend() {
+        Arrays.fill(sent, 0);
+    }
+}
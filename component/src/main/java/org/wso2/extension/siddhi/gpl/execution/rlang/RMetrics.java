@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.wso2.siddhi.core.config.SiddhiAppContext;
+import org.wso2.siddhi.core.util.SiddhiConstants;
+import org.wso2.siddhi.core.util.statistics.metrics.SiddhiStatisticsManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the stages a batch of an R processor goes through: marshalling the events into input vectors,
+ * evaluating the script and extracting the outputs. They are registered with the statistics manager of the app,
+ * hence they are reported along with the metrics of Siddhi itself, over JMX with
+ * {@code @app:statistics(reporter = 'jmx')}, and they are only recorded while the statistics of the app are enabled.
+ * Their names follow the ones of the query the processor belongs to, e.g.
+ * {@code org.wso2.siddhi.SiddhiApps.app.Siddhi.Queries.query.r.eval}.
+ */
+final class RMetrics {
+
+    private final SiddhiAppContext siddhiAppContext;
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final Histogram batchSize;
+    private final Histogram batchBytes;
+    private final Histogram queueDepth;
+    private final Timer marshal;
+    private final Timer eval;
+    private final Timer unmarshal;
+    private final Counter errors;
+    private final Counter timeouts;
+
+    private RMetrics(SiddhiAppContext siddhiAppContext, MetricRegistry registry, String prefix) {
+        this.siddhiAppContext = siddhiAppContext;
+        this.registry = registry;
+        this.prefix = prefix;
+        batchSize = registry.histogram(prefix + "batch.size");
+        batchBytes = registry.histogram(prefix + "batch.bytes");
+        queueDepth = registry.histogram(prefix + "queue.depth");
+        marshal = registry.timer(prefix + "marshal");
+        eval = registry.timer(prefix + "eval");
+        unmarshal = registry.timer(prefix + "unmarshal");
+        errors = registry.counter(prefix + "errors");
+        timeouts = registry.counter(prefix + "timeouts");
+    }
+
+    /**
+     * Registers the metrics of a processor.
+     *
+     * @param siddhiAppContext context of the app the processor belongs to
+     * @param queryName        name of the query the processor belongs to
+     * @return the metrics, or null if statistics are not configured for the app
+     */
+    static RMetrics create(SiddhiAppContext siddhiAppContext, String queryName) {
+        if (!(siddhiAppContext.getStatisticsManager() instanceof SiddhiStatisticsManager)) {
+            return null;
+        }
+        String prefix = siddhiAppContext.getSiddhiContext().getStatisticsConfiguration().getMetricPrefix() +
+                SiddhiConstants.METRIC_DELIMITER + SiddhiConstants.METRIC_INFIX_SIDDHI_APPS +
+                SiddhiConstants.METRIC_DELIMITER + siddhiAppContext.getName() + SiddhiConstants.METRIC_DELIMITER +
+                SiddhiConstants.METRIC_INFIX_SIDDHI + SiddhiConstants.METRIC_DELIMITER +
+                SiddhiConstants.METRIC_INFIX_QUERIES + SiddhiConstants.METRIC_DELIMITER + queryName +
+                SiddhiConstants.METRIC_DELIMITER + "r" + SiddhiConstants.METRIC_DELIMITER;
+        return new RMetrics(siddhiAppContext,
+                ((SiddhiStatisticsManager) siddhiAppContext.getStatisticsManager()).getRegistry(), prefix);
+    }
+
+    /**
+     * Returns whether the stages should be measured, which is the case while the statistics of the app are enabled.
+     */
+    boolean isEnabled() {
+        return siddhiAppContext.isStatsEnabled();
+    }
+
+    /**
+     * Registers a gauge along with the metrics of the processor, unless one of the same name is registered.
+     *
+     * @param name  name of the gauge, relative to the processor
+     * @param gauge the gauge
+     */
+    void gauge(String name, Gauge<?> gauge) {
+        if (!registry.getNames().contains(prefix + name)) {
+            registry.register(prefix + name, gauge);
+        }
+    }
+
+    /**
+     * Records a marshalled batch.
+     *
+     * @param size  number of events
+     * @param bytes estimated size of the input vectors
+     * @param nanos time taken to marshal the events
+     */
+    void marshalled(int size, long bytes, long nanos) {
+        batchSize.update(size);
+        batchBytes.update(bytes);
+        marshal.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the number of batches waiting to be evaluated when a batch is queued.
+     */
+    void queued(int depth) {
+        queueDepth.update(depth);
+    }
+
+    /**
+     * Records the time a backend took to evaluate the script.
+     */
+    void evaluated(long nanos) {
+        eval.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the time taken to extract the outputs.
+     */
+    void unmarshalled(long nanos) {
+        unmarshal.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void error() {
+        errors.inc();
+    }
+
+    void timeout() {
+        timeouts.inc();
+    }
+
+    /**
+     * Removes the metrics of the processor from the registry.
+     */
+    void remove() {
+        registry.removeMatching((name, metric) -> name.startsWith(prefix));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+import org.wso2.siddhi.core.executor.ExpressionExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers the arrivals of a processor which has no batch window in front of it, so that R is called once per
+ * micro batch instead of once per chunk. A micro batch is flushed as soon as it holds the maximum number of events
+ * or the maximum number of bytes, or once its first event has waited for the maximum latency.
+ */
+final class RMicroBatch {
+
+    private volatile int maxSize;
+    private final long maxBytes;
+    private final long maxLatency;
+    private final ExpressionExecutor[] inputExecutors;
+    private List<StreamEvent> events = new ArrayList<StreamEvent>();
+    private long bytes;
+    private long deadline = -1;
+
+    /**
+     * @param maxSize        maximum number of events, or 0 for no limit
+     * @param maxBytes       maximum estimated size of the inputs in bytes, or 0 for no limit
+     * @param maxLatency     maximum time in milliseconds the first event of a micro batch waits
+     * @param inputExecutors executors of the input attributes, whose values the size is estimated from
+     */
+    RMicroBatch(int maxSize, long maxBytes, long maxLatency, ExpressionExecutor[] inputExecutors) {
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+        this.maxLatency = maxLatency;
+        this.inputExecutors = inputExecutors;
+    }
+
+    /**
+     * Changes the maximum number of events, taking effect from the next event.
+     *
+     * @param maxSize maximum number of events, or 0 for no limit
+     */
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Buffers an event.
+     *
+     * @param event the event, which is kept until the micro batch is flushed
+     * @param now   current time
+     * @return the events of the micro batch if it is full, else null
+     */
+    synchronized List<StreamEvent> add(StreamEvent event, long now) {
+        if (events.isEmpty()) {
+            deadline = now + maxLatency;
+        }
+        events.add(event);
+        if (maxBytes > 0) {
+            bytes += size(event);
+        }
+        if ((maxSize > 0 && events.size() >= maxSize) || (maxBytes > 0 && bytes >= maxBytes)) {
+            return flush();
+        }
+        return null;
+    }
+
+    /**
+     * Flushes the micro batch if its first event has waited for the maximum latency.
+     *
+     * @param now current time
+     * @return the events of the micro batch if it is due, else null
+     */
+    synchronized List<StreamEvent> expire(long now) {
+        if (events.isEmpty() || now < deadline) {
+            return null;
+        }
+        return flush();
+    }
+
+    /**
+     * Returns the time at which the pending micro batch is due.
+     *
+     * @return due time, or -1 if no event is buffered
+     */
+    synchronized long getDeadline() {
+        return events.isEmpty() ? -1 : deadline;
+    }
+
+    /**
+     * Returns the number of events buffered for the pending micro batch.
+     *
+     * @return number of buffered events
+     */
+    synchronized int getPending() {
+        return events.size();
+    }
+
+    private List<StreamEvent> flush() {
+        List<StreamEvent> flushed = events;
+        events = new ArrayList<StreamEvent>(flushed.size());
+        bytes = 0;
+        deadline = -1;
+        return flushed;
+    }
+
+    /**
+     * Estimates the size of the inputs of an event the way they are held by R vectors.
+     */
+    private long size(StreamEvent event) {
+        long size = 0;
+        for (ExpressionExecutor executor : inputExecutors) {
+            Object value = executor.execute(event);
+            size += value instanceof String ? 8 + ((String) value).length() : 8;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Query level options of the R stream processors, given as an optional constant string parameter right after the
+ * output attributes, e.g. 'shard.by=sensorId'. Options are separated by commas and each one is a key=value pair.
+ * Keys starting with 'model.' are open ended, the rest of the key names the variable the model is bound to. The
+ * options are validated as a whole when they are parsed, see the README for their reference.
+ */
+final class ROptions {
+
+    static final String SHARD_BY = "shard.by";
+    static final String GROUP_BY = "group.by";
+    static final String COALESCE = "coalesce";
+    static final String MODE = "mode";
+    static final String ASYNC_ORDER = "async.order";
+    static final String ASYNC_MAX_IN_FLIGHT = "async.max.in.flight";
+    static final String WINDOW = "window";
+    static final String OUTPUT = "output";
+    static final String OUTPUT_FRAME = "output.frame";
+    static final String TRANSFER = "transfer";
+    static final String STRINGS = "strings";
+    static final String BATCH_SIZE = "batch.size";
+    static final String BATCH_BYTES = "batch.bytes";
+    static final String BATCH_LATENCY = "batch.latency";
+    static final String BATCH_LATENCY_TARGET = "batch.latency.target";
+    static final String TIMEOUT = "timeout";
+    static final String ON_TIMEOUT = "on.timeout";
+    static final String FALLBACK = "fallback";
+    static final String BREAKER_THRESHOLD = "breaker.threshold";
+    static final String BREAKER_COOL_DOWN = "breaker.cooldown";
+    static final String TRAIN = "train";
+    static final String SCORE = "score";
+    static final String WARMUP = "warmup";
+    static final String PACKAGES = "packages";
+    static final String MODEL_PREFIX = "model.";
+
+    static final String SYNC = "sync";
+    static final String ASYNC = "async";
+    static final String ORDERED = "ordered";
+    static final String UNORDERED = "unordered";
+    static final String BATCH = "batch";
+    static final String DELTA = "delta";
+    static final String EVENT = "event";
+    static final String ROWS = "rows";
+    static final String ASSIGN = "assign";
+    static final String FILE = "file";
+    static final String CHARACTER = "character";
+    static final String FACTOR = "factor";
+    static final String NULL = "null";
+    static final String DROP = "drop";
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final int DEFAULT_BATCH_LATENCY = 100;
+    private static final int DEFAULT_BREAKER_THRESHOLD = 3;
+    private static final int DEFAULT_BREAKER_COOL_DOWN = 30000;
+
+    private static final Set<String> KEYS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            SHARD_BY, GROUP_BY, COALESCE, MODE, ASYNC_ORDER, ASYNC_MAX_IN_FLIGHT,
+            WINDOW, OUTPUT, OUTPUT_FRAME, TRANSFER, STRINGS, BATCH_SIZE, BATCH_BYTES, BATCH_LATENCY,
+            BATCH_LATENCY_TARGET, TIMEOUT, ON_TIMEOUT, FALLBACK, BREAKER_THRESHOLD, BREAKER_COOL_DOWN,
+            TRAIN, SCORE, WARMUP, PACKAGES)));
+
+    private final Map<String, String> options;
+    private final String shardBy;
+    private final String groupBy;
+    private final boolean coalesce;
+    private final String output;
+    private final String window;
+    private final boolean async;
+    private final boolean ordered;
+    private final int maxInFlight;
+    private final boolean microBatched;
+    private final int batchSize;
+    private final int batchBytes;
+    private final int batchLatency;
+    private final int batchLatencyTarget;
+    private final int timeout;
+    private final String onTimeout;
+    private final int breakerThreshold;
+    private final int breakerCoolDown;
+    private final String train;
+    private final String score;
+    private final int warmup;
+    private final String[] packages;
+    private final boolean fileTransfer;
+    private final boolean factorStrings;
+
+    private ROptions(Map<String, String> options) {
+        this.options = options;
+        shardBy = options.get(SHARD_BY);
+        groupBy = options.get(GROUP_BY);
+        train = options.get(TRAIN);
+        score = options.get(SCORE);
+        coalesce = getBoolean(COALESCE, false);
+        output = getChoice(OUTPUT, BATCH, EVENT, ROWS);
+        if (EVENT.equals(output) && coalesce) {
+            throw new SiddhiAppCreationException("Option '" + OUTPUT + "=" + EVENT + "' cannot be combined with '" +
+                    COALESCE + "', as the outputs would not match the events");
+        }
+        window = getChoice(WINDOW, BATCH, DELTA);
+
+        // Training runs off the Siddhi thread by default, so that a slow fit does not hold up the stream
+        async = ASYNC.equals(train != null ? getChoice(MODE, ASYNC, SYNC) : getChoice(MODE, SYNC, ASYNC));
+        ordered = ORDERED.equals(getChoice(ASYNC_ORDER, ORDERED, UNORDERED)) || !async;
+        maxInFlight = getInt(ASYNC_MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT);
+        if (async && maxInFlight < 1) {
+            throw new SiddhiAppCreationException("Option '" + ASYNC_MAX_IN_FLIGHT + "' should be positive. Found " +
+                    maxInFlight);
+        }
+
+        batchSize = getInt(BATCH_SIZE, 0);
+        batchBytes = getInt(BATCH_BYTES, 0);
+        batchLatency = getInt(BATCH_LATENCY, DEFAULT_BATCH_LATENCY);
+        batchLatencyTarget = getInt(BATCH_LATENCY_TARGET, 0);
+        microBatched = batchSize > 0 || batchBytes > 0 || batchLatencyTarget > 0 || options.containsKey(BATCH_LATENCY);
+        if (microBatched) {
+            if (batchSize < 0 || batchBytes < 0 || batchLatency < 0 || batchLatencyTarget < 0) {
+                throw new SiddhiAppCreationException("Options '" + BATCH_SIZE + "', '" + BATCH_BYTES + "', '" +
+                        BATCH_LATENCY + "' and '" + BATCH_LATENCY_TARGET + "' should not be negative");
+            }
+            if (!BATCH.equals(window)) {
+                throw new SiddhiAppCreationException("Micro batching replaces the window in front of the query, " +
+                        "hence it cannot be combined with '" + WINDOW + "=" + window + "'");
+            }
+        }
+
+        timeout = getInt(TIMEOUT, 0);
+        onTimeout = getChoice(ON_TIMEOUT, NULL, FALLBACK, DROP);
+        breakerThreshold = getInt(BREAKER_THRESHOLD, DEFAULT_BREAKER_THRESHOLD);
+        breakerCoolDown = getInt(BREAKER_COOL_DOWN, DEFAULT_BREAKER_COOL_DOWN);
+        if (timeout < 0) {
+            throw new SiddhiAppCreationException("Option '" + TIMEOUT + "' should not be negative. Found " + timeout);
+        }
+        if (timeout > 0 && (breakerThreshold < 1 || breakerCoolDown < 0)) {
+            throw new SiddhiAppCreationException("Option '" + BREAKER_THRESHOLD + "' should be positive and '" +
+                    BREAKER_COOL_DOWN + "' should not be negative");
+        }
+
+        warmup = getInt(WARMUP, 0);
+        if (warmup < 0) {
+            throw new SiddhiAppCreationException("Option '" + WARMUP + "' should not be negative. Found " + warmup);
+        }
+        List<String> packageNames = new ArrayList<String>();
+        for (String name : getString(PACKAGES, "").split(";")) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            if (!name.trim().matches("[A-Za-z][A-Za-z0-9.]*")) {
+                throw new SiddhiAppCreationException("Option '" + PACKAGES + "' should list R package names " +
+                        "separated by ';'. Found '" + name.trim() + "'");
+            }
+            packageNames.add(name.trim());
+        }
+        packages = packageNames.toArray(new String[packageNames.size()]);
+        if (packages.length > 0 && warmup == 0) {
+            throw new SiddhiAppCreationException("Option '" + PACKAGES + "' lists the packages attached during the " +
+                    "warm-up, hence it requires '" + WARMUP + "'");
+        }
+
+        fileTransfer = FILE.equals(getChoice(TRANSFER, ASSIGN, FILE));
+        if (fileTransfer && (!BATCH.equals(window) || groupBy != null)) {
+            throw new SiddhiAppCreationException("Option '" + TRANSFER + "=" + FILE + "' cannot be combined with '" +
+                    WINDOW + "' or '" + GROUP_BY + "'");
+        }
+        factorStrings = FACTOR.equals(getChoice(STRINGS, CHARACTER, FACTOR));
+        if (factorStrings && (!BATCH.equals(window) || coalesce || fileTransfer || groupBy != null || !ordered)) {
+            throw new SiddhiAppCreationException("Option '" + STRINGS + "=" + FACTOR + "' keeps the factor levels " +
+                    "in R as batches arrive, hence it cannot be combined with '" + WINDOW + "', '" + COALESCE +
+                    "', '" + TRANSFER + "=" + FILE + "', '" + GROUP_BY + "' or unordered evaluation");
+        }
+
+        if (!BATCH.equals(window) && (shardBy != null || groupBy != null || coalesce || !ordered)) {
+            throw new SiddhiAppCreationException("Option '" + WINDOW + "=" + window + "' keeps the window in a " +
+                    "single R environment, hence it cannot be combined with '" + SHARD_BY + "', '" + GROUP_BY +
+                    "', '" + COALESCE + "' or unordered evaluation");
+        }
+        if (train != null && (shardBy != null || groupBy != null || coalesce)) {
+            throw new SiddhiAppCreationException("Option '" + TRAIN + "' publishes one fit per batch, hence it " +
+                    "cannot be combined with '" + SHARD_BY + "', '" + GROUP_BY + "' or '" + COALESCE + "'");
+        }
+        if (groupBy != null && (shardBy != null || coalesce || !BATCH.equals(output))) {
+            throw new SiddhiAppCreationException("Option '" + GROUP_BY + "' emits one event per group, hence it " +
+                    "cannot be combined with '" + SHARD_BY + "', '" + COALESCE + "' or '" + OUTPUT + "=" + output +
+                    "'");
+        }
+    }
+
+    /**
+     * Parses and validates the options.
+     *
+     * @param optionString options separated by commas
+     * @return the options
+     * @throws SiddhiAppCreationException if an option is unknown, has an invalid value, or does not suit the
+     *                                    other options
+     */
+    static ROptions parse(String optionString) {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        for (String option : optionString.split(",")) {
+            if (option.trim().isEmpty()) {
+                continue;
+            }
+            int separator = option.indexOf('=');
+            if (separator < 0) {
+                throw new SiddhiAppCreationException("Invalid option '" + option.trim() + "'. Options should be " +
+                        "given as 'key=value' pairs separated by commas");
+            }
+            String key = option.substring(0, separator).trim();
+            if (!KEYS.contains(key) && !(key.startsWith(MODEL_PREFIX) && key.length() > MODEL_PREFIX.length())) {
+                throw new SiddhiAppCreationException("Unknown option '" + key + "'. Supported options are " + KEYS +
+                        " and " + MODEL_PREFIX + "<name>");
+            }
+            options.put(key, option.substring(separator + 1).trim());
+        }
+        return new ROptions(options);
+    }
+
+    /**
+     * Returns the position of the input attribute named by the given option.
+     *
+     * @param option          option naming an input attribute
+     * @param inputAttributes input attributes of the processor
+     * @return position of the attribute, or -1 if the option is not given
+     */
+    int attributeIndex(String option, List<Attribute> inputAttributes) {
+        String name = options.get(option);
+        if (name == null) {
+            return -1;
+        }
+        for (int i = 0; i < inputAttributes.size(); i++) {
+            if (inputAttributes.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new SiddhiAppCreationException("Option '" + option + "' should name one of the input attributes. " +
+                "Found '" + name + "'");
+    }
+
+    /**
+     * Parses the fallback outputs, given as one value per output attribute separated by semicolons. An empty value
+     * stands for null.
+     *
+     * @param outputAttributes output attributes of the processor
+     * @return value of each output attribute
+     */
+    Object[] getFallbackOutputs(List<Attribute> outputAttributes) {
+        String fallback = getString(FALLBACK, "");
+        String[] values = fallback.split(";", -1);
+        if (values.length != outputAttributes.size()) {
+            throw new SiddhiAppCreationException("Option '" + FALLBACK + "' should give " + outputAttributes.size() +
+                    " values separated by ';'. Found '" + fallback + "'");
+        }
+        Object[] outputs = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i].trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            try {
+                switch (outputAttributes.get(i).getType()) {
+                    case INT:
+                        outputs[i] = Integer.parseInt(value);
+                        break;
+                    case LONG:
+                        outputs[i] = Long.parseLong(value);
+                        break;
+                    case FLOAT:
+                        outputs[i] = Float.parseFloat(value);
+                        break;
+                    case DOUBLE:
+                        outputs[i] = Double.parseDouble(value);
+                        break;
+                    case BOOL:
+                        outputs[i] = Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        outputs[i] = value;
+                }
+            } catch (NumberFormatException e) {
+                throw new SiddhiAppCreationException("Fallback value '" + value + "' does not suit output '" +
+                        outputAttributes.get(i).getName() + "' of type " + outputAttributes.get(i).getType());
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Returns the models to load, keyed by the variable they are bound to.
+     */
+    Map<String, String> getModels() {
+        Map<String, String> models = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().startsWith(MODEL_PREFIX)) {
+                models.put(option.getKey().substring(MODEL_PREFIX.length()), option.getValue());
+            }
+        }
+        return models;
+    }
+
+    boolean isCoalesce() {
+        return coalesce;
+    }
+
+    boolean isPerEventOutput() {
+        return EVENT.equals(output);
+    }
+
+    boolean isMultiRowOutput() {
+        return ROWS.equals(output);
+    }
+
+    String getOutputFrame() {
+        return options.get(OUTPUT_FRAME);
+    }
+
+    boolean isDeltaWindow() {
+        return DELTA.equals(window);
+    }
+
+    boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Tells whether batches are evaluated in the order they arrive, which synchronous evaluation always does.
+     */
+    boolean isOrdered() {
+        return ordered;
+    }
+
+    int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    boolean isMicroBatched() {
+        return microBatched;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    int getBatchBytes() {
+        return batchBytes;
+    }
+
+    int getBatchLatency() {
+        return batchLatency;
+    }
+
+    int getBatchLatencyTarget() {
+        return batchLatencyTarget;
+    }
+
+    int getTimeout() {
+        return timeout;
+    }
+
+    String getOnTimeout() {
+        return onTimeout;
+    }
+
+    int getBreakerThreshold() {
+        return breakerThreshold;
+    }
+
+    int getBreakerCoolDown() {
+        return breakerCoolDown;
+    }
+
+    String getTrain() {
+        return train;
+    }
+
+    String getScore() {
+        return score;
+    }
+
+    int getWarmup() {
+        return warmup;
+    }
+
+    String[] getPackages() {
+        return packages;
+    }
+
+    boolean isFileTransfer() {
+        return fileTransfer;
+    }
+
+    boolean isFactorStrings() {
+        return factorStrings;
+    }
+
+    private String getString(String key, String defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Returns the value of an option which takes one of the given values, the first of them being its default.
+     */
+    private String getChoice(String key, String... choices) {
+        String value = getString(key, choices[0]);
+        if (!Arrays.asList(choices).contains(value)) {
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < choices.length; i++) {
+                if (i > 0) {
+                    expected.append(i == choices.length - 1 ? " or " : ", ");
+                }
+                expected.append("'").append(choices[i]).append("'");
+            }
+            throw new SiddhiAppCreationException("Option '" + key + "' should be " + expected + ". Found '" + value +
+                    "'");
+        }
+        return value;
+    }
+
+    private int getInt(String key, int defaultValue) {
+        String value = options.get(key);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Option '" + key + "' should be an integer. Found '" + value + "'");
+        }
+    }
+
+    private boolean getBoolean(String key, boolean defaultValue) {
+        String value = options.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            throw new SiddhiAppCreationException("Option '" + key + "' should be 'true' or 'false'. Found '" +
+                    value + "'");
+        }
+        return Boolean.parseBoolean(value);
+    }
+}
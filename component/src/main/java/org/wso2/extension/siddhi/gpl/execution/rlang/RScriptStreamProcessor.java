@@ -22,18 +22,17 @@ import org.wso2.siddhi.annotation.Example;
 import org.wso2.siddhi.annotation.Extension;
 import org.wso2.siddhi.annotation.Parameter;
 import org.wso2.siddhi.annotation.ReturnAttribute;
+import org.wso2.siddhi.annotation.SystemParameter;
 import org.wso2.siddhi.annotation.util.DataType;
 import org.wso2.siddhi.core.config.SiddhiAppContext;
 import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
 import org.wso2.siddhi.core.executor.ConstantExpressionExecutor;
 import org.wso2.siddhi.core.executor.ExpressionExecutor;
-import org.wso2.siddhi.core.executor.VariableExpressionExecutor;
 import org.wso2.siddhi.core.util.config.ConfigReader;
 import org.wso2.siddhi.query.api.definition.AbstractDefinition;
 import org.wso2.siddhi.query.api.definition.Attribute;
 
 import java.util.List;
-import java.util.Map;
 
 /**
  * This class runs R script for each event and produces aggregated outputs based on the provided input variable
@@ -44,7 +43,11 @@ import java.util.Map;
         namespace = "r",
         description = "The R Script Stream Processor runs the R script defined within the Siddhi application " +
                 "to each event and produces aggregated outputs based on the input variable parameters provided and " +
-                "the expected output attributes.",
+                "the expected output attributes. When statistics are enabled for the app, " +
+                "e.g. with @app:statistics(reporter = 'jmx'), each processor reports the number of events and the " +
+                "estimated bytes of its batches, the time taken to marshal them, to evaluate the script and to " +
+                "extract the outputs, its errors and timeouts, and the batches and events waiting for R, named " +
+                "after its query as '<prefix>.SiddhiApps.<app>.Siddhi.Queries.<query>.r.<metric>'.",
         parameters = {
                 @Parameter(name = "script",
                            description = "The R script as a string which  produces aggregated outputs based on the " +
@@ -56,6 +59,16 @@ import java.util.Map;
                                    " e.g., 'output1 string, output2 long'.",
                            type = {DataType.INT, DataType.LONG, DataType.FLOAT, DataType.DOUBLE, DataType.STRING,
                                    DataType.STRING}),
+                @Parameter(name = "options",
+                           description = "Optional comma-separated 'key=value' options, given as a constant string " +
+                                   "right after the output attributes, e.g. 'shard.by=sensorId, mode=async'. They " +
+                                   "cover sharding and grouping, asynchronous evaluation, delta windows, output " +
+                                   "shapes, transfer of large batches and of factors, models, micro batching, " +
+                                   "timeouts and warm-up, see their reference at " +
+                                   "https://github.com/wso2-extensions/siddhi-gpl-execution-r#query-options",
+                           type = {DataType.STRING},
+                           optional = true,
+                           defaultValue = "none"),
                 @Parameter(name = "input.attributes",
                            description = "A set of input attributes to be considered when generating the expected " +
                                    "output. This can be provided as a comma-separated list after output attributes. "
@@ -63,6 +76,104 @@ import java.util.Map;
                            type = {DataType.INT, DataType.LONG, DataType.FLOAT, DataType.DOUBLE, DataType.STRING,
                                    DataType.STRING})
         },
+        systemParameter = {
+                @SystemParameter(name = "engine",
+                                 description = "The engine which evaluates the R scripts. 'jri' runs them in the " +
+                                         "R interpreter embedded through JRI. 'java' runs them in a pure Java " +
+                                         "stand-in which understands a subset of R and does not need an R " +
+                                         "installation; it is meant for tests and benchmarks. 'rserve' " +
+                                         "runs them on a pool of Rserve worker processes, evaluating batches in " +
+                                         "parallel across cores.",
+                                 defaultValue = "jri",
+                                 possibleParameters = {"jri", "java", "rserve"}),
+                @SystemParameter(name = "rserve.workers",
+                                 description = "Number of Rserve worker processes used by the 'rserve' engine. " +
+                                         "Script state kept in the R environment is only preserved across " +
+                                         "batches when a single worker is used, or when the query shards its " +
+                                         "batches by key.",
+                                 defaultValue = "Number of available processors",
+                                 possibleParameters = "Any positive integer"),
+                @SystemParameter(name = "executor",
+                                 description = "How calls reach the engine. 'serialized' confines them to a " +
+                                         "dedicated R executor thread fed by a bounded queue, which is required " +
+                                         "by JRI. 'direct' calls the engine from the Siddhi threads.",
+                                 defaultValue = "'serialized' for 'jri', 'direct' otherwise",
+                                 possibleParameters = {"serialized", "direct"}),
+                @SystemParameter(name = "executor.queue.size",
+                                 description = "Capacity of the queue of the R executor thread. Siddhi threads " +
+                                         "block once it is full.",
+                                 defaultValue = "1024",
+                                 possibleParameters = "Any positive integer"),
+                @SystemParameter(name = "java.workers",
+                                 description = "Number of workers of the 'java' engine, each with its own copy " +
+                                         "of the script environments.",
+                                 defaultValue = "1",
+                                 possibleParameters = "Any positive integer"),
+                @SystemParameter(name = "rserve.host",
+                                 description = "Host of the Rserve server used by the 'rserve' engine.",
+                                 defaultValue = "localhost",
+                                 possibleParameters = "Any host name"),
+                @SystemParameter(name = "rserve.port",
+                                 description = "Port of the Rserve server used by the 'rserve' engine.",
+                                 defaultValue = "6311",
+                                 possibleParameters = "Any port"),
+                @SystemParameter(name = "rserve.spawn",
+                                 description = "Whether the 'rserve' engine starts the Rserve server itself " +
+                                         "using 'rserve.command', or connects to one which is already running. " +
+                                         "Only a server started by the engine is stopped along with it.",
+                                 defaultValue = "true",
+                                 possibleParameters = {"true", "false"}),
+                @SystemParameter(name = "rserve.command",
+                                 description = "The R executable used to start the Rserve server. The Rserve " +
+                                         "package must be installed in that R installation.",
+                                 defaultValue = "R",
+                                 possibleParameters = "Path to the R executable"),
+                @SystemParameter(name = "compile",
+                                 description = "Whether scripts are byte-compiled with R's compiler package. " +
+                                         "Compiled scripts are cached by their content and shared by all the " +
+                                         "queries which run the same script on an engine.",
+                                 defaultValue = "true",
+                                 possibleParameters = {"true", "false"}),
+                @SystemParameter(name = "transfer.directory",
+                                 description = "Directory of the files through which queries with the " +
+                                         "'transfer=file' option hand their batches to R. It should be on tmpfs and " +
+                                         "visible to the R processes, hence Rserve must run on the same host.",
+                                 defaultValue = "/dev/shm, or the temporary directory when not available",
+                                 possibleParameters = "Path to a writable directory"),
+                @SystemParameter(name = "models.cache.size",
+                                 description = "Memory in MB which the models no longer used by any query may " +
+                                         "hold before the least recently used ones are evicted. Models in use " +
+                                         "are never evicted.",
+                                 defaultValue = "1024",
+                                 possibleParameters = "Any non-negative integer"),
+                @SystemParameter(name = "environments.max",
+                                 description = "Maximum number of R environments held by the partitioned queries " +
+                                         "of the engine, one per partition key. Beyond it, the environments of " +
+                                         "the least recently used idle keys are reset and reused by the new " +
+                                         "keys, which then start from a fresh environment again. Queries with a " +
+                                         "delta window keep their environments.",
+                                 defaultValue = "1024",
+                                 possibleParameters = "Any positive integer, or 0 for no limit"),
+                @SystemParameter(name = "environments.idle.timeout",
+                                 description = "Time in milliseconds after which the R environment of an idle " +
+                                         "partition key is reset and reused by other keys.",
+                                 defaultValue = "300000",
+                                 possibleParameters = "Any positive integer, or 0 to keep idle environments"),
+                @SystemParameter(name = "gc.threshold",
+                                 description = "Memory in MB held by the reset environments of partition keys " +
+                                         "beyond which the R garbage collector is run.",
+                                 defaultValue = "256",
+                                 possibleParameters = "Any positive integer, or 0 to leave it to R"),
+                @SystemParameter(name = "fast.path",
+                                 description = "Whether the scripts which only use +, -, *, / and the functions " +
+                                         "c, length, sum, mean, var, sd, median, min, max, range, quantile, " +
+                                         "sqrt and abs are evaluated in Java instead of R. The reductions " +
+                                         "follow the extended precision accumulation of R on x86-64, R built " +
+                                         "with another long double may differ in the last bits. Queries which " +
+                                         "train, score or load models, or attach packages, always use R.",
+                                 defaultValue = "false",
+                                 possibleParameters = "true or false")
+        },
         returnAttributes = @ReturnAttribute(
                 name = "outputParameters",
                 description = "The output parameters returned once the R script is run for each event.",
@@ -116,21 +227,8 @@ public class RScriptStreamProcessor extends RStreamProcessor {
                                                          + "input1, ...)");
         }
 
-        for (int i = 2; i < attributeExpressionLength; i++) {
-            if (attributeExpressionExecutors[i] instanceof VariableExpressionExecutor) {
-                inputAttributes.add(((VariableExpressionExecutor) attributeExpressionExecutors[i]).getAttribute());
-            } else {
-                throw new SiddhiAppCreationException("Parameter " + (i + 1) + " should be a variable");
-            }
-        }
-        return initialize(scriptString, outputString);
-    }
-
-    @Override public Map<String, Object> currentState() {
-        return null;
-    }
-
-    @Override public void restoreState(Map<String, Object> map) {
-
+        initializeInputs("Usage: #R:eval(script:string, outputVariables:string, "
+                + "options:string?, input1, ...)");
+        return initialize(scriptString, outputString, configReader);
     }
 }
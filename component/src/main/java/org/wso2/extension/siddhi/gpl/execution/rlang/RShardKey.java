@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+import org.wso2.siddhi.core.executor.ExpressionExecutor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Key of the events of a batch which is split by 'shard.by' or 'group.by'. Shards are evaluated on their own, each
+ * key being pinned to a worker of the backend so that the state it keeps in R stays on that worker. Groups are
+ * evaluated by R in a single call, the script seeing the elements of one group at a time.
+ */
+final class RShardKey {
+
+    private final ExpressionExecutor keyExecutor;
+
+    /**
+     * @param keyExecutor executor of the key attribute
+     */
+    RShardKey(ExpressionExecutor keyExecutor) {
+        this.keyExecutor = keyExecutor;
+    }
+
+    /**
+     * Splits the events by their key.
+     *
+     * @param events events of the batch
+     * @return positions of the events of each key, the keys in order of appearance
+     */
+    Map<Object, List<Integer>> split(List<StreamEvent> events) {
+        Map<Object, List<Integer>> shards = new LinkedHashMap<Object, List<Integer>>();
+        for (int i = 0; i < events.size(); i++) {
+            Object key = keyExecutor.execute(events.get(i));
+            List<Integer> shard = shards.get(key);
+            if (shard == null) {
+                shard = new ArrayList<Integer>();
+                shards.put(key, shard);
+            }
+            shard.add(i);
+        }
+        return shards;
+    }
+
+    /**
+     * Numbers the groups of the events.
+     *
+     * @param events events of the batch
+     * @return group of each event, numbered from one in order of appearance
+     */
+    int[] groups(List<StreamEvent> events) {
+        Map<Object, Integer> groupIds = new LinkedHashMap<Object, Integer>();
+        int[] groups = new int[events.size()];
+        for (int i = 0; i < groups.length; i++) {
+            Object key = keyExecutor.execute(events.get(i));
+            Integer group = groupIds.get(key);
+            if (group == null) {
+                group = groupIds.size() + 1;
+                groupIds.put(key, group);
+            }
+            groups[i] = group;
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the worker a key is pinned to.
+     *
+     * @param key         value of the key
+     * @param workerCount number of workers of the backend
+     * @return index of the worker
+     */
+    static int worker(Object key, int workerCount) {
+        return key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % workerCount;
+    }
+}
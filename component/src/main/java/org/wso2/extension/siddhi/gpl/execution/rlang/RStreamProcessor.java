@@ -18,17 +18,18 @@
 
 package org.wso2.extension.siddhi.gpl.execution.rlang;
 
+import com.codahale.metrics.Gauge;
 import org.apache.log4j.Logger;
-import org.rosuda.REngine.JRI.JRIEngine;
 import org.rosuda.REngine.REXP;
-import org.rosuda.REngine.REXPDouble;
-import org.rosuda.REngine.REXPInteger;
-import org.rosuda.REngine.REXPLogical;
 import org.rosuda.REngine.REXPMismatchException;
 import org.rosuda.REngine.REXPString;
-import org.rosuda.REngine.REngine;
 import org.rosuda.REngine.REngineException;
 import org.rosuda.REngine.RList;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.EnvironmentPool;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.PublishedModel;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.RBackend;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.RBackendFactory;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter.ScriptAnalyzer;
 import org.wso2.siddhi.core.event.ComplexEvent;
 import org.wso2.siddhi.core.event.ComplexEventChunk;
 import org.wso2.siddhi.core.event.stream.StreamEvent;
@@ -36,29 +37,113 @@ import org.wso2.siddhi.core.event.stream.StreamEventCloner;
 import org.wso2.siddhi.core.event.stream.populater.ComplexEventPopulater;
 import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
 import org.wso2.siddhi.core.exception.SiddhiAppRuntimeException;
+import org.wso2.siddhi.core.executor.ConstantExpressionExecutor;
 import org.wso2.siddhi.core.executor.ExpressionExecutor;
+import org.wso2.siddhi.core.executor.VariableExpressionExecutor;
 import org.wso2.siddhi.core.query.processor.Processor;
+import org.wso2.siddhi.core.query.processor.SchedulingProcessor;
 import org.wso2.siddhi.core.query.processor.stream.StreamProcessor;
+import org.wso2.siddhi.core.util.Scheduler;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+import org.wso2.siddhi.core.util.snapshot.SnapshotRequest;
 import org.wso2.siddhi.query.api.definition.Attribute;
 import org.wso2.siddhi.query.api.definition.StreamDefinition;
 import org.wso2.siddhi.query.compiler.SiddhiCompiler;
 import org.wso2.siddhi.query.compiler.exception.SiddhiParserException;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * Abstract class which is extended by RScriptStreamProcessor and RSourceStreamProcessor
  */
-public abstract class RStreamProcessor extends StreamProcessor {
+public abstract class RStreamProcessor extends StreamProcessor implements SchedulingProcessor {
+
+    private static final long DRAIN_TIMEOUT = 30000;
+    private static final String JMX_DOMAIN = "org.wso2.extension.siddhi.gpl.execution.rlang";
+    private static final int DEFAULT_ADAPTIVE_BATCH_SIZE = 16;
+    private static final String TRANSFER_PATH = ".siddhi.transfer.path";
+    private static final String TRANSFER_SIZE = ".siddhi.transfer.size";
+    private static final String TRANSFER_DIRECTORY = "transfer.directory";
+    private static final String FAST_PATH = "fast.path";
+    private static final String CODES = ".siddhi.codes.";
+    private static final String LEVELS = ".siddhi.levels.";
+    private static final String NEW_LEVELS = ".siddhi.levels.new.";
 
     List<Attribute> inputAttributes = new ArrayList<Attribute>();
 
+    String[] inputNames;
+
+    ExpressionExecutor[] inputExecutors;
+
+    RColumns columns;
+
+    ROptions options;
+
+    int inputOffset = 2;
+
+    RShardKey shardKey;
+
+    RShardKey groupKey;
+
+    RDeltaWindow deltaWindow;
+
+    String[] variableNames;
+
+    Path transferDirectory;
+
+    RDictionary[] dictionaries;
+
+    AsyncEvaluator asyncEvaluator;
+
+    RMicroBatch microBatch;
+
+    RAdaptiveBatch adaptiveBatch;
+
+    RTimeoutGuard timeoutGuard;
+
+    Object[] fallbackOutputs;
+
+    ObjectName adaptiveBatchName;
+
+    volatile RMetrics metrics;
+
+    volatile long scheduledDeadline = -1;
+
+    Scheduler scheduler;
+
     REXP outputs;
     REXP script;
+    REXP warmupScript;
     REXP env;
+    EnvironmentPool environmentPool;
+    EnvironmentPool.Lease lease;
+    String[] excludedVariables;
+    RVariableSnapshots variableSnapshots = new RVariableSnapshots();
+    List<REXP> models = new ArrayList<REXP>();
+    PublishedModel trainedModel;
+    PublishedModel scoredModel;
+    volatile long scoredVersion;
 
-    REngine re;
+    RBackend backend;
     static Logger log = Logger.getLogger(RStreamProcessor.class);
 
     @Override
@@ -66,118 +151,719 @@ public abstract class RStreamProcessor extends StreamProcessor {
                            StreamEventCloner streamEventCloner, ComplexEventPopulater complexEventPopulater) {
         ComplexEventChunk<StreamEvent> eventChunk = new ComplexEventChunk<StreamEvent>(true);
         StreamEvent streamEvent;
-        StreamEvent lastCurrentEvent = null;
         List<StreamEvent> eventList = new ArrayList<StreamEvent>();
+        List<List<StreamEvent>> eventLists = new ArrayList<List<StreamEvent>>(1);
+        long now = siddhiAppContext.getTimestampGenerator().currentTime();
         while (complexEventChunk.hasNext()) {
             streamEvent = complexEventChunk.next();
             if (streamEvent.getType() == ComplexEvent.Type.CURRENT) {
-                eventList.add(streamEvent);
-                lastCurrentEvent = streamEventCloner.copyStreamEvent(streamEvent);
+                if (microBatch != null) {
+                    // Arrivals are buffered across chunks until the micro batch is full or due
+                    List<StreamEvent> flushed = microBatch.add(streamEventCloner.copyStreamEvent(streamEvent), now);
+                    if (flushed != null) {
+                        eventLists.add(flushed);
+                    }
+                } else {
+                    eventList.add(streamEvent);
+                }
                 complexEventChunk.remove();
+            } else if (streamEvent.getType() == ComplexEvent.Type.EXPIRED) {
+                // Expirations are shipped along with the next batch of arrivals
+                if (deltaWindow != null) {
+                    deltaWindow.expire(streamEventCloner.copyStreamEvent(streamEvent));
+                }
+            } else if (streamEvent.getType() == ComplexEvent.Type.TIMER && microBatch != null) {
+                List<StreamEvent> flushed = microBatch.expire(now);
+                if (flushed != null) {
+                    eventLists.add(flushed);
+                }
             }
         }
-        if (!eventList.isEmpty()) {
-            complexEventPopulater.populateComplexEvent(lastCurrentEvent, process(eventList));
-            eventChunk.add(lastCurrentEvent);
+        if (microBatch != null) {
+            // The scheduler flushes the pending micro batch once it is due, even if no more events arrive
+            long deadline = microBatch.getDeadline();
+            if (deadline >= 0 && deadline != scheduledDeadline && scheduler != null) {
+                scheduledDeadline = deadline;
+                scheduler.notifyAt(deadline);
+            }
+        } else if (!eventList.isEmpty()) {
+            eventLists.add(eventList);
+        }
+        if (asyncEvaluator != null) {
+            // Emit the batches evaluated since the last call, timer events are raised to collect them
+            for (RBatch batch = asyncEvaluator.poll(); batch != null; batch = asyncEvaluator.poll()) {
+                emit(batch, eventChunk, streamEventCloner, complexEventPopulater);
+            }
+            for (List<StreamEvent> events : eventLists) {
+                RBatch batch = measuredPrepare(events, streamEventCloner);
+                RMetrics metrics = this.metrics;
+                if (metrics != null && metrics.isEnabled()) {
+                    metrics.queued(asyncEvaluator.getInFlight());
+                }
+                asyncEvaluator.submit(batch);
+            }
+        } else {
+            for (List<StreamEvent> events : eventLists) {
+                RBatch batch = measuredPrepare(events, streamEventCloner);
+                evaluateAndRelease(batch);
+                emit(batch, eventChunk, streamEventCloner, complexEventPopulater);
+            }
         }
         nextProcessor.process(eventChunk);
     }
 
-    private Object[] process(List<StreamEvent> eventList) throws SiddhiAppRuntimeException {
+    /**
+     * Marshals the events into the input vectors of the script, recording the size of the batch and the time taken
+     * while statistics are enabled.
+     */
+    private RBatch measuredPrepare(List<StreamEvent> eventList, StreamEventCloner streamEventCloner) {
+        if (lease == null) {
+            return timedPrepare(eventList, streamEventCloner);
+        }
+        // A leased environment stays in use from the marshalling of a batch until the batch is released
+        enterEnvironment();
         try {
-            REXP eventData;
-            ExpressionExecutor expressionExecutor;
-            for (int j = 2; j < attributeExpressionLength; j++) {
-                expressionExecutor = attributeExpressionExecutors[j];
-                switch (expressionExecutor.getReturnType()) {
-                    case DOUBLE:
-                        eventData = doubleToREXP(eventList, expressionExecutor);
-                        break;
-                    case FLOAT:
-                        eventData = floatToREXP(eventList, expressionExecutor);
-                        break;
-                    case INT:
-                        eventData = intToREXP(eventList, expressionExecutor);
-                        break;
-                    case STRING:
-                        eventData = stringToREXP(eventList, expressionExecutor);
-                        break;
-                    case LONG:
-                        eventData = longToREXP(eventList, expressionExecutor);
-                        break;
-                    case BOOL:
-                        eventData = boolToREXP(eventList, expressionExecutor);
-                        break;
-                    default:
-                        continue;
+            return timedPrepare(eventList, streamEventCloner);
+        } catch (RuntimeException e) {
+            environmentPool.exit(lease);
+            throw e;
+        }
+    }
+
+    private RBatch timedPrepare(List<StreamEvent> eventList, StreamEventCloner streamEventCloner) {
+        RMetrics metrics = this.metrics;
+        if (metrics == null || !metrics.isEnabled()) {
+            return prepare(eventList, streamEventCloner);
+        }
+        long start = System.nanoTime();
+        RBatch batch = prepare(eventList, streamEventCloner);
+        long bytes = 0;
+        for (RColumns.Buffer buffer : batch.buffers) {
+            bytes += buffer.bytes;
+        }
+        metrics.marshalled(batch.size, bytes, System.nanoTime() - start);
+        return batch;
+    }
+
+    /**
+     * Marshals the events into the input vectors of the script. When the query is sharded, the events are split by
+     * the shard key and a key is always pinned to the same worker.
+     */
+    private RBatch prepare(List<StreamEvent> eventList, StreamEventCloner streamEventCloner) {
+        RBatch batch = new RBatch();
+        batch.size = eventList.size();
+        if (deltaWindow != null) {
+            // Only the arrivals and the expirations since the last batch are sent to R
+            REXP[] added = marshal(eventList, batch, 0);
+            REXP[] removed = marshal(deltaWindow.takeExpired(), batch, 0);
+            // The window lives in the environment of a single worker
+            batch.add(deltaWindow.values(added, removed), 0, addOutputEvents(batch, eventList, streamEventCloner));
+            return batch;
+        }
+        if (groupKey != null) {
+            // The whole batch is sent at once and R evaluates the script per group
+            int[] groups = groupKey.groups(eventList);
+            // Each group is emitted as a copy of its last event
+            int groupCount = 0;
+            for (int group : groups) {
+                groupCount = Math.max(groupCount, group);
+            }
+            int[] lastEvents = new int[groupCount];
+            for (int i = 0; i < groups.length; i++) {
+                lastEvents[groups[i] - 1] = i;
+            }
+            int[] indexes = new int[lastEvents.length];
+            for (int i = 0; i < indexes.length; i++) {
+                batch.events.add(streamEventCloner.copyStreamEvent(eventList.get(lastEvents[i])));
+                indexes[i] = batch.events.size() - 1;
+            }
+            batch.add(marshal(eventList, batch, 0), 0, indexes).groups = groups;
+            return batch;
+        }
+        if (shardKey == null) {
+            // Factor levels are tracked per worker, hence factors are always sent to the first one
+            int worker = options.isFactorStrings() ? 0 : -1;
+            batch.add(marshal(eventList, batch, worker), worker, addOutputEvents(batch, eventList, streamEventCloner));
+            return batch;
+        }
+        Map<Object, List<Integer>> shards = shardKey.split(eventList);
+        boolean perEventOutput = options.isPerEventOutput();
+        if (perEventOutput) {
+            // Output events keep the order of arrival across the keys
+            addOutputEvents(batch, eventList, streamEventCloner);
+        }
+        int workerCount = backend.getWorkerCount();
+        for (Map.Entry<Object, List<Integer>> shard : shards.entrySet()) {
+            List<Integer> positions = shard.getValue();
+            List<StreamEvent> events = new ArrayList<StreamEvent>(positions.size());
+            for (int position : positions) {
+                events.add(eventList.get(position));
+            }
+            int[] indexes;
+            if (perEventOutput) {
+                indexes = new int[positions.size()];
+                for (int i = 0; i < indexes.length; i++) {
+                    indexes[i] = positions.get(i);
                 }
-                re.assign(inputAttributes.get(j - 2).getName(), eventData, env);
+            } else {
+                indexes = addOutputEvents(batch, events, streamEventCloner);
             }
-            re.eval(script, env, false);
+            int worker = RShardKey.worker(shard.getKey(), workerCount);
+            batch.add(marshal(events, batch, worker), worker, indexes);
+        }
+        return batch;
+    }
+
+    /**
+     * Adds copies of the events which carry the outputs of a part to the batch: a copy of every event when the
+     * query outputs per event, otherwise a copy of the last one.
+     *
+     * @return positions of the added events in the batch
+     */
+    private int[] addOutputEvents(RBatch batch, List<StreamEvent> eventList, StreamEventCloner streamEventCloner) {
+        if (!options.isPerEventOutput()) {
+            batch.events.add(streamEventCloner.copyStreamEvent(eventList.get(eventList.size() - 1)));
+            return new int[]{batch.events.size() - 1};
+        }
+        int[] indexes = new int[eventList.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            batch.events.add(streamEventCloner.copyStreamEvent(eventList.get(i)));
+            indexes[i] = batch.events.size() - 1;
+        }
+        return indexes;
+    }
+
+    /**
+     * Evaluates the batch and gives back its buffers, within the timeout of the query if it has one.
+     */
+    private void evaluateAndRelease(RBatch batch) {
+        if (timeoutGuard != null) {
+            timeoutGuard.evaluate(batch);
+            return;
+        }
+        try {
+            evaluate(batch);
+        } finally {
+            release(batch);
+        }
+    }
+
+    /**
+     * Resets the environment left behind by a late evaluation, which may have stopped half way. The models are bound
+     * again and the factor levels are sent again.
+     */
+    private synchronized void resetAfterTimeout() {
+        try {
+            backend.resetEnvironment(env);
+            scoredVersion = bindModels(env);
+            resendLevels();
+            variableSnapshots.invalidate();
         } catch (REngineException e) {
-            throw new SiddhiAppRuntimeException("Unable to evaluate the script", e);
-        } catch (REXPMismatchException e) {
-            throw new SiddhiAppRuntimeException("Mismatch in returned output and expected output", e);
+            log.error("Unable to reset the R environment of query '" + queryName + "' after a timeout", e);
+        }
+    }
+
+    /**
+     * Evaluates the parts of the batch. Parts pinned to different workers are evaluated in parallel, while the parts
+     * of a worker are evaluated in the order they appear in the batch.
+     */
+    private void evaluate(RBatch batch) {
+        if (scoredModel != null && scoredModel.getVersion() != scoredVersion) {
+            rebindScoredModel();
+        }
+        if (adaptiveBatch == null) {
+            evaluateParts(batch);
+            return;
+        }
+        long start = System.nanoTime();
+        evaluateParts(batch);
+        adaptiveBatch.record(batch.size, (System.nanoTime() - start) / 1e6);
+        microBatch.setMaxSize(adaptiveBatch.getBatchSize());
+    }
+
+    private void evaluateParts(RBatch batch) {
+        if (batch.parts.size() == 1) {
+            RBatch.Part part = batch.parts.get(0);
+            part.rows = evaluate(part);
+            return;
+        }
+        int workerCount = backend.getWorkerCount();
+        List<List<RBatch.Part>> workerParts = new ArrayList<List<RBatch.Part>>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workerParts.add(new ArrayList<RBatch.Part>());
+        }
+        for (RBatch.Part part : batch.parts) {
+            workerParts.get(part.worker).add(part);
         }
 
+        List<Future<?>> futures = new ArrayList<Future<?>>(workerCount);
+        List<RBatch.Part> localParts = null;
+        for (final List<RBatch.Part> parts : workerParts) {
+            if (parts.isEmpty()) {
+                continue;
+            }
+            if (localParts == null) {
+                // The calling thread evaluates the parts of one worker itself
+                localParts = parts;
+                continue;
+            }
+            futures.add(siddhiAppContext.getExecutorService().submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (RBatch.Part part : parts) {
+                        part.rows = evaluate(part);
+                    }
+                }
+            }));
+        }
+        for (RBatch.Part part : localParts) {
+            part.rows = evaluate(part);
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SiddhiAppRuntimeException("Interrupted while waiting for the R workers", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SiddhiAppRuntimeException) {
+                    throw (SiddhiAppRuntimeException) e.getCause();
+                }
+                throw new SiddhiAppRuntimeException("Unable to evaluate the script", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Gives the environment the latest fit published by the training processor, before the batch is evaluated.
+     */
+    private synchronized void rebindScoredModel() {
+        if (scoredModel.getVersion() == scoredVersion) {
+            return;
+        }
         try {
-            RList out = re.eval(outputs, env, true).asList();
-            REXP result;
-            Object[] data = new Object[out.size()];
-            for (int i = 0; i < out.size(); i++) {
-                result = ((REXP) out.get(i));
-                switch (additionalAttributes.get(i).getType()) {
-                    case BOOL:
-                        if (result.isLogical()) {
-                            data[i] = (result.asInteger() == 1);
-                        }
-                        break;
-                    case INT:
-                        if (result.isNumeric()) {
-                            data[i] = result.asInteger();
-                        }
-                        break;
-                    case LONG:
-                        if (result.isNumeric()) {
-                            data[i] = (long) result.asDouble();
-                        }
-                        break;
-                    case FLOAT:
-                        if (result.isNumeric()) {
-                            data[i] = ((Double) result.asDouble()).floatValue();
-                        }
-                        break;
-                    case DOUBLE:
-                        if (result.isNumeric()) {
-                            data[i] = result.asDouble();
-                        }
-                        break;
-                    case STRING:
-                        if (result.isString()) {
-                            data[i] = result.asString();
-                        }
-                        break;
-                    default:
-                        throw new SiddhiAppRuntimeException(
-                                "Mismatch in returned and expected output. Expected: " + additionalAttributes.get(i)
-                                        .getType() + " Returned: " + result.asNativeJavaObject().getClass()
-                                        .getCanonicalName());
+            scoredVersion = scoredModel.bind(env, options.getScore());
+        } catch (REngineException e) {
+            throw new SiddhiAppRuntimeException("Unable to bind the model " + scoredModel.getName(), e);
+        }
+    }
+
+    private void emit(RBatch batch, ComplexEventChunk<StreamEvent> eventChunk,
+                      StreamEventCloner streamEventCloner, ComplexEventPopulater complexEventPopulater) {
+        Object[][][] data = new Object[batch.events.size()][][];
+        boolean multiRowOutput = options.isMultiRowOutput();
+        if (batch.timedOut) {
+            if (ROptions.DROP.equals(options.getOnTimeout())) {
+                return;
+            }
+            // Each output event of the batch gets the fallback outputs, whatever the evaluation yields later
+            for (RBatch.Part part : batch.parts) {
+                for (int i = 0; i < (multiRowOutput ? 1 : part.indexes.length); i++) {
+                    data[part.indexes[i]] = new Object[][]{fallbackOutputs};
+                }
+            }
+        }
+        for (RBatch.Part part : batch.timedOut ? Collections.<RBatch.Part>emptyList() : batch.parts) {
+            // No result means the part was coalesced into a batch queued after it
+            if (part.rows == null) {
+                continue;
+            }
+            if (multiRowOutput) {
+                data[part.indexes[0]] = part.rows;
+            } else {
+                for (int i = 0; i < part.indexes.length; i++) {
+                    data[part.indexes[i]] = new Object[][]{part.rows[i]};
+                }
+            }
+        }
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == null) {
+                continue;
+            }
+            StreamEvent template = batch.events.get(i);
+            for (int row = 0; row < data[i].length; row++) {
+                // Every row but the last gets its own copy of the output event
+                StreamEvent event = row == data[i].length - 1 ? template :
+                        streamEventCloner.copyStreamEvent(template);
+                complexEventPopulater.populateComplexEvent(event, data[i][row]);
+                eventChunk.add(event);
+            }
+        }
+    }
+
+    /**
+     * Marshals the events into the input vectors of the script, replacing string attributes by their codes and new
+     * levels when they are sent as factors.
+     *
+     * @param worker worker the vectors are sent to, which factor levels are tracked for
+     */
+    private REXP[] marshal(List<StreamEvent> eventList, RBatch batch, int worker) {
+        RColumns.Buffer buffer;
+        if (transferDirectory == null) {
+            buffer = columns.marshal(eventList);
+        } else {
+            try {
+                buffer = columns.write(eventList, transferDirectory);
+            } catch (IOException e) {
+                throw new SiddhiAppRuntimeException("Unable to write the batch to " + transferDirectory, e);
+            }
+        }
+        batch.buffers.add(buffer);
+        if (!options.isFactorStrings()) {
+            return buffer.vectors;
+        }
+        REXP[] values = new REXP[variableNames.length];
+        for (int i = 0, j = 0; i < buffer.vectors.length; i++) {
+            if (dictionaries[i] == null) {
+                values[j++] = buffer.vectors[i];
+            } else {
+                values[j++] = dictionaries[i].encode(((REXPString) buffer.vectors[i]).asStrings());
+                values[j++] = dictionaries[i].newLevels(worker);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Gives back the buffers of an evaluated batch, so that later batches reuse them.
+     */
+    private void release(RBatch batch) {
+        for (RColumns.Buffer buffer : batch.buffers) {
+            columns.release(buffer);
+        }
+        batch.buffers.clear();
+        if (lease != null) {
+            environmentPool.exit(lease);
+        }
+    }
+
+    /**
+     * Marks the leased environment as in use. An environment which was recycled while the partition key was idle is
+     * set up again like a new one: the models are bound and the factor levels are sent again.
+     */
+    private synchronized void enterEnvironment() {
+        try {
+            if (!environmentPool.enter(lease)) {
+                return;
+            }
+        } catch (REngineException e) {
+            throw new SiddhiAppRuntimeException("Unable to lease an R environment for query '" + queryName + "'", e);
+        }
+        try {
+            env = lease.getEnvironment();
+            scoredVersion = bindModels(env);
+            resendLevels();
+            variableSnapshots.invalidate();
+        } catch (REngineException e) {
+            environmentPool.exit(lease);
+            throw new SiddhiAppRuntimeException("Unable to set up the R environment of query '" + queryName + "'",
+                    e);
+        }
+    }
+
+    /**
+     * Evaluates the script over the input vectors of a part.
+     *
+     * @return output data of each output event or row of the part, or null if the part was coalesced into a
+     * later batch
+     */
+    private Object[][] evaluate(RBatch.Part part) throws SiddhiAppRuntimeException {
+        RMetrics metrics = this.metrics;
+        boolean measured = metrics != null && metrics.isEnabled();
+        try {
+            long start = measured ? System.nanoTime() : 0;
+            REXP evaluated;
+            if (part.groups != null) {
+                evaluated = backend.evaluateGroups(part.worker, env, variableNames, part.values, part.groups, script,
+                        outputs);
+            } else if (part.worker < 0) {
+                // Unsharded batches may be evaluated by any worker of the backend
+                evaluated = backend.evaluate(env, variableNames, part.values, script, outputs, options.isCoalesce());
+            } else {
+                evaluated = backend.evaluate(part.worker, env, variableNames, part.values, script, outputs);
+            }
+            if (measured) {
+                long evaluatedAt = System.nanoTime();
+                metrics.evaluated(evaluatedAt - start);
+                start = evaluatedAt;
+            }
+            if (evaluated == null) {
+                return null;
+            }
+            Object[][] data;
+            if (part.groups == null) {
+                RList out = evaluated.asList();
+                if (trainedModel != null) {
+                    // The fitted object follows the outputs, it replaces the model seen by the scoring processors
+                    trainedModel.publish((REXP) out.remove(out.size() - 1));
                 }
+                data = rows(out, options.isMultiRowOutput() ? -1 : part.indexes.length);
+            } else {
+                RList groupOutputs = evaluated.asList();
+                data = new Object[groupOutputs.size()][];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = rows(((REXP) groupOutputs.get(i)).asList(), 1)[0];
+                }
+            }
+            if (measured) {
+                metrics.unmarshalled(System.nanoTime() - start);
             }
             return data;
-        } catch (REXPMismatchException e) {
-            throw new SiddhiAppRuntimeException("Mismatch in returned output and expected output", e);
         } catch (REngineException e) {
+            countError(metrics);
             throw new SiddhiAppRuntimeException("Unable to evaluate the script", e);
+        } catch (REXPMismatchException e) {
+            countError(metrics);
+            throw new SiddhiAppRuntimeException("Mismatch in returned output and expected output", e);
+        } catch (SiddhiAppRuntimeException e) {
+            countError(metrics);
+            throw e;
         }
     }
 
-    protected List<Attribute> initialize(String scriptString, String outputString) {
+    private static void countError(RMetrics metrics) {
+        if (metrics != null) {
+            metrics.error();
+        }
+    }
+
+    /**
+     * Converts the result of the output expression to output data.
+     *
+     * @param out  result of the output expression
+     * @param rows number of rows expected, or -1 if the outputs determine it. Each output vector must have one
+     *             element per row, or a single element which is shared by all the rows.
+     * @return output data of each row
+     */
+    private Object[][] rows(RList out, int rows) throws REXPMismatchException {
+        Object[][] columns = new Object[out.size()][];
+        int longest = -1;
+        for (int i = 0; i < out.size(); i++) {
+            REXP result = (REXP) out.get(i);
+            if (result.length() != 1) {
+                longest = Math.max(longest, result.length());
+            }
+            columns[i] = column(result, additionalAttributes.get(i));
+        }
+        if (rows < 0) {
+            // Multi-row outputs have as many rows as their columns, single elements are shared by all the rows
+            rows = longest < 0 ? 1 : longest;
+        }
+        Object[][] data = new Object[rows][out.size()];
+        for (int i = 0; i < columns.length; i++) {
+            Object[] column = columns[i];
+            if (column == null || column.length == 0) {
+                // An empty or mismatching output leaves the attribute null
+                continue;
+            }
+            if (rows > 1 && column.length != rows && column.length != 1) {
+                throw new SiddhiAppRuntimeException("Output '" + additionalAttributes.get(i).getName() + "' " +
+                        "has " + column.length + " elements, expected " + rows + " or 1");
+            }
+            for (int row = 0; row < rows; row++) {
+                data[row][i] = column[column.length == 1 ? 0 : row];
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Converts an output vector of R to the values of an output attribute, extracting the whole vector at once.
+     *
+     * @return values of the attribute, or null if the type of the vector does not suit the attribute
+     */
+    static Object[] column(REXP result, Attribute attribute) throws REXPMismatchException {
+        Object[] column;
+        switch (attribute.getType()) {
+            case BOOL:
+                if (!result.isLogical()) {
+                    return null;
+                }
+                int[] logicals = result.asIntegers();
+                column = new Object[logicals.length];
+                for (int i = 0; i < column.length; i++) {
+                    column[i] = logicals[i] == 1;
+                }
+                return column;
+            case INT:
+                if (!result.isNumeric()) {
+                    return null;
+                }
+                int[] integers = result.asIntegers();
+                column = new Object[integers.length];
+                for (int i = 0; i < column.length; i++) {
+                    column[i] = integers[i];
+                }
+                return column;
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                if (!result.isNumeric()) {
+                    return null;
+                }
+                double[] doubles = result.asDoubles();
+                column = new Object[doubles.length];
+                for (int i = 0; i < column.length; i++) {
+                    if (attribute.getType() == Attribute.Type.LONG) {
+                        column[i] = (long) doubles[i];
+                    } else if (attribute.getType() == Attribute.Type.FLOAT) {
+                        column[i] = (float) doubles[i];
+                    } else {
+                        column[i] = doubles[i];
+                    }
+                }
+                return column;
+            case STRING:
+                // Factors are decoded through their levels
+                if (!result.isString() && !result.isFactor()) {
+                    return null;
+                }
+                return result.asStrings();
+            default:
+                throw new SiddhiAppRuntimeException("Mismatch in returned and expected output. Expected: " +
+                        attribute.getType() + " Returned: " + result.asNativeJavaObject().getClass()
+                        .getCanonicalName());
+        }
+    }
+
+    /**
+     * Reads the optional options parameter which may follow the output attributes, and the input attributes.
+     *
+     * @param usage usage of the extension, reported when the parameters are invalid
+     */
+    protected void initializeInputs(String usage) {
+        String optionString = "";
+        if (attributeExpressionLength > 2 && attributeExpressionExecutors[2] instanceof ConstantExpressionExecutor) {
+            Object value = attributeExpressionExecutors[2].execute(null);
+            if (!(value instanceof String)) {
+                throw new SiddhiAppCreationException("Third parameter should either be the options string or a " +
+                        "variable\n" + usage);
+            }
+            optionString = (String) value;
+            inputOffset = 3;
+        }
+        options = ROptions.parse(optionString);
+        for (int i = inputOffset; i < attributeExpressionLength; i++) {
+            if (attributeExpressionExecutors[i] instanceof VariableExpressionExecutor) {
+                inputAttributes.add(((VariableExpressionExecutor) attributeExpressionExecutors[i]).getAttribute());
+            } else {
+                throw new SiddhiAppCreationException("Parameter " + (i + 1) + " should be a variable");
+            }
+        }
+        List<String> attributeNames = new ArrayList<String>(inputAttributes.size());
+        List<ExpressionExecutor> executors = new ArrayList<ExpressionExecutor>(inputAttributes.size());
+        for (int i = 0; i < inputAttributes.size(); i++) {
+            // Attributes of types which have no R counterpart are not passed to the script
+            if (inputAttributes.get(i).getType() != Attribute.Type.OBJECT) {
+                attributeNames.add(inputAttributes.get(i).getName());
+                executors.add(attributeExpressionExecutors[inputOffset + i]);
+            }
+        }
+        inputNames = attributeNames.toArray(new String[attributeNames.size()]);
+        inputExecutors = executors.toArray(new ExpressionExecutor[executors.size()]);
+        columns = new RColumns(inputExecutors);
+        variableNames = inputNames;
+        if (options.isDeltaWindow()) {
+            deltaWindow = new RDeltaWindow(inputNames);
+            variableNames = RDeltaWindow.VARIABLES;
+        } else if (options.isFileTransfer()) {
+            // The numeric columns are read from the transfer file by the script itself
+            List<String> names = new ArrayList<String>();
+            names.add(TRANSFER_PATH);
+            names.add(TRANSFER_SIZE);
+            for (int i = 0; i < inputExecutors.length; i++) {
+                if (inputExecutors[i].getReturnType() == Attribute.Type.STRING) {
+                    names.add(inputNames[i]);
+                }
+            }
+            variableNames = names.toArray(new String[names.size()]);
+        } else if (options.isFactorStrings()) {
+            // Each string attribute is sent as its codes and the levels which are new to the worker
+            List<String> names = new ArrayList<String>();
+            for (int i = 0; i < inputExecutors.length; i++) {
+                if (inputExecutors[i].getReturnType() == Attribute.Type.STRING) {
+                    names.add(CODES + inputNames[i]);
+                    names.add(NEW_LEVELS + inputNames[i]);
+                } else {
+                    names.add(inputNames[i]);
+                }
+            }
+            variableNames = names.toArray(new String[names.size()]);
+        }
+        if (options.isAsync()) {
+            asyncEvaluator = new AsyncEvaluator(new Consumer<RBatch>() {
+                @Override
+                public void accept(RBatch batch) {
+                    evaluateAndRelease(batch);
+                }
+            }, new Consumer<RBatch>() {
+                @Override
+                public void accept(RBatch batch) {
+                    release(batch);
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    if (scheduler != null) {
+                        scheduler.notifyAt(siddhiAppContext.getTimestampGenerator().currentTime());
+                    }
+                }
+            }, siddhiAppContext.getExecutorService(), options.isOrdered(), options.getMaxInFlight());
+        }
+        if (options.isMicroBatched()) {
+            int batchSize = options.getBatchSize();
+            if (options.getBatchLatencyTarget() > 0) {
+                // The batch size becomes the starting point of the adaptive size
+                adaptiveBatch = new RAdaptiveBatch(options.getBatchLatencyTarget(), batchSize > 0 ? batchSize :
+                        DEFAULT_ADAPTIVE_BATCH_SIZE);
+                batchSize = adaptiveBatch.getBatchSize();
+            }
+            microBatch = new RMicroBatch(batchSize, options.getBatchBytes(), options.getBatchLatency(),
+                    inputExecutors);
+        }
+        if (options.getTimeout() > 0) {
+            timeoutGuard = new RTimeoutGuard(options, queryName, siddhiAppContext.getExecutorService(),
+                    this::evaluate, this::release, () -> backend.interrupt(env), this::resetAfterTimeout, () -> {
+                        RMetrics metrics = this.metrics;
+                        if (metrics != null) {
+                            metrics.timeout();
+                        }
+                    });
+        }
+        int shardAttribute = options.attributeIndex(ROptions.SHARD_BY, inputAttributes);
+        if (shardAttribute >= 0) {
+            shardKey = new RShardKey(attributeExpressionExecutors[inputOffset + shardAttribute]);
+        }
+        int groupAttribute = options.attributeIndex(ROptions.GROUP_BY, inputAttributes);
+        if (groupAttribute >= 0) {
+            groupKey = new RShardKey(attributeExpressionExecutors[inputOffset + groupAttribute]);
+        }
+    }
+
+    protected List<Attribute> initialize(String scriptString, String outputString, ConfigReader configReader) {
+        try {
+            return initializeBackend(scriptString, outputString, configReader);
+        } catch (RuntimeException e) {
+            // Siddhi does not stop a processor which failed to initialize, hence what it holds is given back here
+            releaseBackend();
+            throw e;
+        }
+    }
+
+    private List<Attribute> initializeBackend(String scriptString, String outputString, ConfigReader configReader) {
         try {
-            // Get the JRIEngine or create one
-            re = JRIEngine.createEngine();
+            // Get the R backend selected for the extension or create one, unless the script can do without R
+            if (isNative(scriptString, configReader)) {
+                backend = RBackendFactory.acquire(configReader, RBackendFactory.JAVA);
+                if (log.isDebugEnabled()) {
+                    log.debug("Query '" + queryName + "' evaluates its script in Java, as it only uses functions " +
+                            "which give the same results as R");
+                }
+            } else {
+                backend = RBackendFactory.acquire(configReader);
+            }
             // Create a new R environment
-            env = re.newEnvironment(null, true);
+            env = backend.newEnvironment();
         } catch (Exception e) {
             throw new SiddhiAppCreationException("Unable to create a new session in R", e);
         }
@@ -194,81 +880,401 @@ public abstract class RStreamProcessor extends StreamProcessor {
 
         List<Attribute> outputAttributes = streamDefinition.getAttributeList();
 
+        fallbackOutputs = new Object[outputAttributes.size()];
+        if (ROptions.FALLBACK.equals(options.getOnTimeout())) {
+            fallbackOutputs = options.getFallbackOutputs(outputAttributes);
+        }
+
+        // Outputs are either variables of the environment or columns of the data frame named by the options
+        String outputFrame = options.getOutputFrame();
         StringBuilder sb = new StringBuilder("list(");
         for (int i = 0; i < outputAttributes.size(); i++) {
+            if (outputFrame != null) {
+                sb.append(outputFrame).append("$");
+            }
             sb.append(outputAttributes.get(i).getName());
             if (i != outputAttributes.size() - 1) {
                 sb.append(",");
             }
         }
+        String train = options.getTrain();
+        if (train != null) {
+            // The fitted object is exported along with the outputs of the training batch
+            sb.append(outputAttributes.isEmpty() ? "" : ",").append(backend.exportScript(train));
+        }
         sb.append(")");
 
+        String prefix = "";
+        if (options.isFactorStrings()) {
+            dictionaries = new RDictionary[inputExecutors.length];
+            for (int i = 0; i < inputExecutors.length; i++) {
+                if (inputExecutors[i].getReturnType() == Attribute.Type.STRING) {
+                    dictionaries[i] = new RDictionary(backend.getWorkerCount());
+                }
+            }
+            prefix = factorScript();
+        } else if (options.isFileTransfer()) {
+            transferDirectory = transferDirectory(configReader);
+            prefix = columns.readScript(inputNames, TRANSFER_PATH, TRANSFER_SIZE);
+        }
         try {
-            // Parse the output list expression
-            outputs = re.parse(sb.toString(), false);
-            // Parse the script
-            script = re.parse(scriptString, false);
+            // Compile the output list expression
+            outputs = RBackendFactory.compile(backend, sb.toString());
+            // Compile the script, prefixed by the statements which maintain the window or decode the inputs. The
+            // compiled script is shared with the other processors which run the same script.
+            script = RBackendFactory.compile(backend, prefix + scriptString);
+            if (options.getWarmup() > 0) {
+                // The warm-up runs the script as written on plain input vectors, once the packages are attached
+                StringBuilder preload = new StringBuilder();
+                for (String name : options.getPackages()) {
+                    preload.append("suppressPackageStartupMessages(library(").append(name).append("))\n");
+                }
+                warmupScript = RBackendFactory.compile(backend, preload + scriptString);
+            }
         } catch (REngineException e) {
             throw new SiddhiAppCreationException("Unable to parse the script: " + scriptString, e);
         }
+        // Published models are scoped by the app, the trainer and the scoring processors refer to them by name
+        try {
+            if (train != null) {
+                trainedModel = RBackendFactory.acquirePublishedModel(backend, siddhiAppContext.getName() + "/" +
+                        train);
+            }
+            String score = options.getScore();
+            if (score != null) {
+                scoredModel = RBackendFactory.acquirePublishedModel(backend, siddhiAppContext.getName() + "/" +
+                        score);
+            }
+        } catch (REngineException e) {
+            throw new SiddhiAppCreationException("Unable to share the trained model", e);
+        }
+        // Models are loaded once per backend and every processor refers to the loaded model
+        for (Map.Entry<String, String> model : options.getModels().entrySet()) {
+            if (Arrays.asList(inputNames).contains(model.getKey())) {
+                throw new SiddhiAppCreationException("Model '" + model.getKey() + "' has the name of an input " +
+                        "attribute");
+            }
+            try {
+                models.add(RBackendFactory.acquireModel(backend, model.getValue()));
+            } catch (REngineException e) {
+                throw new SiddhiAppCreationException("Unable to load the model '" + model.getKey() + "' from " +
+                        model.getValue(), e);
+            }
+        }
+        try {
+            scoredVersion = bindModels(env);
+        } catch (REngineException e) {
+            throw new SiddhiAppCreationException("Unable to bind the models to the R environment", e);
+        }
+        // The inputs of a batch, the models and the variables of the extension are not part of the saved state
+        List<String> excluded = new ArrayList<String>(Arrays.asList(variableNames));
+        excluded.addAll(Arrays.asList(RDeltaWindow.VARIABLES));
+        excluded.addAll(Arrays.asList(inputNames));
+        excluded.addAll(options.getModels().keySet());
+        if (scoredModel != null) {
+            excluded.add(options.getScore());
+        }
+        excludedVariables = excluded.toArray(new String[excluded.size()]);
         return outputAttributes;
     }
 
-    @Override
-    public void start() {
+    /**
+     * Tells whether the script can be evaluated by the Java interpreter rather than R. This is the case for the
+     * scripts which only compute arithmetic and reductions of their inputs, as long as the query does not rely on
+     * R objects such as models or packages.
+     */
+    private boolean isNative(String scriptString, ConfigReader configReader) {
+        // Only the R engines are bypassed, an unknown engine still fails as configured
+        String engine = configReader.readConfig(RBackendFactory.ENGINE, RBackendFactory.JRI).trim().toLowerCase();
+        if (!Boolean.parseBoolean(configReader.readConfig(FAST_PATH, "false").trim()) ||
+                (!RBackendFactory.JRI.equals(engine) && !RBackendFactory.RSERVE.equals(engine)) ||
+                options.getTrain() != null || options.getScore() != null || !options.getModels().isEmpty() ||
+                options.getPackages().length > 0) {
+            return false;
+        }
+        // The inputs, the variables of the window and the decoded strings are assigned before the script runs
+        Set<String> variables = new HashSet<String>(Arrays.asList(inputNames));
+        variables.addAll(Arrays.asList(variableNames));
+        return ScriptAnalyzer.isNative(scriptString, variables);
+    }
 
+    /**
+     * Sends the factor levels again along with the next batches, once the environment which held them was reset.
+     */
+    private void resendLevels() {
+        if (dictionaries == null) {
+            return;
+        }
+        for (RDictionary dictionary : dictionaries) {
+            if (dictionary != null) {
+                dictionary.resend();
+            }
+        }
     }
 
-    @Override
-    public void stop() {
+    /**
+     * Binds the models of the processor to an environment, along with the latest fit of the scored model.
+     *
+     * @return version of the bound fit of the scored model
+     */
+    private long bindModels(REXP env) throws REngineException {
+        int i = 0;
+        for (String name : options.getModels().keySet()) {
+            backend.bindModel(env, name, models.get(i++));
+        }
+        return scoredModel == null ? 0 : scoredModel.bind(env, options.getScore());
+    }
 
+    /**
+     * Returns the directory of the transfer files: the one configured for the extension, else tmpfs when available,
+     * else the temporary directory.
+     */
+    private static Path transferDirectory(ConfigReader configReader) {
+        String tmpfs = "/dev/shm";
+        Path directory = Paths.get(configReader.readConfig(TRANSFER_DIRECTORY,
+                Files.isDirectory(Paths.get(tmpfs)) ? tmpfs : System.getProperty("java.io.tmpdir")));
+        if (!Files.isDirectory(directory) || !Files.isWritable(directory)) {
+            throw new SiddhiAppCreationException("Transfer directory '" + directory + "' is not a writable " +
+                    "directory");
+        }
+        return directory;
     }
 
-    private REXP doubleToREXP(List<StreamEvent> list, ExpressionExecutor expressionExecutor) {
-        double[] arr = new double[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            arr[i] = (Double) expressionExecutor.execute(list.get(i));
+    /**
+     * Builds the statements which append the new levels of each string attribute to the levels kept in R, and
+     * rebuild the attribute as a factor from its codes.
+     */
+    private String factorScript() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < inputNames.length; i++) {
+            if (dictionaries[i] == null) {
+                continue;
+            }
+            String name = inputNames[i];
+            String levels = LEVELS + name;
+            sb.append("if (!exists(\"").append(levels).append("\")) ").append(levels).append(" <- character(0)\n")
+                    .append(levels).append(" <- c(").append(levels).append(", ").append(NEW_LEVELS).append(name)
+                    .append(")\n")
+                    .append(name).append(" <- structure(").append(CODES).append(name).append(", levels = ")
+                    .append(levels).append(", class = \"factor\")\n");
         }
-        return new REXPDouble(arr);
+        return sb.toString();
     }
 
-    private REXP floatToREXP(List<StreamEvent> list, ExpressionExecutor expressionExecutor) {
-        double[] arr = new double[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            arr[i] = (Float) expressionExecutor.execute(list.get(i));
+    /**
+     * Evaluates the script on a synthetic batch on every worker of the backend, so that loading packages and
+     * compiling the script are not paid for by the first batch. The batch is evaluated in an environment of its own
+     * which is then discarded, along with the outputs.
+     */
+    private void warmUp() {
+        long start = System.currentTimeMillis();
+        REXP warmupEnv = null;
+        try {
+            warmupEnv = backend.newEnvironment();
+            bindModels(warmupEnv);
+            // Delta window scripts see the sample as arrivals, with nothing expired
+            REXP[] sample = columns.sample(options.getWarmup());
+            String[] names = inputNames;
+            REXP[] values = sample;
+            if (deltaWindow != null) {
+                names = RDeltaWindow.VARIABLES;
+                values = deltaWindow.values(sample, columns.sample(0));
+            }
+            for (int worker = 0; worker < backend.getWorkerCount(); worker++) {
+                backend.evaluate(worker, warmupEnv, names, values, warmupScript, outputs);
+            }
+            log.info("Warmed up query '" + queryName + "' on " + backend.getWorkerCount() + " R worker(s) in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        } catch (REngineException | REXPMismatchException e) {
+            log.warn("Unable to warm up query '" + queryName + "', its first batch loads the script instead", e);
+        } finally {
+            if (warmupEnv != null) {
+                backend.releaseEnvironment(warmupEnv);
+            }
         }
-        return new REXPDouble(arr);
     }
 
-    private REXP intToREXP(List<StreamEvent> list, ExpressionExecutor expressionExecutor) {
-        int[] arr = new int[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            arr[i] = (Integer) expressionExecutor.execute(list.get(i));
+    @Override
+    public void start() {
+        if (warmupScript != null) {
+            // The query only starts taking events once the warm-up is over
+            warmUp();
+        }
+        metrics = RMetrics.create(siddhiAppContext, queryName);
+        if (metrics != null) {
+            // Gauges sample the batches and events which wait for R
+            if (asyncEvaluator != null) {
+                metrics.gauge("in.flight", (Gauge<Integer>) asyncEvaluator::getInFlight);
+            }
+            if (microBatch != null) {
+                metrics.gauge("pending", (Gauge<Integer>) microBatch::getPending);
+            }
+        }
+        if (adaptiveBatch != null) {
+            // Operators follow the batch size chosen for the latency target, and the costs it was chosen from
+            try {
+                adaptiveBatchName = new ObjectName(JMX_DOMAIN + ":type=AdaptiveBatch,app=" +
+                        ObjectName.quote(siddhiAppContext.getName()) + ",query=" + ObjectName.quote(String.valueOf(
+                        queryName)) + ",element=" + ObjectName.quote(String.valueOf(elementId)));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(adaptiveBatch,
+                        RAdaptiveBatchMBean.class), adaptiveBatchName);
+            } catch (JMException e) {
+                log.warn("Unable to register the adaptive batch size of query '" + queryName + "' in JMX", e);
+                adaptiveBatchName = null;
+            }
         }
-        return new REXPInteger(arr);
     }
 
-    private REXP longToREXP(List<StreamEvent> list, ExpressionExecutor expressionExecutor) {
-        double[] arr = new double[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            arr[i] = (Long) expressionExecutor.execute(list.get(i));
+    @Override
+    public void stop() {
+        if (adaptiveBatchName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(adaptiveBatchName);
+            } catch (JMException e) {
+                log.debug("Unable to unregister " + adaptiveBatchName, e);
+            }
+            adaptiveBatchName = null;
+        }
+        if (asyncEvaluator != null) {
+            asyncEvaluator.drain(DRAIN_TIMEOUT);
+        }
+        if (timeoutGuard != null) {
+            // The environment is released below, hence the late evaluation is given a chance to return first
+            timeoutGuard.awaitLate(DRAIN_TIMEOUT);
+        }
+        if (metrics != null) {
+            metrics.remove();
+            metrics = null;
         }
-        return new REXPDouble(arr);
+        releaseBackend();
     }
 
-    private REXP stringToREXP(List<StreamEvent> list, ExpressionExecutor expressionExecutor) {
-        String[] arr = new String[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            arr[i] = (String) expressionExecutor.execute(list.get(i));
+    /**
+     * Gives back the scripts, the environment and the models held by the processor, along with the backend.
+     */
+    private void releaseBackend() {
+        if (backend != null) {
+            if (script != null) {
+                RBackendFactory.releaseScript(backend, script);
+                script = null;
+            }
+            if (outputs != null) {
+                RBackendFactory.releaseScript(backend, outputs);
+                outputs = null;
+            }
+            if (warmupScript != null) {
+                RBackendFactory.releaseScript(backend, warmupScript);
+                warmupScript = null;
+            }
+            if (lease != null) {
+                environmentPool.release(lease);
+                lease = null;
+            } else if (env != null) {
+                backend.releaseEnvironment(env);
+            }
+            for (REXP model : models) {
+                RBackendFactory.releaseModel(backend, model);
+            }
+            models.clear();
+            if (trainedModel != null) {
+                RBackendFactory.releasePublishedModel(backend, trainedModel);
+                trainedModel = null;
+            }
+            if (scoredModel != null) {
+                RBackendFactory.releasePublishedModel(backend, scoredModel);
+                scoredModel = null;
+            }
+            RBackendFactory.release(backend);
+            backend = null;
         }
-        return new REXPString(arr);
     }
 
-    private REXP boolToREXP(List<StreamEvent> list, ExpressionExecutor expressionExecutor) {
-        boolean[] arr = new boolean[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            arr[i] = (Boolean) expressionExecutor.execute(list.get(i));
+    /**
+     * Saves the variables of the environment on every worker, along with the expirations which wait for the next
+     * batch of a delta window, see {@link RVariableSnapshots}.
+     */
+    @Override
+    public Map<String, Object> currentState() {
+        if (asyncEvaluator != null) {
+            asyncEvaluator.drain(DRAIN_TIMEOUT);
+        }
+        if (lease != null) {
+            enterEnvironment();
+        }
+        try {
+            Map<String, Object> state = new HashMap<String, Object>();
+            state.put("variables", variableSnapshots.save(backend, env, excludedVariables,
+                    SnapshotRequest.isRequestForFullSnapshot()));
+            state.put("pendingExpired", deltaWindow != null ? deltaWindow.currentState() :
+                    new ArrayList<StreamEvent>());
+            return state;
+        } catch (REngineException | REXPMismatchException e) {
+            throw new SiddhiAppRuntimeException("Unable to save the R environment of query '" + queryName + "'", e);
+        } finally {
+            if (lease != null) {
+                environmentPool.exit(lease);
+            }
+        }
+    }
+
+    /**
+     * Replaces the variables of the environment by the saved ones, see {@link #currentState()}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void restoreState(Map<String, Object> state) {
+        if (asyncEvaluator != null) {
+            asyncEvaluator.drain(DRAIN_TIMEOUT);
+        }
+        if (lease != null) {
+            enterEnvironment();
         }
-        return new REXPLogical(arr);
+        try {
+            backend.resetEnvironment(env);
+            scoredVersion = bindModels(env);
+            resendLevels();
+            // Snapshots taken before the variables were saved incrementally hold them as they are
+            variableSnapshots.restore(backend, env, state.get("variables"));
+            if (deltaWindow != null) {
+                deltaWindow.restoreState((List<StreamEvent>) state.get("pendingExpired"));
+            }
+        } catch (REngineException e) {
+            throw new SiddhiAppRuntimeException("Unable to restore the R environment of query '" + queryName + "'",
+                    e);
+        } finally {
+            if (lease != null) {
+                environmentPool.exit(lease);
+            }
+        }
+    }
+
+    /**
+     * Creates the processor of a partition key. Partition keys come and go, hence the processor leases its
+     * environment from the pool of the backend, which recycles the environments of idle keys. The state a delta
+     * window script keeps cannot be rebuilt from Java, hence such processors keep their environments.
+     */
+    @Override
+    public Processor cloneProcessor(String key) {
+        RStreamProcessor processor = (RStreamProcessor) super.cloneProcessor(key);
+        if (deltaWindow == null) {
+            try {
+                processor.environmentPool = RBackendFactory.environmentPool(processor.backend);
+            } catch (REngineException e) {
+                throw new SiddhiAppRuntimeException("Unable to pool the R environment of query '" + queryName +
+                        "'", e);
+            }
+            processor.lease = processor.environmentPool.lease(processor.env);
+        }
+        return processor;
+    }
+
+    @Override
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
     }
 }
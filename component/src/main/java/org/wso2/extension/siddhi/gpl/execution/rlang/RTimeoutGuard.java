@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.wso2.siddhi.core.exception.SiddhiAppRuntimeException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Bounds the time a processor waits for the evaluation of a batch. The evaluation runs on a thread of the app while
+ * the caller waits for it at most for the timeout: a late evaluation is interrupted and its result is discarded, and
+ * the batch is marked as timed out instead. So is every batch while the circuit breaker is open, and while the late
+ * evaluation has not returned. The environment of a late evaluation is left in an unknown state, hence it is reset
+ * once the evaluation returned.
+ */
+final class RTimeoutGuard {
+
+    private static final Logger log = Logger.getLogger(RTimeoutGuard.class);
+
+    private final long timeout;
+    private final String onTimeout;
+    private final int coolDown;
+    private final RCircuitBreaker circuitBreaker;
+    private final String queryName;
+    private final ExecutorService executorService;
+    private final Consumer<RBatch> evaluator;
+    private final Consumer<RBatch> releaser;
+    private final Runnable interrupter;
+    private final Runnable resetter;
+    private final Runnable timeoutListener;
+    /**
+     * Evaluation of a timed out batch which has not returned yet. It still uses the environment, hence no other batch
+     * is evaluated until it is done.
+     */
+    private volatile Future<?> lateEvaluation;
+
+    /**
+     * @param options         options of the query, which give the timeout and the circuit breaker
+     * @param queryName       name of the query, for logging
+     * @param executorService executor of the app, which runs the evaluations
+     * @param evaluator       evaluates a batch
+     * @param releaser        gives back the buffers of a batch
+     * @param interrupter     interrupts the evaluation running in the environment
+     * @param resetter        resets the environment once a late evaluation returned
+     * @param timeoutListener notified of each timed out batch
+     */
+    RTimeoutGuard(ROptions options, String queryName, ExecutorService executorService, Consumer<RBatch> evaluator,
+                  Consumer<RBatch> releaser, Runnable interrupter, Runnable resetter, Runnable timeoutListener) {
+        this.timeout = options.getTimeout();
+        this.onTimeout = options.getOnTimeout();
+        this.coolDown = options.getBreakerCoolDown();
+        this.circuitBreaker = new RCircuitBreaker(options.getBreakerThreshold(), coolDown);
+        this.queryName = queryName;
+        this.executorService = executorService;
+        this.evaluator = evaluator;
+        this.releaser = releaser;
+        this.interrupter = interrupter;
+        this.resetter = resetter;
+        this.timeoutListener = timeoutListener;
+    }
+
+    /**
+     * Evaluates the batch within the timeout and gives back its buffers once R is done with them.
+     *
+     * @param batch marshalled batch, marked as timed out if it does not complete in time
+     */
+    void evaluate(final RBatch batch) {
+        Future<?> late = lateEvaluation;
+        if (late != null && !late.isDone()) {
+            // The environment is not usable before the late evaluation returned, which counts as a timeout as well
+            releaser.accept(batch);
+            timedOut(batch);
+            return;
+        }
+        if (!circuitBreaker.allow(System.currentTimeMillis())) {
+            releaser.accept(batch);
+            batch.timedOut = true;
+            return;
+        }
+        // Whoever of the evaluation and the caller gets there first decides whether the batch timed out
+        final AtomicBoolean settled = new AtomicBoolean();
+        Future<?> future = executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evaluator.accept(batch);
+                } finally {
+                    if (!settled.compareAndSet(false, true)) {
+                        resetter.run();
+                    }
+                    // The buffers are only given back once R is done with them, even if the batch timed out
+                    releaser.accept(batch);
+                }
+            }
+        });
+        try {
+            try {
+                future.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (settled.compareAndSet(false, true)) {
+                    lateEvaluation = future;
+                    interrupter.run();
+                    log.warn("Evaluation of " + batch.size + " events by query '" + queryName + "' timed out after " +
+                            timeout + " ms, applying '" + ROptions.ON_TIMEOUT + "=" + onTimeout + "' until it returns");
+                    timedOut(batch);
+                    return;
+                }
+                // The evaluation completed just in time
+                future.get();
+            }
+            circuitBreaker.success();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SiddhiAppRuntimeException("Interrupted while waiting for the evaluation", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SiddhiAppRuntimeException) {
+                throw (SiddhiAppRuntimeException) e.getCause();
+            }
+            throw new SiddhiAppRuntimeException("Unable to evaluate the script", e.getCause());
+        }
+    }
+
+    /**
+     * Interrupts the late evaluation, if any, and waits for it to return, so that its environment can be released.
+     *
+     * @param waitTimeout maximum time to wait, in milliseconds
+     */
+    void awaitLate(long waitTimeout) {
+        Future<?> late = lateEvaluation;
+        if (late == null || late.isDone()) {
+            return;
+        }
+        interrupter.run();
+        try {
+            late.get(waitTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.debug("Late evaluation of query '" + queryName + "' did not complete cleanly", e);
+        }
+    }
+
+    private void timedOut(RBatch batch) {
+        batch.timedOut = true;
+        timeoutListener.run();
+        if (circuitBreaker.failure(System.currentTimeMillis())) {
+            log.warn("Skipping R for query '" + queryName + "' for " + coolDown + " ms after repeated timeouts");
+        }
+    }
+}
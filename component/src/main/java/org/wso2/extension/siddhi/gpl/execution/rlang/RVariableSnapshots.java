@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPRaw;
+import org.rosuda.REngine.REngineException;
+import org.rosuda.REngine.RList;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.RBackend;
+import org.wso2.siddhi.core.util.snapshot.state.SnapshotState;
+import org.wso2.siddhi.core.util.snapshot.state.SnapshotStateList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshots of the variables of the environment of a processor, on every worker of the backend. The serialized
+ * form of each variable is kept between snapshots and the backends only serialize the variables which changed
+ * since. Unless Siddhi asks for a full snapshot, the variables are saved incrementally: only the changed variables
+ * are part of the snapshot, along with the names of the removed ones, on top of the base saved by the previous full
+ * snapshot.
+ */
+final class RVariableSnapshots {
+
+    private List<Map<String, byte[]>> savedVariables = new ArrayList<Map<String, byte[]>>();
+    /**
+     * Whether the next snapshot holds every variable, as the saved ones no longer describe the environment.
+     */
+    private boolean fullSnapshotDue = true;
+
+    /**
+     * Forgets the saved variables once the environment was reset, so that the next snapshot holds every variable.
+     */
+    void invalidate() {
+        savedVariables.clear();
+        fullSnapshotDue = true;
+    }
+
+    /**
+     * Saves the variables of an environment.
+     *
+     * @param backend  backend of the environment
+     * @param env      environment handle
+     * @param excluded variables which are not part of the state
+     * @param full     whether Siddhi asks for a full snapshot
+     * @return state of the variables of every worker
+     * @throws REngineException      if the variables cannot be saved
+     * @throws REXPMismatchException if the saved variables cannot be read
+     */
+    SnapshotState save(RBackend backend, REXP env, String[] excluded, boolean full)
+            throws REngineException, REXPMismatchException {
+        full = full || fullSnapshotDue;
+        ArrayList<HashMap<String, byte[]>> variables = new ArrayList<HashMap<String, byte[]>>();
+        ArrayList<HashMap<String, byte[]>> changes = new ArrayList<HashMap<String, byte[]>>();
+        for (int worker = 0; worker < backend.getWorkerCount(); worker++) {
+            Map<String, byte[]> previous = worker < savedVariables.size() ? savedVariables.get(worker) :
+                    Collections.<String, byte[]>emptyMap();
+            HashMap<String, byte[]> current = save(backend, worker, env, excluded, previous, false);
+            if (current == null) {
+                // The serialized form of an unchanged variable is missing, hence everything is serialized again
+                current = save(backend, worker, env, excluded, previous, true);
+            }
+            variables.add(current);
+            changes.add(changes(previous, current));
+        }
+        savedVariables = new ArrayList<Map<String, byte[]>>(variables);
+        fullSnapshotDue = false;
+        return full ? new SnapshotState(variables, false) : new SnapshotState(changes, true);
+    }
+
+    /**
+     * Restores the saved variables into an environment. A snapshot of more workers than the backend has is folded
+     * onto the available workers.
+     *
+     * @param backend backend of the environment
+     * @param env     environment handle, reset beforehand
+     * @param saved   state given by {@link #save(RBackend, REXP, String[], boolean)}, the incremental snapshots
+     *                following a full one, or the variables themselves as saved by the previous versions
+     * @throws REngineException if the variables cannot be restored
+     */
+    @SuppressWarnings("unchecked")
+    void restore(RBackend backend, REXP env, Object saved) throws REngineException {
+        List<HashMap<String, byte[]>> variables = saved instanceof SnapshotStateList ?
+                replay((SnapshotStateList) saved) : (List<HashMap<String, byte[]>>) saved;
+        int workerCount = backend.getWorkerCount();
+        for (int i = 0; i < variables.size(); i++) {
+            Map<String, byte[]> workerVariables = variables.get(i);
+            List<REXP> values = new ArrayList<REXP>(workerVariables.size());
+            for (byte[] bytes : workerVariables.values()) {
+                values.add(new REXPRaw(bytes));
+            }
+            backend.restoreEnvironment(i % workerCount, env, new REXPGenericVector(new RList(values,
+                    workerVariables.keySet().toArray(new String[workerVariables.size()]))));
+        }
+        savedVariables = new ArrayList<Map<String, byte[]>>(variables);
+        // Folded workers do not match the saved variables, hence the next snapshot starts a new base
+        fullSnapshotDue = true;
+    }
+
+    /**
+     * Saves the variables of the environment on a worker.
+     *
+     * @param previous serialized form of the variables saved last
+     * @param full     whether every variable is serialized
+     * @return serialized form of each variable, or null if an unchanged variable was not saved before
+     */
+    private static HashMap<String, byte[]> save(RBackend backend, int worker, REXP env, String[] excluded,
+                                                Map<String, byte[]> previous, boolean full)
+            throws REngineException, REXPMismatchException {
+        RList saved = backend.saveEnvironment(worker, env, excluded, full).asList();
+        REXP changed = saved.at("changed");
+        RList changedList = changed == null || changed.isNull() ? new RList() : changed.asList();
+        REXP names = saved.at("names");
+        HashMap<String, byte[]> variables = new HashMap<String, byte[]>();
+        for (String name : names == null || names.isNull() ? new String[0] : names.asStrings()) {
+            REXP value = changedList.at(name);
+            byte[] bytes = value != null ? value.asBytes() : previous.get(name);
+            if (bytes == null) {
+                return null;
+            }
+            variables.put(name, bytes);
+        }
+        return variables;
+    }
+
+    /**
+     * Returns the variables of a worker which changed between two saves, mapping the removed ones to null. An
+     * unchanged variable keeps the serialized form it was saved with, hence it is recognized by identity.
+     */
+    private static HashMap<String, byte[]> changes(Map<String, byte[]> previous, Map<String, byte[]> current) {
+        HashMap<String, byte[]> changes = new HashMap<String, byte[]>();
+        for (Map.Entry<String, byte[]> entry : current.entrySet()) {
+            if (previous.get(entry.getKey()) != entry.getValue()) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String name : previous.keySet()) {
+            if (!current.containsKey(name)) {
+                changes.put(name, null);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Rebuilds the variables of every worker from a full snapshot and the incremental snapshots taken after it.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<HashMap<String, byte[]>> replay(SnapshotStateList states) {
+        List<HashMap<String, byte[]>> variables = new ArrayList<HashMap<String, byte[]>>();
+        for (SnapshotState snapshotState : states.getSnapshotStates().values()) {
+            List<HashMap<String, byte[]>> saved = (List<HashMap<String, byte[]>>) snapshotState.getState();
+            if (!snapshotState.isIncrementalSnapshot()) {
+                variables.clear();
+            }
+            for (int worker = 0; worker < saved.size(); worker++) {
+                if (worker == variables.size()) {
+                    variables.add(new HashMap<String, byte[]>());
+                }
+                for (Map.Entry<String, byte[]> entry : saved.get(worker).entrySet()) {
+                    if (entry.getValue() == null) {
+                        variables.get(worker).remove(entry.getKey());
+                    } else {
+                        variables.get(worker).put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+        return variables;
+    }
+}
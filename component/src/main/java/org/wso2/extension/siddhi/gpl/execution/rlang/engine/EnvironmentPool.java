@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.apache.log4j.Logger;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REngineException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Environments of the partitioned processors of a backend. A partitioned query gets a processor, and hence an
+ * environment, per partition key, and most of them sit idle once their keys stop showing up. Such processors lease
+ * their environment from the pool instead of keeping it: a lease which is not in use is revoked once it stays idle
+ * for longer than the "environments.idle.timeout" system parameter, or as soon as more environments are leased than
+ * the "environments.max" system parameter allows, the least recently used leases first. Revoked environments are
+ * reset and handed to the next processor which needs one, and the garbage collector of the engine runs once the
+ * reset environments held more memory than the "gc.threshold" system parameter. Creating, resetting and collecting
+ * run outside the lock of the pool, by the thread which needed the environment or revoked the leases, so that other
+ * processors keep entering theirs.
+ */
+public final class EnvironmentPool {
+
+    /**
+     * Number of reset environments kept for later leases, the others are released.
+     */
+    private static final int MAX_FREE = 16;
+    private static final Logger log = Logger.getLogger(EnvironmentPool.class);
+
+    private final RBackend backend;
+    private final int capacity;
+    private final long idleTimeout;
+    private final long gcThreshold;
+    private final Map<Lease, Lease> leases = new LinkedHashMap<Lease, Lease>(16, 0.75f, true);
+    private final Deque<REXP> free = new ArrayDeque<REXP>();
+    private int leased;
+    private long garbage;
+
+    /**
+     * Creates a pool.
+     *
+     * @param backend     backend of the environments
+     * @param capacity    maximum number of leased environments, or zero for no limit
+     * @param idleTimeout time in milliseconds after which an idle lease is revoked, or zero to keep idle leases
+     * @param gcThreshold memory in bytes held by reset environments which triggers a garbage collection, or zero to
+     *                    leave garbage collection to the engine
+     */
+    EnvironmentPool(RBackend backend, int capacity, long idleTimeout, long gcThreshold) {
+        this.backend = backend;
+        this.capacity = capacity;
+        this.idleTimeout = idleTimeout;
+        this.gcThreshold = gcThreshold;
+    }
+
+    /**
+     * Puts an environment created by a processor under the management of the pool.
+     *
+     * @param env environment handle
+     * @return lease of the environment
+     */
+    public Lease lease(REXP env) {
+        Lease lease = new Lease();
+        List<REXP> revoked;
+        synchronized (this) {
+            lease.env = env;
+            lease.lastUsed = System.currentTimeMillis();
+            leases.put(lease, lease);
+            leased++;
+            revoked = revoke(lease.lastUsed, lease, 0);
+        }
+        recycle(revoked);
+        return lease;
+    }
+
+    /**
+     * Marks a lease as in use, so that it is not revoked until {@link #exit(Lease)} is called as many times. If the
+     * lease was revoked, it is given a reset environment first, which the processor must set up again.
+     *
+     * @param lease lease of the processor
+     * @return whether the lease was given a reset environment
+     * @throws REngineException if no environment can be created
+     */
+    public boolean enter(Lease lease) throws REngineException {
+        List<REXP> revoked;
+        REXP env;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            leases.get(lease);
+            lease.lastUsed = now;
+            lease.inUse++;
+            if (lease.env != null) {
+                return false;
+            }
+            // Idle leases make room before an environment is reserved for this one
+            revoked = revoke(now, lease, 1);
+            leased++;
+            env = free.poll();
+            lease.env = env;
+        }
+        REXP created = null;
+        try {
+            if (env == null) {
+                // Other processors keep entering their leases while the environment is created
+                created = backend.newEnvironment();
+            }
+        } catch (REngineException | RuntimeException e) {
+            synchronized (this) {
+                leased--;
+                lease.inUse--;
+            }
+            throw e;
+        } finally {
+            recycle(revoked);
+        }
+        if (created != null) {
+            boolean released;
+            synchronized (this) {
+                // The processor may have been stopped meanwhile, in which case the lease is no longer in the pool
+                released = !leases.containsKey(lease);
+                if (released) {
+                    leased--;
+                } else {
+                    lease.env = created;
+                }
+            }
+            if (released) {
+                backend.releaseEnvironment(created);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks the end of a use of a lease started by {@link #enter(Lease)}.
+     *
+     * @param lease lease of the processor
+     */
+    public void exit(Lease lease) {
+        List<REXP> revoked;
+        synchronized (this) {
+            leases.get(lease);
+            lease.lastUsed = System.currentTimeMillis();
+            lease.inUse--;
+            revoked = revoke(lease.lastUsed, lease, 0);
+        }
+        recycle(revoked);
+    }
+
+    /**
+     * Releases the environment of a lease whose processor is stopped.
+     *
+     * @param lease lease of the processor
+     */
+    public synchronized void release(Lease lease) {
+        if (leases.remove(lease) == null || lease.env == null) {
+            return;
+        }
+        leased--;
+        backend.releaseEnvironment(lease.env);
+        lease.env = null;
+    }
+
+    /**
+     * Returns the number of environments currently leased.
+     *
+     * @return number of leased environments
+     */
+    public synchronized int getLeased() {
+        return leased;
+    }
+
+    /**
+     * Revokes the leases which are not in use and either idle for too long or in excess of the capacity, once the
+     * given number of environments are leased on top of the current ones.
+     *
+     * @return environments of the revoked leases, which are to be recycled once the lock of the pool is released
+     */
+    private List<REXP> revoke(long now, Lease current, int pending) {
+        List<REXP> revoked = null;
+        // Leases are kept in access order, hence the least recently used ones come first
+        for (Iterator<Lease> iterator = leases.keySet().iterator(); iterator.hasNext(); ) {
+            Lease lease = iterator.next();
+            boolean excess = capacity > 0 && leased + pending > capacity;
+            boolean idle = idleTimeout > 0 && now - lease.lastUsed >= idleTimeout;
+            if (!excess && !idle) {
+                break;
+            }
+            if (lease == current || lease.env == null || lease.inUse > 0) {
+                continue;
+            }
+            if (revoked == null) {
+                revoked = new ArrayList<REXP>();
+            }
+            revoked.add(lease.env);
+            lease.env = null;
+            leased--;
+        }
+        return revoked != null ? revoked : Collections.<REXP>emptyList();
+    }
+
+    /**
+     * Resets revoked environments and keeps them for later leases, unless enough are kept already, then collects the
+     * garbage of the engine if the reset environments held enough memory. Must not be called with the lock held.
+     */
+    private void recycle(List<REXP> revoked) {
+        if (revoked.isEmpty()) {
+            return;
+        }
+        long freed = 0;
+        for (REXP env : revoked) {
+            try {
+                freed += backend.resetEnvironment(env);
+            } catch (REngineException e) {
+                log.warn("Unable to reset an idle R environment, releasing it instead", e);
+                backend.releaseEnvironment(env);
+                continue;
+            }
+            boolean kept;
+            synchronized (this) {
+                kept = free.size() < MAX_FREE;
+                if (kept) {
+                    free.push(env);
+                }
+            }
+            if (!kept) {
+                backend.releaseEnvironment(env);
+            }
+        }
+        boolean collect;
+        synchronized (this) {
+            garbage += freed;
+            collect = gcThreshold > 0 && garbage >= gcThreshold;
+            if (collect) {
+                garbage = 0;
+            }
+        }
+        if (collect) {
+            try {
+                backend.collectGarbage();
+            } catch (REngineException e) {
+                log.warn("Unable to collect the garbage of the R environments", e);
+            }
+        }
+    }
+
+    /**
+     * Releases the reset environments which are kept for later leases.
+     */
+    synchronized void release() {
+        for (REXP env : free) {
+            backend.releaseEnvironment(env);
+        }
+        free.clear();
+    }
+
+    /**
+     * Environment leased by a processor, see {@link #enter(Lease)}.
+     */
+    public static final class Lease {
+        private volatile REXP env;
+        private long lastUsed;
+        private int inUse;
+
+        private Lease() {
+
+        }
+
+        /**
+         * Returns the environment of the lease, which is only stable while the lease is in use.
+         *
+         * @return environment handle, or {@code null} if the lease is revoked
+         */
+        public REXP getEnvironment() {
+            return env;
+        }
+    }
+}
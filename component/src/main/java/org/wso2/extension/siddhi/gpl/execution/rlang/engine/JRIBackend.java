@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.apache.log4j.Logger;
+import org.rosuda.REngine.JRI.JRIEngine;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.REngine;
+import org.rosuda.REngine.REngineException;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+
+/**
+ * Backend which evaluates scripts in the in-process R interpreter through JRI. This is the default backend.
+ */
+public class JRIBackend implements RBackend {
+
+    private static final String SCRIPT = ".siddhi.script";
+    private static final String OUTPUTS = ".siddhi.outputs";
+    private static final String SOURCE = ".siddhi.source";
+    private static final String MODEL = ".siddhi.model";
+    private static final Logger log = Logger.getLogger(JRIBackend.class);
+
+    REngine re;
+    private volatile REXP groupScript;
+
+    @Override
+    public void init(ConfigReader configReader) throws REngineException {
+        // Get the JRIEngine or create one
+        re = JRIEngine.createEngine();
+    }
+
+    @Override
+    public REXP parse(String script) throws REngineException {
+        return re.parse(script, false);
+    }
+
+    @Override
+    public REXP compile(String script) throws REngineException {
+        try {
+            re.assign(SOURCE, new REXPString(script));
+            return re.eval(re.parse(RGlue.compileScript(SOURCE), false), null, false);
+        } catch (REXPMismatchException e) {
+            throw new REngineException(re, "Unable to compile the script: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public REXP loadModel(String path) throws REngineException {
+        try {
+            re.assign(SOURCE, new REXPString(path));
+            return re.eval(re.parse(RGlue.loadModelScript(SOURCE), false), null, false);
+        } catch (REXPMismatchException e) {
+            throw new REngineException(re, "Unable to load the model " + path + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public long modelSize(REXP model) throws REngineException {
+        try {
+            re.assign(MODEL, model);
+            return (long) re.parseAndEval("{ .s <- as.numeric(object.size(" + MODEL + ")); rm(" + MODEL +
+                    "); .s }").asDouble();
+        } catch (REXPMismatchException e) {
+            throw new REngineException(re, "Unable to compute the size of the model: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindModel(REXP env, String name, REXP model) throws REngineException {
+        try {
+            // The binding refers to the loaded object, R only copies it if a script modifies it
+            re.eval(re.parse(RGlue.unlockScript(name, "environment()"), false), env, false);
+            re.assign(name, model, env);
+            re.eval(re.parse("lockBinding(\"" + name + "\", environment())", false), env, false);
+        } catch (REXPMismatchException e) {
+            throw new REngineException(re, "Unable to bind the model " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public REXP newEnvironment() throws REngineException {
+        try {
+            return re.newEnvironment(null, true);
+        } catch (REXPMismatchException e) {
+            throw new REngineException(re, "Unable to create a new R environment: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void assign(String symbol, REXP value, REXP env) throws REngineException, REXPMismatchException {
+        re.assign(symbol, value, env);
+    }
+
+    @Override
+    public REXP eval(REXP expression, REXP env, boolean resolve) throws REngineException, REXPMismatchException {
+        return re.eval(expression, env, resolve);
+    }
+
+    @Override
+    public REXP evaluateGroups(int worker, REXP env, String[] names, REXP[] values, int[] groups, REXP script,
+                               REXP outputs) throws REngineException, REXPMismatchException {
+        if (groupScript == null) {
+            groupScript = re.parse(RGlue.groupScript(SCRIPT, OUTPUTS), false);
+        }
+        for (int i = 0; i < names.length; i++) {
+            re.assign(names[i], values[i], env);
+        }
+        re.assign(RGlue.NAMES, new REXPString(names), env);
+        re.assign(RGlue.GROUP, new REXPInteger(groups), env);
+        re.assign(SCRIPT, script, env);
+        re.assign(OUTPUTS, outputs, env);
+        return re.eval(groupScript, env, true);
+    }
+
+    @Override
+    public void interrupt(REXP env) {
+        // R checks for user interrupts between operations, hence the current evaluation fails soon after
+        ((JRIEngine) re).getRni().rniStop(0);
+    }
+
+    @Override
+    public void releaseEnvironment(REXP env) {
+        // The environment itself goes once JRI drops its reference, its variables are removed right away
+        try {
+            resetEnvironment(env);
+        } catch (REngineException e) {
+            log.warn("Unable to clear the R environment", e);
+        }
+    }
+
+    @Override
+    public void release() {
+        // JRI cannot start R again within the same JVM once it is closed, hence the engine is kept alive.
+    }
+}
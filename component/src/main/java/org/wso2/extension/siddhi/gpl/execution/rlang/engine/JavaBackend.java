@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.REXPJavaReference;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPRaw;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.REXPVector;
+import org.rosuda.REngine.REngineException;
+import org.rosuda.REngine.RList;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter.Environment;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter.Interpreter;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter.Node;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter.Parser;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter.ScriptException;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pure Java stand-in for R, which runs scripts written in the subset of R understood by the {@link Interpreter}.
+ * It does not need a native R installation, hence it is used to test the extension and to measure the overhead
+ * of the Java side of the bridge. Like the Rserve backend it can be given several workers, each with its own
+ * global environment and its own copy of every processor environment.
+ */
+public class JavaBackend implements RBackend {
+
+    public static final String WORKERS = "java.workers";
+
+    private final Interpreter interpreter = new Interpreter();
+    private final Map<Environment, Thread> running = new IdentityHashMap<Environment, Thread>();
+    private Environment[] globalEnvs;
+
+    @Override
+    public void init(ConfigReader configReader) {
+        globalEnvs = new Environment[Integer.parseInt(configReader.readConfig(WORKERS, "1"))];
+        for (int i = 0; i < globalEnvs.length; i++) {
+            globalEnvs[i] = new Environment(null);
+        }
+    }
+
+    @Override
+    public REXP parse(String script) throws REngineException {
+        try {
+            return new REXPJavaReference(Parser.parse(script));
+        } catch (ScriptException e) {
+            throw new REngineException(null, "Unable to parse the script: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public REXP loadModel(String path) throws REngineException {
+        // Only models written as scripts can be loaded, the interpreter cannot read serialized R objects
+        String script;
+        try {
+            script = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new REngineException(null, "Unable to read the model " + path + ": " + e.getMessage());
+        }
+        return eval(parse(script), new Environment(globalEnvs[0]));
+    }
+
+    @Override
+    public long modelSize(REXP model) throws REngineException {
+        try {
+            return RGlue.sizeOf(model);
+        } catch (REXPMismatchException e) {
+            throw new REngineException(null, "Unable to compute the size of the model: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindModel(REXP env, String name, REXP model) {
+        // Values are never modified in place by the interpreter, hence every worker can share the loaded model
+        for (Environment environment : (Environment[]) ((REXPJavaReference) env).getObject()) {
+            synchronized (environment) {
+                environment.assign(name, model);
+                environment.lock(name);
+            }
+        }
+    }
+
+    @Override
+    public String exportScript(String variable) {
+        return variable;
+    }
+
+    @Override
+    public REXP publishModel(REXP exported) {
+        return exported;
+    }
+
+    @Override
+    public REXP newEnvironment() {
+        Environment[] environments = new Environment[globalEnvs.length];
+        for (int i = 0; i < environments.length; i++) {
+            environments[i] = new Environment(globalEnvs[i]);
+        }
+        return new REXPJavaReference(environments);
+    }
+
+    @Override
+    public void assign(String symbol, REXP value, REXP env) throws REXPMismatchException {
+        environment(env, 0).assign(symbol, RGlue.copy(value));
+    }
+
+    @Override
+    public REXP eval(REXP expression, REXP env, boolean resolve) throws REngineException {
+        return eval(expression, environment(env, 0));
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return globalEnvs.length;
+    }
+
+    @Override
+    public REXP evaluate(REXP env, String[] names, REXP[] values, REXP script, REXP outputs)
+            throws REngineException, REXPMismatchException {
+        return evaluate(0, env, names, values, script, outputs);
+    }
+
+    @Override
+    public REXP evaluate(int worker, REXP env, String[] names, REXP[] values, REXP script, REXP outputs)
+            throws REngineException, REXPMismatchException {
+        Environment environment = environment(env, worker);
+        synchronized (environment) {
+            running(environment, true);
+            try {
+                for (int i = 0; i < names.length; i++) {
+                    // Like R, keep a copy of the inputs, as the caller reuses their buffers
+                    environment.assign(names[i], RGlue.copy(values[i]));
+                }
+                eval(script, environment);
+                return eval(outputs, environment);
+            } finally {
+                running(environment, false);
+            }
+        }
+    }
+
+    @Override
+    public REXP evaluateGroups(int worker, REXP env, String[] names, REXP[] values, int[] groups, REXP script,
+                               REXP outputs) throws REngineException, REXPMismatchException {
+        Environment environment = environment(env, worker);
+        int[][] positions = RGlue.groupPositions(groups);
+        REXP[] results = new REXP[positions.length];
+        synchronized (environment) {
+            running(environment, true);
+            try {
+                for (int i = 0; i < positions.length; i++) {
+                    Environment groupEnvironment = new Environment(environment);
+                    for (int j = 0; j < names.length; j++) {
+                        groupEnvironment.assign(names[j], RGlue.select(values[j], positions[i]));
+                    }
+                    eval(script, groupEnvironment);
+                    results[i] = eval(outputs, groupEnvironment);
+                }
+            } finally {
+                running(environment, false);
+            }
+        }
+        return new REXPGenericVector(new RList(results));
+    }
+
+    @Override
+    public void interrupt(REXP env) {
+        synchronized (running) {
+            for (Environment environment : (Environment[]) ((REXPJavaReference) env).getObject()) {
+                Thread thread = running.get(environment);
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Tracks the thread evaluating in an environment, so that the evaluation can be interrupted.
+     */
+    private void running(Environment environment, boolean started) {
+        synchronized (running) {
+            if (started) {
+                running.put(environment, Thread.currentThread());
+            } else {
+                running.remove(environment);
+                // An interrupt which came too late must not leak into whatever the thread does next
+                Thread.interrupted();
+            }
+        }
+    }
+
+    @Override
+    public long resetEnvironment(REXP env) {
+        long size = 0;
+        for (Environment environment : (Environment[]) ((REXPJavaReference) env).getObject()) {
+            for (REXP value : environment.getVariables().values()) {
+                // Vectors are the bulk of the memory, eight bytes per element at most
+                if (value instanceof REXPVector) {
+                    size += 8L * ((REXPVector) value).length();
+                }
+            }
+            environment.clear();
+        }
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public REXP saveEnvironment(int worker, REXP env, String[] excluded, boolean full) throws REngineException {
+        Environment environment = environment(env, worker);
+        // Like R, the environment refers to the values it saved last, and assignments replace values as a whole
+        REXP reference = environment.getVariables().get(RGlue.SAVED);
+        Map<String, REXP> saved = full || reference == null ? new HashMap<String, REXP>() :
+                (Map<String, REXP>) ((REXPJavaReference) reference).getObject();
+        List<String> names = new ArrayList<String>();
+        List<String> changedNames = new ArrayList<String>();
+        List<REXP> changed = new ArrayList<REXP>();
+        Map<String, REXP> current = new HashMap<String, REXP>();
+        for (Map.Entry<String, REXP> variable : environment.getVariables().entrySet()) {
+            String name = variable.getKey();
+            if (name.startsWith(RGlue.INTERNAL) || Arrays.asList(excluded).contains(name)) {
+                continue;
+            }
+            names.add(name);
+            current.put(name, variable.getValue());
+            if (saved.get(name) != variable.getValue()) {
+                try {
+                    changed.add(new REXPRaw(VectorCodec.encode(variable.getValue())));
+                } catch (REXPMismatchException e) {
+                    throw new REngineException(null, "Unable to save the variable " + name + ": " + e.getMessage());
+                }
+                changedNames.add(name);
+            }
+        }
+        environment.assign(RGlue.SAVED, new REXPJavaReference(current));
+        return new REXPGenericVector(new RList(new REXP[]{
+                new REXPString(names.toArray(new String[names.size()])),
+                new REXPGenericVector(new RList(changed, changedNames.toArray(new String[changedNames.size()])))
+        }, new String[]{"names", "changed"}));
+    }
+
+    @Override
+    public void restoreEnvironment(int worker, REXP env, REXP saved) throws REngineException {
+        Environment environment = environment(env, worker);
+        Map<String, REXP> restored = new HashMap<String, REXP>();
+        try {
+            RList list = saved.asList();
+            for (int i = 0; i < list.size(); i++) {
+                REXP value = VectorCodec.decode(list.at(i).asBytes());
+                environment.assign(list.keyAt(i), value);
+                restored.put(list.keyAt(i), value);
+            }
+        } catch (REXPMismatchException | IOException e) {
+            throw new REngineException(null, "Unable to restore the environment: " + e.getMessage());
+        }
+        environment.assign(RGlue.SAVED, new REXPJavaReference(restored));
+    }
+
+    @Override
+    public void collectGarbage() {
+        // The interpreter allocates on the Java heap, which the JVM collects on its own
+    }
+
+    @Override
+    public void releaseEnvironment(REXP env) {
+        for (Environment environment : (Environment[]) ((REXPJavaReference) env).getObject()) {
+            environment.clear();
+        }
+    }
+
+    @Override
+    public void release() {
+
+    }
+
+    private REXP eval(REXP expression, Environment environment) throws REngineException {
+        try {
+            return interpreter.eval((Node) ((REXPJavaReference) expression).getObject(), environment);
+        } catch (ScriptException e) {
+            throw new REngineException(null, "Error in the evaluation of the script: " + e.getMessage());
+        }
+    }
+
+    private static Environment environment(REXP env, int worker) {
+        return ((Environment[]) ((REXPJavaReference) env).getObject())[worker];
+    }
+}
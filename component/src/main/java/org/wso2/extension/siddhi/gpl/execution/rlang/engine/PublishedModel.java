@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPNull;
+import org.rosuda.REngine.REngineException;
+
+/**
+ * Model which a training processor publishes for scoring processors. Each publication replaces the model as a
+ * whole, hence a scoring batch either sees the previous fit or the new one, and the version tells the scoring
+ * processors when to rebind it. Until the first publication the model is {@code NULL}.
+ */
+public final class PublishedModel {
+
+    private final RBackend backend;
+    private final String name;
+    private REXP model;
+    private volatile long version;
+    int references;
+
+    PublishedModel(RBackend backend, String name) {
+        this.backend = backend;
+        this.name = name;
+    }
+
+    /**
+     * Publishes a new fit, replacing the previous one.
+     *
+     * @param exported value of the fitted object, as returned by the script built by
+     *                 {@link RBackend#exportScript(String)}
+     * @throws REngineException if the model cannot be made available to the engine
+     */
+    public void publish(REXP exported) throws REngineException {
+        REXP published = backend.publishModel(exported);
+        REXP previous;
+        synchronized (this) {
+            previous = model;
+            model = published;
+            version++;
+        }
+        // Environments the previous fit is still bound to keep it alive until they are given the new one
+        if (previous != null) {
+            backend.releaseModel(previous);
+        }
+    }
+
+    /**
+     * Binds the current fit to a variable of an environment.
+     *
+     * @param env      environment handle
+     * @param variable name of the variable
+     * @return version of the bound fit
+     * @throws REngineException if the model cannot be bound
+     */
+    public synchronized long bind(REXP env, String variable) throws REngineException {
+        if (model == null) {
+            try {
+                backend.assign(variable, new REXPNull(), env);
+            } catch (REXPMismatchException e) {
+                throw new REngineException(null, "Unable to bind the model " + name + ": " + e.getMessage());
+            }
+        } else {
+            backend.bindModel(env, variable, model);
+        }
+        return version;
+    }
+
+    /**
+     * Returns the version of the current fit, which changes on every publication.
+     *
+     * @return version of the current fit
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    synchronized void release() {
+        if (model != null) {
+            backend.releaseModel(model);
+            model = null;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.REngineException;
+import org.rosuda.REngine.RList;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+
+/**
+ * Service provider interface of the engines which evaluate R scripts on behalf of the R stream processors.
+ * Backends are shared by all the processors that select them, hence implementations must be thread safe.
+ * Values, parsed scripts and environments are exchanged as {@link REXP}s; the handles returned by
+ * {@link #parse(String)} and {@link #newEnvironment()} are only meaningful to the backend that created them.
+ */
+public interface RBackend {
+
+    /**
+     * Creates the underlying engine. Called once, before the backend is handed out to any processor.
+     *
+     * @param configReader config reader of the extension which selected this backend
+     * @throws REngineException if the engine cannot be created
+     */
+    void init(ConfigReader configReader) throws REngineException;
+
+    /**
+     * Parses the given script.
+     *
+     * @param script R script
+     * @return handle to the parsed script, which can be passed to {@link #eval(REXP, REXP, boolean)}
+     * @throws REngineException if the script cannot be parsed
+     */
+    REXP parse(String script) throws REngineException;
+
+    /**
+     * Parses the given script and compiles it for faster evaluation, when the engine supports that. The handle is
+     * used like the ones returned by {@link #parse(String)}.
+     *
+     * @param script R script
+     * @return handle to the compiled script
+     * @throws REngineException if the script cannot be parsed or compiled
+     */
+    default REXP compile(String script) throws REngineException {
+        return parse(script);
+    }
+
+    /**
+     * Releases a parsed or compiled script which is no longer used.
+     *
+     * @param script handle of the script
+     */
+    default void releaseScript(REXP script) {
+
+    }
+
+    /**
+     * Loads a model artifact: an {@code .rds} file is read with {@code readRDS}, an {@code .RData} or {@code .rda}
+     * file must hold a single object which is then loaded, and any other file is sourced as an R script whose value
+     * is the model.
+     *
+     * @param path path of the artifact
+     * @return handle of the model
+     * @throws REngineException if the model cannot be loaded
+     */
+    default REXP loadModel(String path) throws REngineException {
+        throw new REngineException(null, "The R engine does not support models");
+    }
+
+    /**
+     * Returns the approximate memory held by a model.
+     *
+     * @param model handle of the model
+     * @return size in bytes
+     * @throws REngineException if the size cannot be computed
+     */
+    default long modelSize(REXP model) throws REngineException {
+        return 0;
+    }
+
+    /**
+     * Exposes a model to the scripts evaluated in an environment, as a read-only variable which refers to the
+     * loaded model rather than a copy of it.
+     *
+     * @param env   environment handle
+     * @param name  name of the variable
+     * @param model handle of the model
+     * @throws REngineException if the model cannot be bound
+     */
+    default void bindModel(REXP env, String name, REXP model) throws REngineException {
+        throw new REngineException(null, "The R engine does not support models");
+    }
+
+    /**
+     * Releases a model which no processor uses anymore. Environments it is still bound to keep it alive.
+     *
+     * @param model handle of the model
+     */
+    default void releaseModel(REXP model) {
+
+    }
+
+    /**
+     * Builds the R code which exports the object held by a variable, so that it can be published as a model once
+     * the evaluation which fitted it returns. R objects are exported serialized, since fitted models may refer to
+     * environments which cannot be converted to Java.
+     *
+     * @param variable variable holding the fitted object
+     * @return R code
+     */
+    default String exportScript(String variable) {
+        return "serialize(" + variable + ", NULL)";
+    }
+
+    /**
+     * Loads an exported object as a model, see {@link #exportScript(String)}. The model is released through
+     * {@link #releaseModel(REXP)} once it is replaced by a newer fit.
+     *
+     * @param exported value of the exported object
+     * @return handle of the model
+     * @throws REngineException if the object cannot be loaded
+     */
+    default REXP publishModel(REXP exported) throws REngineException {
+        REXP env = newEnvironment();
+        try {
+            assign(RGlue.EXPORTED, exported, env);
+            return eval(parse("unserialize(" + RGlue.EXPORTED + ")"), env, false);
+        } catch (REXPMismatchException e) {
+            throw new REngineException(null, "Unable to load the published model: " + e.getMessage());
+        } finally {
+            releaseEnvironment(env);
+        }
+    }
+
+    /**
+     * Creates a new environment for a processor.
+     *
+     * @return handle to the environment
+     * @throws REngineException if the environment cannot be created
+     */
+    REXP newEnvironment() throws REngineException;
+
+    /**
+     * Assigns a value to a symbol in the given environment.
+     *
+     * @param symbol name of the variable
+     * @param value  value to be assigned
+     * @param env    environment handle
+     * @throws REngineException      if the assignment fails
+     * @throws REXPMismatchException if the value cannot be converted to an R object
+     */
+    void assign(String symbol, REXP value, REXP env) throws REngineException, REXPMismatchException;
+
+    /**
+     * Evaluates a parsed script in the given environment.
+     *
+     * @param expression handle returned by {@link #parse(String)}
+     * @param env        environment handle
+     * @param resolve    whether the result should be converted to a Java side {@link REXP}
+     * @return result of the evaluation
+     * @throws REngineException      if the evaluation fails
+     * @throws REXPMismatchException if the result cannot be converted
+     */
+    REXP eval(REXP expression, REXP env, boolean resolve) throws REngineException, REXPMismatchException;
+
+    /**
+     * Evaluates one batch of a processor: assigns the input vectors to the environment, evaluates the script and
+     * returns the resolved result of the output expression. Backends which evaluate remotely override this to
+     * complete the whole batch in a single round trip. Callers reuse the arrays backing the input vectors once the
+     * call returns, hence backends which keep the vectors beyond the call must copy them.
+     *
+     * @param env     environment handle
+     * @param names   names of the input variables
+     * @param values  values of the input variables
+     * @param script  handle of the parsed script
+     * @param outputs handle of the parsed output expression
+     * @return resolved result of the output expression
+     * @throws REngineException      if the evaluation fails
+     * @throws REXPMismatchException if a value cannot be converted
+     */
+    default REXP evaluate(REXP env, String[] names, REXP[] values, REXP script, REXP outputs)
+            throws REngineException, REXPMismatchException {
+        for (int i = 0; i < names.length; i++) {
+            assign(names[i], values[i], env);
+        }
+        eval(script, env, false);
+        return eval(outputs, env, true);
+    }
+
+    /**
+     * Evaluates one batch of a processor, see {@link #evaluate(REXP, String[], REXP[], REXP, REXP)}. When coalescing
+     * is requested, a backend which queues batches may merge this batch with the other coalescing batches of the
+     * same environment which are queued along with it: the input vectors are concatenated in arrival order and the
+     * script is evaluated once. The result is then returned to the last of the merged batches, and the others get
+     * {@code null}.
+     *
+     * @param env      environment handle
+     * @param names    names of the input variables
+     * @param values   values of the input variables
+     * @param script   handle of the parsed script
+     * @param outputs  handle of the parsed output expression
+     * @param coalesce whether the batch may be merged with other queued batches of the environment
+     * @return resolved result of the output expression, or {@code null} if the batch was merged into a later one
+     * @throws REngineException      if the evaluation fails
+     * @throws REXPMismatchException if a value cannot be converted
+     */
+    default REXP evaluate(REXP env, String[] names, REXP[] values, REXP script, REXP outputs, boolean coalesce)
+            throws REngineException, REXPMismatchException {
+        return evaluate(env, names, values, script, outputs);
+    }
+
+    /**
+     * Returns the number of workers which can evaluate batches in parallel. Batches sent to the same worker are
+     * evaluated one after the other, hence state kept in the environment stays consistent for them.
+     *
+     * @return number of workers, at least one
+     */
+    default int getWorkerCount() {
+        return 1;
+    }
+
+    /**
+     * Evaluates one batch of a processor on the given worker, see {@link #evaluate(REXP, String[], REXP[], REXP,
+     * REXP)}.
+     *
+     * @param worker  index of the worker, less than {@link #getWorkerCount()}
+     * @param env     environment handle
+     * @param names   names of the input variables
+     * @param values  values of the input variables
+     * @param script  handle of the parsed script
+     * @param outputs handle of the parsed output expression
+     * @return resolved result of the output expression
+     * @throws REngineException      if the evaluation fails
+     * @throws REXPMismatchException if a value cannot be converted
+     */
+    default REXP evaluate(int worker, REXP env, String[] names, REXP[] values, REXP script, REXP outputs)
+            throws REngineException, REXPMismatchException {
+        return evaluate(env, names, values, script, outputs);
+    }
+
+    /**
+     * Evaluates the script once per group of a batch and returns the outputs of each group. Each group sees the
+     * elements of the input vectors which belong to it. This default evaluates the groups one by one through
+     * {@link #evaluate(int, REXP, String[], REXP[], REXP, REXP)}; the bundled backends override it to evaluate every
+     * group in a child of the given environment, all within a single call.
+     *
+     * @param worker  index of the worker, less than {@link #getWorkerCount()}
+     * @param env     environment handle
+     * @param names   names of the input variables
+     * @param values  values of the input variables
+     * @param groups  group of each element of the input vectors, numbered from one in order of appearance
+     * @param script  handle of the parsed script
+     * @param outputs handle of the parsed output expression
+     * @return list holding the resolved result of the output expression for each group, in group order
+     * @throws REngineException      if the evaluation fails
+     * @throws REXPMismatchException if a value cannot be converted
+     */
+    default REXP evaluateGroups(int worker, REXP env, String[] names, REXP[] values, int[] groups, REXP script,
+                                REXP outputs) throws REngineException, REXPMismatchException {
+        int[][] positions = RGlue.groupPositions(groups);
+        REXP[] results = new REXP[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            REXP[] groupValues = new REXP[values.length];
+            for (int j = 0; j < values.length; j++) {
+                groupValues[j] = RGlue.select(values[j], positions[i]);
+            }
+            results[i] = evaluate(worker, env, names, groupValues, script, outputs);
+        }
+        return new REXPGenericVector(new RList(results));
+    }
+
+    /**
+     * Interrupts the evaluations of an environment which are in progress, typically because they exceeded their
+     * time budget. Interrupting is best effort: the interrupted evaluations fail, unless they complete first. The
+     * variables of the environment are then in an unknown state, callers reset it once the evaluations returned.
+     *
+     * @param env environment handle
+     */
+    default void interrupt(REXP env) {
+
+    }
+
+    /**
+     * Removes every variable of an environment, so that it can be handed to another processor as if it was new.
+     *
+     * @param env environment handle
+     * @return approximate memory held by the removed variables, in bytes
+     * @throws REngineException if the environment cannot be cleared
+     */
+    default long resetEnvironment(REXP env) throws REngineException {
+        try {
+            return (long) eval(parse(RGlue.resetScript("environment()")), env, true).asDouble();
+        } catch (REXPMismatchException e) {
+            throw new REngineException(null, "Unable to reset the R environment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the garbage collector of the engine, typically once environments holding large objects were reset.
+     *
+     * @throws REngineException if the collection fails
+     */
+    default void collectGarbage() throws REngineException {
+        try {
+            eval(parse("invisible(gc())"), null, false);
+        } catch (REXPMismatchException e) {
+            throw new REngineException(null, "Unable to collect the R garbage: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the variables of an environment held by a worker, so that they can be persisted along with the state of
+     * the processor. Unless a full save is requested, only the variables assigned since the previous save are
+     * serialized: the environment keeps referring to the objects it saved last, hence an unchanged object is
+     * recognized without being serialized again. Variables whose names start with {@code .siddhi.} are never saved.
+     *
+     * @param worker   index of the worker, less than {@link #getWorkerCount()}
+     * @param env      environment handle
+     * @param excluded names of the variables which are not saved
+     * @param full     whether every variable is serialized, rather than the changed ones only
+     * @return list holding the names of all the saved variables as {@code names}, and the changed variables
+     * serialized into raw vectors as {@code changed}, a list named by variable
+     * @throws REngineException if the environment cannot be saved
+     */
+    default REXP saveEnvironment(int worker, REXP env, String[] excluded, boolean full) throws REngineException {
+        try {
+            assign(RGlue.EXCLUDED, new REXPString(excluded), env);
+            return eval(parse(RGlue.saveScript("environment()", full)), env, true);
+        } catch (REXPMismatchException e) {
+            throw new REngineException(null, "Unable to save the R environment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Restores variables saved by {@link #saveEnvironment(int, REXP, String[], boolean)} into an environment held by
+     * a worker. The restored variables count as saved, hence they are not serialized again by the next save.
+     *
+     * @param worker index of the worker, less than {@link #getWorkerCount()}
+     * @param env    environment handle
+     * @param saved  list of the serialized variables, named by variable
+     * @throws REngineException if the variables cannot be restored
+     */
+    default void restoreEnvironment(int worker, REXP env, REXP saved) throws REngineException {
+        try {
+            assign(RGlue.RESTORED, saved, env);
+            eval(parse(RGlue.restoreScript("environment()")), env, false);
+        } catch (REXPMismatchException e) {
+            throw new REngineException(null, "Unable to restore the R environment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Releases an environment which is no longer used by its processor.
+     *
+     * @param env environment handle
+     */
+    void releaseEnvironment(REXP env);
+
+    /**
+     * Releases the engine once no processor uses this backend anymore.
+     */
+    void release();
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.apache.log4j.Logger;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REngineException;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hands out the {@link RBackend} selected by the "engine" system parameter of the extension. A single backend
+ * instance is shared per engine name and it is released once the last processor using it is stopped. Scripts are
+ * shared the same way: processors with the same script get the same compiled script, which is released once the
+ * last of them is stopped. Models are loaded once per backend as well, and are kept after their last processor is
+ * stopped until the memory of the unused models exceeds the "models.cache.size" system parameter, at which point
+ * the least recently used ones are evicted. Models published by training processors are shared by name between the
+ * trainer and the scoring processors. Partitioned processors lease their environments from the {@link EnvironmentPool}
+ * of the backend.
+ */
+public final class RBackendFactory {
+
+    public static final String ENGINE = "engine";
+    public static final String JRI = "jri";
+    public static final String JAVA = "java";
+    public static final String RSERVE = "rserve";
+    public static final String EXECUTOR = "executor";
+    public static final String SERIALIZED = "serialized";
+    public static final String DIRECT = "direct";
+    public static final String COMPILE = "compile";
+    public static final String MODELS_CACHE_SIZE = "models.cache.size";
+    public static final String ENVIRONMENTS_MAX = "environments.max";
+    public static final String ENVIRONMENTS_IDLE_TIMEOUT = "environments.idle.timeout";
+    public static final String GC_THRESHOLD = "gc.threshold";
+
+    private static final Logger log = Logger.getLogger(RBackendFactory.class);
+    private static final Map<String, BackendHolder> backends = new HashMap<String, BackendHolder>();
+
+    private RBackendFactory() {
+
+    }
+
+    /**
+     * Returns the backend selected by the given config reader, creating it if this is the first user.
+     *
+     * @param configReader config reader of the extension
+     * @return the shared backend
+     * @throws REngineException if the backend cannot be created
+     */
+    public static synchronized RBackend acquire(ConfigReader configReader) throws REngineException {
+        return acquire(configReader, configReader.readConfig(ENGINE, JRI));
+    }
+
+    /**
+     * Returns the backend of the given engine, creating it with the parameters of the given config reader if this
+     * is the first user.
+     *
+     * @param configReader config reader of the extension
+     * @param engineName   name of the engine, regardless of the one selected by the config reader
+     * @return the shared backend
+     * @throws REngineException if the backend cannot be created
+     */
+    public static synchronized RBackend acquire(ConfigReader configReader, String engineName)
+            throws REngineException {
+        String engine = engineName.trim().toLowerCase();
+        BackendHolder holder = backends.get(engine);
+        if (holder == null) {
+            RBackend backend = createBackend(engine);
+            // JRI must only be used from one thread, hence its calls are funnelled through the R executor thread
+            String executor = configReader.readConfig(EXECUTOR, JRI.equals(engine) ? SERIALIZED : DIRECT).trim()
+                    .toLowerCase();
+            if (SERIALIZED.equals(executor)) {
+                backend = new SerializedBackend(backend);
+            } else if (!DIRECT.equals(executor)) {
+                throw new REngineException(null, "Unknown R executor '" + executor + "'. Supported executors are '" +
+                        SERIALIZED + "' and '" + DIRECT + "'");
+            }
+            EnvironmentPool environmentPool = new EnvironmentPool(backend,
+                    Integer.parseInt(configReader.readConfig(ENVIRONMENTS_MAX, "1024").trim()),
+                    Long.parseLong(configReader.readConfig(ENVIRONMENTS_IDLE_TIMEOUT, "300000").trim()),
+                    Long.parseLong(configReader.readConfig(GC_THRESHOLD, "256").trim()) * 1024 * 1024);
+            try {
+                backend.init(configReader);
+            } catch (REngineException | RuntimeException e) {
+                // The executor thread and the connections opened so far are not left behind
+                environmentPool.release();
+                backend.release();
+                throw e;
+            }
+            holder = new BackendHolder(engine, backend,
+                    Boolean.parseBoolean(configReader.readConfig(COMPILE, "true").trim()),
+                    Long.parseLong(configReader.readConfig(MODELS_CACHE_SIZE, "1024").trim()) * 1024 * 1024,
+                    environmentPool);
+            backends.put(engine, holder);
+            if (log.isDebugEnabled()) {
+                log.debug("Created R backend '" + engine + "'");
+            }
+        }
+        holder.references++;
+        return holder.backend;
+    }
+
+    /**
+     * Gives back a backend obtained through {@link #acquire(ConfigReader)}.
+     *
+     * @param backend the backend which is no longer used by the caller
+     */
+    public static synchronized void release(RBackend backend) {
+        for (BackendHolder holder : backends.values()) {
+            if (holder.backend == backend) {
+                if (--holder.references == 0) {
+                    backends.remove(holder.engine);
+                    holder.environmentPool.release();
+                    backend.release();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Released R backend '" + holder.engine + "'");
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the pool of environments of the given backend, configured by the "environments.max",
+     * "environments.idle.timeout" and "gc.threshold" system parameters of the extension which created the backend.
+     *
+     * @param backend backend obtained through {@link #acquire(ConfigReader)}
+     * @return the environment pool of the backend
+     * @throws REngineException if the backend has not been acquired through the factory
+     */
+    public static synchronized EnvironmentPool environmentPool(RBackend backend) throws REngineException {
+        BackendHolder holder = holder(backend);
+        if (holder == null) {
+            throw new REngineException(null, "The R backend has not been acquired through the factory");
+        }
+        return holder.environmentPool;
+    }
+
+    /**
+     * Returns the script parsed, and compiled unless disabled through the "compile" system parameter, by the given
+     * backend. Scripts are cached by the hash of their content, hence a script deployed by many processors is only
+     * compiled once.
+     *
+     * @param backend backend obtained through {@link #acquire(ConfigReader)}
+     * @param script  R script
+     * @return handle of the script, to be given back through {@link #releaseScript(RBackend, REXP)}
+     * @throws REngineException if the script cannot be parsed or compiled
+     */
+    public static synchronized REXP compile(RBackend backend, String script) throws REngineException {
+        BackendHolder holder = holder(backend);
+        if (holder == null) {
+            throw new REngineException(null, "The R backend has not been acquired through the factory");
+        }
+        String key = hash(script);
+        ScriptHolder cached = holder.scripts.get(key);
+        if (cached == null) {
+            cached = new ScriptHolder(holder.compile ? backend.compile(script) : backend.parse(script));
+            holder.scripts.put(key, cached);
+        } else if (log.isDebugEnabled()) {
+            log.debug("Reusing the compiled R script " + key);
+        }
+        cached.references++;
+        return cached.script;
+    }
+
+    /**
+     * Gives back a script obtained through {@link #compile(RBackend, String)}.
+     *
+     * @param backend backend the script was compiled by
+     * @param script  handle of the script
+     */
+    public static synchronized void releaseScript(RBackend backend, REXP script) {
+        BackendHolder holder = holder(backend);
+        if (holder == null) {
+            return;
+        }
+        for (Iterator<ScriptHolder> iterator = holder.scripts.values().iterator(); iterator.hasNext(); ) {
+            ScriptHolder cached = iterator.next();
+            if (cached.script == script) {
+                if (--cached.references == 0) {
+                    iterator.remove();
+                    backend.releaseScript(script);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the model loaded from the given artifact by the given backend, loading it if it is not cached.
+     *
+     * @param backend backend obtained through {@link #acquire(ConfigReader)}
+     * @param path    path of the model artifact, see {@link RBackend#loadModel(String)}
+     * @return handle of the model, to be given back through {@link #releaseModel(RBackend, REXP)}
+     * @throws REngineException if the model cannot be loaded
+     */
+    public static synchronized REXP acquireModel(RBackend backend, String path) throws REngineException {
+        BackendHolder holder = holder(backend);
+        if (holder == null) {
+            throw new REngineException(null, "The R backend has not been acquired through the factory");
+        }
+        ModelHolder cached = holder.models.get(path);
+        if (cached == null) {
+            long start = System.currentTimeMillis();
+            REXP model = backend.loadModel(path);
+            cached = new ModelHolder(model, backend.modelSize(model));
+            holder.models.put(path, cached);
+            holder.modelsSize += cached.size;
+            log.info("Loaded the R model " + path + " (" + cached.size + " bytes) in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        }
+        cached.references++;
+        evictModels(holder);
+        return cached.model;
+    }
+
+    /**
+     * Gives back a model obtained through {@link #acquireModel(RBackend, String)}.
+     *
+     * @param backend backend the model was loaded by
+     * @param model   handle of the model
+     */
+    public static synchronized void releaseModel(RBackend backend, REXP model) {
+        BackendHolder holder = holder(backend);
+        if (holder == null) {
+            return;
+        }
+        for (ModelHolder cached : holder.models.values()) {
+            if (cached.model == model) {
+                cached.references--;
+                break;
+            }
+        }
+        evictModels(holder);
+    }
+
+    /**
+     * Returns the model published under the given name on the given backend, creating it if this is the first
+     * processor which publishes or scores it.
+     *
+     * @param backend backend obtained through {@link #acquire(ConfigReader)}
+     * @param name    name of the model
+     * @return the published model, to be given back through {@link #releasePublishedModel(RBackend,
+     * PublishedModel)}
+     * @throws REngineException if the backend has not been acquired through the factory
+     */
+    public static synchronized PublishedModel acquirePublishedModel(RBackend backend, String name)
+            throws REngineException {
+        BackendHolder holder = holder(backend);
+        if (holder == null) {
+            throw new REngineException(null, "The R backend has not been acquired through the factory");
+        }
+        PublishedModel published = holder.publishedModels.get(name);
+        if (published == null) {
+            published = new PublishedModel(backend, name);
+            holder.publishedModels.put(name, published);
+        }
+        published.references++;
+        return published;
+    }
+
+    /**
+     * Gives back a model obtained through {@link #acquirePublishedModel(RBackend, String)}.
+     *
+     * @param backend   backend the model was published on
+     * @param published the published model
+     */
+    public static synchronized void releasePublishedModel(RBackend backend, PublishedModel published) {
+        BackendHolder holder = holder(backend);
+        if (holder != null && --published.references == 0) {
+            holder.publishedModels.remove(published.getName());
+            published.release();
+        }
+    }
+
+    private static void evictModels(BackendHolder holder) {
+        // Models are kept in access order, hence the least recently used unreferenced ones are evicted first
+        for (Iterator<Map.Entry<String, ModelHolder>> iterator = holder.models.entrySet().iterator();
+             iterator.hasNext() && holder.modelsSize > holder.modelsCapacity; ) {
+            Map.Entry<String, ModelHolder> entry = iterator.next();
+            ModelHolder cached = entry.getValue();
+            if (cached.references == 0) {
+                iterator.remove();
+                holder.modelsSize -= cached.size;
+                holder.backend.releaseModel(cached.model);
+                if (log.isDebugEnabled()) {
+                    log.debug("Evicted the R model " + entry.getKey());
+                }
+            }
+        }
+    }
+
+    private static BackendHolder holder(RBackend backend) {
+        for (BackendHolder holder : backends.values()) {
+            if (holder.backend == backend) {
+                return holder;
+            }
+        }
+        return null;
+    }
+
+    private static String hash(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static RBackend createBackend(String engine) throws REngineException {
+        switch (engine) {
+            case JRI:
+                return new JRIBackend();
+            case JAVA:
+                return new JavaBackend();
+            case RSERVE:
+                return new RserveBackend();
+            default:
+                throw new REngineException(null, "Unknown R engine '" + engine + "'. Supported engines are '" +
+                        JRI + "', '" + JAVA + "' and '" + RSERVE + "'");
+        }
+    }
+
+    private static class BackendHolder {
+        private final String engine;
+        private final RBackend backend;
+        private final boolean compile;
+        private final Map<String, ScriptHolder> scripts = new HashMap<String, ScriptHolder>();
+        private final Map<String, ModelHolder> models = new LinkedHashMap<String, ModelHolder>(16, 0.75f, true);
+        private final Map<String, PublishedModel> publishedModels = new HashMap<String, PublishedModel>();
+        private final long modelsCapacity;
+        private final EnvironmentPool environmentPool;
+        private long modelsSize;
+        private int references;
+
+        BackendHolder(String engine, RBackend backend, boolean compile, long modelsCapacity,
+                      EnvironmentPool environmentPool) {
+            this.engine = engine;
+            this.backend = backend;
+            this.compile = compile;
+            this.modelsCapacity = modelsCapacity;
+            this.environmentPool = environmentPool;
+        }
+    }
+
+    private static class ScriptHolder {
+        private final REXP script;
+        private int references;
+
+        ScriptHolder(REXP script) {
+            this.script = script;
+        }
+    }
+
+    private static class ModelHolder {
+        private final REXP model;
+        private final long size;
+        private int references;
+
+        ModelHolder(REXP model, long size) {
+            this.model = model;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.RList;
+
+/**
+ * R code and vector helpers shared by the backends.
+ */
+final class RGlue {
+
+    /**
+     * Variable holding the group of each element of the input vectors, numbered from one in order of appearance.
+     */
+    static final String GROUP = ".siddhi.group";
+    /**
+     * Variable holding the names of the input vectors.
+     */
+    static final String NAMES = ".siddhi.names";
+    static final String EXPORTED = ".siddhi.exported";
+    /**
+     * Variable holding the names of the variables which are not saved along with an environment. The variables whose
+     * names start with {@link #INTERNAL} are never saved.
+     */
+    static final String EXCLUDED = ".siddhi.excluded";
+    /**
+     * Variable holding the serialized variables to be restored into an environment.
+     */
+    static final String RESTORED = ".siddhi.restored";
+    /**
+     * Variable holding the environment which refers to the variables as they were last saved.
+     */
+    static final String SAVED = ".siddhi.saved";
+    static final String INTERNAL = ".siddhi.";
+
+    private RGlue() {
+
+    }
+
+    /**
+     * Builds the R code which evaluates a script once per group, when evaluated in the environment holding the input
+     * vectors. Each group is evaluated in a child environment holding its slice of the inputs, and the results are
+     * the list of the outputs of each group, in group order.
+     *
+     * @param script  R expression yielding the parsed script
+     * @param outputs R expression yielding the parsed output expression
+     * @return R code
+     */
+    static String groupScript(String script, String outputs) {
+        return "lapply(split(seq_along(" + GROUP + "), " + GROUP + "), function(.i, .env) {\n" +
+                "    .e <- new.env(parent = .env)\n" +
+                "    for (.n in " + NAMES + ") assign(.n, get(.n, envir = .env)[.i], envir = .e)\n" +
+                "    eval(" + script + ", .e)\n" +
+                "    eval(" + outputs + ", .e)\n" +
+                "}, .env = environment())";
+    }
+
+    /**
+     * Builds the R code which removes every variable of an environment and yields the memory they held, in bytes.
+     *
+     * @param env R expression yielding the environment
+     * @return R code
+     */
+    static String resetScript(String env) {
+        return "(function(e) {\n" +
+                "    n <- ls(e, all.names = TRUE)\n" +
+                "    s <- sum(vapply(n, function(v) as.numeric(object.size(get(v, envir = e))), 0))\n" +
+                "    rm(list = n, envir = e)\n" +
+                "    s\n" +
+                "})(" + env + ")";
+    }
+
+    /**
+     * Builds the R code which saves the variables of an environment, see {@link RBackend#saveEnvironment(int, REXP,
+     * String[], boolean)}. The objects saved last are referred to from a child environment, hence an unchanged
+     * variable still refers to the very same object and {@code identical()} tells it apart without comparing the
+     * contents.
+     *
+     * @param env  R expression yielding the environment
+     * @param full whether every variable is serialized, rather than the changed ones only
+     * @return R code
+     */
+    static String saveScript(String env, boolean full) {
+        String saved = "new.env(parent = emptyenv())";
+        if (!full) {
+            saved = "if (exists(\"" + SAVED + "\", envir = e, inherits = FALSE)) get(\"" + SAVED + "\", envir = e) " +
+                    "else " + saved;
+        }
+        return "(function(e) {\n" +
+                "    s <- " + saved + "\n" +
+                "    assign(\"" + SAVED + "\", s, envir = e)\n" +
+                "    n <- ls(e, all.names = TRUE)\n" +
+                "    n <- n[substr(n, 1, " + INTERNAL.length() + ") != \"" + INTERNAL + "\" & " +
+                "!(n %in% get(\"" + EXCLUDED + "\", envir = e))]\n" +
+                "    rm(list = setdiff(ls(s, all.names = TRUE), n), envir = s)\n" +
+                "    changed <- Filter(function(v) !exists(v, envir = s, inherits = FALSE) || " +
+                "!identical(get(v, envir = e), get(v, envir = s)), n)\n" +
+                "    for (v in changed) assign(v, get(v, envir = e), envir = s)\n" +
+                "    list(names = n, changed = lapply(mget(changed, envir = e), serialize, connection = NULL))\n" +
+                "})(" + env + ")";
+    }
+
+    /**
+     * Builds the R code which restores the serialized variables held by {@link #RESTORED} into an environment, see
+     * {@link RBackend#restoreEnvironment(int, REXP, REXP)}.
+     *
+     * @param env R expression yielding the environment
+     * @return R code
+     */
+    static String restoreScript(String env) {
+        return "(function(e) {\n" +
+                "    r <- get(\"" + RESTORED + "\", envir = e)\n" +
+                "    s <- new.env(parent = emptyenv())\n" +
+                "    for (v in names(r)) {\n" +
+                "        x <- unserialize(r[[v]])\n" +
+                "        assign(v, x, envir = e)\n" +
+                "        assign(v, x, envir = s)\n" +
+                "    }\n" +
+                "    assign(\"" + SAVED + "\", s, envir = e)\n" +
+                "    rm(list = \"" + RESTORED + "\", envir = e)\n" +
+                "    invisible(NULL)\n" +
+                "})(" + env + ")";
+    }
+
+    /**
+     * Builds the R code which parses the script held by the given variable and byte-compiles all its statements into
+     * a single expression.
+     *
+     * @param source variable holding the script
+     * @return R code
+     */
+    static String compileScript(String source) {
+        return "compiler::compile(as.call(c(as.name(\"{\"), as.list(parse(text = " + source + ")))))";
+    }
+
+    /**
+     * Builds the R code which loads the model artifact whose path is held by the given variable, see
+     * {@link RBackend#loadModel(String)}.
+     *
+     * @param path variable holding the path of the artifact
+     * @return R code
+     */
+    static String loadModelScript(String path) {
+        return "local({\n" +
+                "    .path <- " + path + "\n" +
+                "    if (grepl(\"\\\\.rds$\", .path, ignore.case = TRUE)) {\n" +
+                "        readRDS(.path)\n" +
+                "    } else if (grepl(\"\\\\.(rdata|rda)$\", .path, ignore.case = TRUE)) {\n" +
+                "        .e <- new.env()\n" +
+                "        .n <- load(.path, envir = .e)\n" +
+                "        if (length(.n) != 1) stop(\"the file should hold a single object: \", .path)\n" +
+                "        get(.n, envir = .e)\n" +
+                "    } else {\n" +
+                "        source(.path, local = new.env())$value\n" +
+                "    }\n" +
+                "})";
+    }
+
+    /**
+     * Builds the R code which unlocks the binding of a variable if it is locked, so that a model can be rebound.
+     *
+     * @param name name of the variable
+     * @param env  R expression of the environment
+     * @return R code
+     */
+    static String unlockScript(String name, String env) {
+        return "if (exists(\"" + name + "\", envir = " + env + ", inherits = FALSE) && bindingIsLocked(\"" + name +
+                "\", " + env + ")) unlockBinding(\"" + name + "\", " + env + ")";
+    }
+
+    /**
+     * Estimates the memory held by a value the way R's {@code object.size} would, ignoring the headers of the
+     * objects.
+     */
+    static long sizeOf(REXP value) throws REXPMismatchException {
+        if (value instanceof REXPGenericVector) {
+            long size = 0;
+            for (Object element : value.asList()) {
+                size += sizeOf((REXP) element);
+            }
+            return size;
+        } else if (value instanceof REXPString) {
+            long size = 0;
+            for (String string : value.asStrings()) {
+                size += 8 + (string == null ? 0 : string.length());
+            }
+            return size;
+        } else if (value instanceof REXPDouble) {
+            return 8L * value.length();
+        } else if (value instanceof REXPInteger || value instanceof REXPLogical) {
+            return 4L * value.length();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of groups, given the group of each element.
+     */
+    static int groupCount(int[] groups) {
+        int count = 0;
+        for (int group : groups) {
+            count = Math.max(count, group);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the positions of the elements of each group.
+     */
+    static int[][] groupPositions(int[] groups) {
+        int[] sizes = new int[groupCount(groups)];
+        for (int group : groups) {
+            sizes[group - 1]++;
+        }
+        int[][] positions = new int[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            positions[i] = new int[sizes[i]];
+            sizes[i] = 0;
+        }
+        for (int i = 0; i < groups.length; i++) {
+            positions[groups[i] - 1][sizes[groups[i] - 1]++] = i;
+        }
+        return positions;
+    }
+
+    /**
+     * Copies an input vector, or a list of input vectors, which the caller may reuse once the call returns.
+     */
+    static REXP copy(REXP value) throws REXPMismatchException {
+        if (value.isNull()) {
+            return value;
+        }
+        if (value instanceof REXPGenericVector) {
+            RList list = value.asList();
+            REXP[] copies = new REXP[list.size()];
+            for (int i = 0; i < copies.length; i++) {
+                copies[i] = copy((REXP) list.get(i));
+            }
+            return new REXPGenericVector(new RList(copies, list.isNamed() ? list.keys() : null));
+        }
+        int[] positions = new int[value.length()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        return select(value, positions);
+    }
+
+    /**
+     * Selects the elements at the given positions of an input vector.
+     */
+    static REXP select(REXP vector, int[] positions) throws REXPMismatchException {
+        if (vector instanceof REXPString) {
+            String[] values = vector.asStrings();
+            String[] selected = new String[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                selected[i] = values[positions[i]];
+            }
+            return new REXPString(selected);
+        } else if (vector instanceof REXPLogical) {
+            byte[] values = ((REXPLogical) vector).asBytes();
+            byte[] selected = new byte[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                selected[i] = values[positions[i]];
+            }
+            return new REXPLogical(selected);
+        } else if (vector instanceof REXPInteger) {
+            int[] values = vector.asIntegers();
+            int[] selected = new int[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                selected[i] = values[positions[i]];
+            }
+            return new REXPInteger(selected);
+        } else if (vector instanceof REXPDouble) {
+            double[] values = vector.asDoubles();
+            double[] selected = new double[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                selected[i] = values[positions[i]];
+            }
+            return new REXPDouble(selected);
+        }
+        throw new REXPMismatchException(vector, "selection");
+    }
+}
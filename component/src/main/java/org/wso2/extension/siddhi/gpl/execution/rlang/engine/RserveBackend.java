@@ -0,0 +1,632 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.apache.log4j.Logger;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPJavaReference;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.REngineException;
+import org.rosuda.REngine.RList;
+import org.rosuda.REngine.Rserve.RConnection;
+import org.rosuda.REngine.Rserve.RserveException;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backend which evaluates scripts on a pool of Rserve workers. Rserve forks a separate R process for every
+ * connection, hence each pooled connection is an independent R worker and batches of different processors are
+ * evaluated in parallel. Scripts and environments are created on every worker, and each batch is sent over QAP
+ * to whichever worker is free.
+ * <p>
+ * As consecutive batches of a processor may run on different workers, state which a script keeps in its
+ * environment is only consistent across batches when there is a single worker, or when the batches are pinned to
+ * a worker through {@link #evaluate(int, REXP, String[], REXP[], REXP, REXP)}.
+ */
+public class RserveBackend implements RBackend {
+
+    public static final String WORKERS = "rserve.workers";
+    public static final String HOST = "rserve.host";
+    public static final String PORT = "rserve.port";
+    public static final String SPAWN = "rserve.spawn";
+    public static final String COMMAND = "rserve.command";
+
+    private static final Logger log = Logger.getLogger(RserveBackend.class);
+    private static final long CONNECT_TIMEOUT = 30000;
+
+    private final AtomicLong ids = new AtomicLong();
+    private final List<Worker> workers = new ArrayList<Worker>();
+    private BlockingQueue<Worker> idleWorkers;
+    // Scripts, models and environments set up on every worker, in the order they were defined, by symbol
+    private final Map<String, Definition> definitions = new LinkedHashMap<String, Definition>();
+    private String host;
+    private int port;
+    private RConnection control;
+    // Process id of the Rserve server started by this backend, 0 if the server is run by someone else
+    private int serverPid;
+
+    @Override
+    public void init(ConfigReader configReader) throws REngineException {
+        int size = Integer.parseInt(configReader.readConfig(WORKERS,
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        host = configReader.readConfig(HOST, "localhost");
+        port = Integer.parseInt(configReader.readConfig(PORT, "6311"));
+        Path pidFile = null;
+        if (Boolean.parseBoolean(configReader.readConfig(SPAWN, "true"))) {
+            if (isListening(host, port)) {
+                log.info("Rserve already listens at " + host + ":" + port + ", hence it is used and left running");
+            } else {
+                pidFile = spawn(configReader.readConfig(COMMAND, "R"), port);
+            }
+        }
+        control = connect(host, port);
+        if (pidFile != null) {
+            serverPid = readPid(pidFile);
+        }
+        idleWorkers = new ArrayBlockingQueue<Worker>(size);
+        for (int i = 0; i < size; i++) {
+            Worker worker = new Worker(i);
+            worker.connect();
+            workers.add(worker);
+            idleWorkers.add(worker);
+        }
+        log.info("Connected to " + size + " Rserve workers at " + host + ":" + port);
+    }
+
+    @Override
+    public REXP parse(String script) throws REngineException {
+        String symbol = ".siddhi.script." + ids.incrementAndGet();
+        // Parse the script up front on every worker, so that batches only refer to the parsed expression
+        define(symbol, ".siddhi.source", new REXPString(script), "{ " + symbol + " <- parse(text = .siddhi.source); " +
+                "rm(.siddhi.source); NULL }");
+        return new REXPJavaReference(symbol);
+    }
+
+    @Override
+    public REXP compile(String script) throws REngineException {
+        String symbol = ".siddhi.script." + ids.incrementAndGet();
+        // Byte code cannot be sent over QAP, hence only the failure of the compilation is reported back
+        define(symbol, ".siddhi.source", new REXPString(script), "{ " + symbol + " <- " +
+                RGlue.compileScript(".siddhi.source") + "; rm(.siddhi.source); NULL }");
+        return new REXPJavaReference(symbol);
+    }
+
+    @Override
+    public void releaseScript(REXP script) {
+        releaseSymbol(symbol(script));
+    }
+
+    @Override
+    public REXP loadModel(String path) throws REngineException {
+        String symbol = ".siddhi.model." + ids.incrementAndGet();
+        // Every worker is a separate R process, hence each of them loads the model once
+        define(symbol, ".siddhi.source", new REXPString(path), "{ " + symbol + " <- " +
+                RGlue.loadModelScript(".siddhi.source") + "; rm(.siddhi.source); NULL }");
+        return new REXPJavaReference(symbol);
+    }
+
+    @Override
+    public long modelSize(REXP model) throws REngineException {
+        Worker worker = workers.get(0);
+        synchronized (worker) {
+            try {
+                return (long) worker.eval("as.numeric(object.size(" + symbol(model) + "))").asDouble();
+            } catch (REXPMismatchException e) {
+                throw new REngineException(null, "Unable to compute the size of the model: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void bindModel(REXP env, String name, REXP model) throws REngineException {
+        String envSymbol = symbol(env);
+        define(envSymbol + "$" + name, null, null, "{ " + RGlue.unlockScript(name, envSymbol) + "; assign('" + name +
+                "', " + symbol(model) + ", envir = " + envSymbol + "); lockBinding('" + name + "', " + envSymbol +
+                "); NULL }");
+    }
+
+    @Override
+    public REXP publishModel(REXP exported) throws REngineException {
+        String symbol = ".siddhi.model." + ids.incrementAndGet();
+        define(symbol, RGlue.EXPORTED, exported, "{ " + symbol + " <- unserialize(" + RGlue.EXPORTED + "); rm(" +
+                RGlue.EXPORTED + "); NULL }");
+        return new REXPJavaReference(symbol);
+    }
+
+    @Override
+    public void releaseModel(REXP model) {
+        releaseSymbol(symbol(model));
+    }
+
+    @Override
+    public REXP newEnvironment() throws REngineException {
+        String symbol = ".siddhi.env." + ids.incrementAndGet();
+        define(symbol, null, null, "{ " + symbol + " <- new.env(parent = globalenv()); NULL }");
+        return new REXPJavaReference(symbol);
+    }
+
+    @Override
+    public void assign(String symbol, REXP value, REXP env) throws REngineException {
+        // The assigned value is the initial one of the variable, a new worker starts from it as well
+        define(symbol(env) + "$" + symbol, ".siddhi.value", value, "{ assign('" + symbol + "', .siddhi.value, " +
+                "envir = " + symbol(env) + "); rm(.siddhi.value); NULL }");
+    }
+
+    @Override
+    public REXP eval(REXP expression, REXP env, boolean resolve) throws REngineException {
+        Worker worker = borrow();
+        try {
+            synchronized (worker) {
+                return worker.eval("eval(" + symbol(expression) + ", " + symbol(env) + ")");
+            }
+        } finally {
+            idleWorkers.offer(worker);
+        }
+    }
+
+    @Override
+    public REXP evaluate(REXP env, String[] names, REXP[] values, REXP script, REXP outputs)
+            throws REngineException {
+        Worker worker = borrow();
+        try {
+            synchronized (worker) {
+                return evaluate(worker, env, names, values, script, outputs);
+            }
+        } finally {
+            idleWorkers.offer(worker);
+        }
+    }
+
+    @Override
+    public REXP evaluate(int worker, REXP env, String[] names, REXP[] values, REXP script, REXP outputs)
+            throws REngineException {
+        Worker pinned = workers.get(worker);
+        synchronized (pinned) {
+            return evaluate(pinned, env, names, values, script, outputs);
+        }
+    }
+
+    private REXP evaluate(Worker worker, REXP env, String[] names, REXP[] values, REXP script, REXP outputs)
+            throws REngineException {
+        String envSymbol = symbol(env);
+        // Ship all the inputs as one list and run the whole batch in a single round trip
+        worker.assign(".siddhi.input", new REXPGenericVector(new RList(values, names)));
+        worker.start(env);
+        try {
+            return worker.eval("{ list2env(.siddhi.input, envir = " + envSymbol + "); rm(.siddhi.input); " +
+                    "eval(" + symbol(script) + ", " + envSymbol + "); eval(" + symbol(outputs) + ", " + envSymbol +
+                    ") }");
+        } finally {
+            worker.finish();
+        }
+    }
+
+    @Override
+    public REXP evaluateGroups(int worker, REXP env, String[] names, REXP[] values, int[] groups, REXP script,
+                               REXP outputs) throws REngineException {
+        Worker pinned = workers.get(worker);
+        String envSymbol = symbol(env);
+        REXP[] inputs = new REXP[values.length + 2];
+        String[] inputNames = new String[names.length + 2];
+        System.arraycopy(values, 0, inputs, 0, values.length);
+        System.arraycopy(names, 0, inputNames, 0, names.length);
+        inputs[values.length] = new REXPString(names);
+        inputNames[names.length] = RGlue.NAMES;
+        inputs[values.length + 1] = new REXPInteger(groups);
+        inputNames[names.length + 1] = RGlue.GROUP;
+        synchronized (pinned) {
+            // All the groups are evaluated by one round trip, just like a plain batch
+            pinned.assign(".siddhi.input", new REXPGenericVector(new RList(inputs, inputNames)));
+            pinned.start(env);
+            try {
+                return pinned.eval("{ list2env(.siddhi.input, envir = " + envSymbol + "); rm(.siddhi.input); " +
+                        "local(" + RGlue.groupScript(symbol(script), symbol(outputs)) + ", envir = " + envSymbol +
+                        ") }");
+            } finally {
+                pinned.finish();
+            }
+        }
+    }
+
+    /**
+     * Rserve cannot interrupt an evaluation in progress, hence the workers evaluating in the environment are
+     * disconnected instead: their evaluations fail right away and each of them is replaced by a new R process on
+     * its next use. See {@link Worker#connect()}.
+     */
+    @Override
+    public void interrupt(REXP env) {
+        for (Worker worker : workers) {
+            worker.abort(env);
+        }
+    }
+
+    @Override
+    public long resetEnvironment(REXP env) throws REngineException {
+        long size = 0;
+        for (Worker worker : workers) {
+            synchronized (worker) {
+                try {
+                    size += (long) worker.eval(RGlue.resetScript(symbol(env))).asDouble();
+                } catch (REXPMismatchException e) {
+                    throw new REngineException(null, "Unable to reset the R environment on Rserve worker " +
+                            worker.index + ": " + e.getMessage());
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public REXP saveEnvironment(int worker, REXP env, String[] excluded, boolean full) throws REngineException {
+        Worker pinned = workers.get(worker);
+        synchronized (pinned) {
+            pinned.assign(".siddhi.value", new REXPString(excluded));
+            pinned.voidEval("assign('" + RGlue.EXCLUDED + "', .siddhi.value, envir = " + symbol(env) + ")");
+            return pinned.eval(RGlue.saveScript(symbol(env), full));
+        }
+    }
+
+    @Override
+    public void restoreEnvironment(int worker, REXP env, REXP saved) throws REngineException {
+        Worker pinned = workers.get(worker);
+        synchronized (pinned) {
+            pinned.assign(".siddhi.value", saved);
+            pinned.voidEval("assign('" + RGlue.RESTORED + "', .siddhi.value, envir = " + symbol(env) + ")");
+            pinned.eval(RGlue.restoreScript(symbol(env)));
+        }
+    }
+
+    @Override
+    public void collectGarbage() throws REngineException {
+        for (Worker worker : workers) {
+            synchronized (worker) {
+                worker.voidEval("invisible(gc())");
+            }
+        }
+    }
+
+    @Override
+    public void releaseEnvironment(REXP env) {
+        releaseSymbol(symbol(env));
+    }
+
+    private void releaseSymbol(String symbol) {
+        synchronized (definitions) {
+            definitions.keySet().removeIf(key -> key.equals(symbol) || key.startsWith(symbol + "$"));
+        }
+        for (Worker worker : workers) {
+            synchronized (worker) {
+                try {
+                    worker.voidEval("rm(" + symbol + ")");
+                } catch (REngineException e) {
+                    log.warn("Unable to remove " + symbol + " from Rserve worker " + worker.index, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        for (Worker worker : workers) {
+            synchronized (worker) {
+                worker.close();
+            }
+        }
+        workers.clear();
+        if (control != null) {
+            // Only a server started by this backend is stopped, a server run by someone else may have other clients.
+            // The worker processes forked by the server exit with their connections either way.
+            if (serverPid > 0) {
+                try {
+                    control.voidEval("tools::pskill(" + serverPid + ")");
+                } catch (RserveException e) {
+                    log.debug("Rserve server did not stop cleanly", e);
+                }
+                serverPid = 0;
+            }
+            control.close();
+            control = null;
+        }
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * Records a definition and runs it on every worker, so that workers which are replaced later run it as well.
+     * A definition of the same key replaces the former one, and moves after the definitions it may refer to.
+     *
+     * @param key        symbol defined, or environment symbol and variable name joined by '$'
+     * @param name       variable assigned before the expression is evaluated, if any
+     * @param value      value of the variable
+     * @param expression expression which sets up the symbol
+     */
+    private void define(String key, String name, REXP value, String expression) throws REngineException {
+        Definition definition = new Definition(name, value, expression);
+        // Recorded first, so that a worker replaced meanwhile gets it either way
+        synchronized (definitions) {
+            definitions.remove(key);
+            definitions.put(key, definition);
+        }
+        try {
+            for (Worker worker : workers) {
+                synchronized (worker) {
+                    worker.run(definition);
+                }
+            }
+        } catch (REngineException e) {
+            synchronized (definitions) {
+                definitions.remove(key, definition);
+            }
+            throw e;
+        }
+    }
+
+    private Worker borrow() throws REngineException {
+        try {
+            return idleWorkers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new REngineException(null, "Interrupted while waiting for a free Rserve worker");
+        }
+    }
+
+    private static String symbol(REXP handle) {
+        return (String) ((REXPJavaReference) handle).getObject();
+    }
+
+    /**
+     * Starts an Rserve server, which writes its process id to the returned file. The launched process cannot tell
+     * it, as Rserve daemonizes itself.
+     */
+    private static Path spawn(String command, int port) throws REngineException {
+        try {
+            Path pidFile = Files.createTempFile("siddhi-rserve-", ".pid");
+            Files.delete(pidFile);
+            // The launcher returns as soon as the server runs in the background
+            Process process = new ProcessBuilder(command, "CMD", "Rserve", "--no-save", "--slave", "--RS-port",
+                    String.valueOf(port), "--RS-pidfile", pidFile.toString()).redirectErrorStream(true).start();
+            process.waitFor();
+            return pidFile;
+        } catch (IOException e) {
+            throw new REngineException(null, "Unable to start Rserve with '" + command + "': " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new REngineException(null, "Interrupted while starting Rserve");
+        }
+    }
+
+    /**
+     * Reads the process id of a spawned server, waiting for the server to write it.
+     */
+    private static int readPid(Path pidFile) throws REngineException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        try {
+            while (true) {
+                String pid = Files.exists(pidFile) ?
+                        new String(Files.readAllBytes(pidFile), StandardCharsets.US_ASCII).trim() : "";
+                if (!pid.isEmpty()) {
+                    return Integer.parseInt(pid);
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new REngineException(null, "Rserve did not write its process id to " + pidFile);
+                }
+                Thread.sleep(100);
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new REngineException(null, "Unable to read the process id of the Rserve server from " + pidFile +
+                    ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new REngineException(null, "Interrupted while waiting for the process id of the Rserve server");
+        } finally {
+            try {
+                Files.deleteIfExists(pidFile);
+            } catch (IOException e) {
+                log.debug("Unable to delete " + pidFile, e);
+            }
+        }
+    }
+
+    private static boolean isListening(String host, int port) {
+        try {
+            new RConnection(host, port).close();
+            return true;
+        } catch (RserveException e) {
+            return false;
+        }
+    }
+
+    private static RConnection connect(String host, int port) throws REngineException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            try {
+                return new RConnection(host, port);
+            } catch (RserveException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new REngineException(null, "Unable to connect to Rserve at " + host + ":" + port + ": " +
+                            e.getMessage());
+                }
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new REngineException(null, "Interrupted while connecting to Rserve");
+                }
+            }
+        }
+    }
+
+    /**
+     * Statement which sets up a symbol on a worker.
+     */
+    private static class Definition {
+        final String name;
+        final REXP value;
+        final String expression;
+
+        Definition(String name, REXP value, String expression) {
+            this.name = name;
+            this.value = value;
+            this.expression = expression;
+        }
+    }
+
+    /**
+     * Connection to one R process of the pool. Callers hold the lock of the worker while they use it.
+     */
+    class Worker {
+        final int index;
+        private RConnection connection;
+        private int pid;
+        // Whether the connection was closed by an interrupt, the worker then connects again on its next use
+        private volatile boolean aborted;
+        /**
+         * Environment of the evaluation in progress, or null if the worker is idle. Guarded by {@link #state}.
+         */
+        private REXP running;
+        private final Object state = new Object();
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Connects to a new R process and sets up the scripts, models and environments defined so far. Variables
+         * of the environments other than their initial values are not carried over from a former process.
+         */
+        void connect() throws REngineException {
+            connection = RserveBackend.connect(host, port);
+            aborted = false;
+            try {
+                pid = eval("Sys.getpid()").asInteger();
+            } catch (REXPMismatchException e) {
+                throw new REngineException(null, "Unable to get the process id of Rserve worker " + index);
+            }
+            List<Definition> current;
+            synchronized (definitions) {
+                current = new ArrayList<Definition>(definitions.values());
+            }
+            for (Definition definition : current) {
+                run(definition);
+            }
+        }
+
+        /**
+         * Replaces the process of an aborted worker. The former process may still be evaluating, it is killed
+         * as nothing reads its results any more.
+         */
+        private void reconnect() throws REngineException {
+            int former = pid;
+            log.warn("Replacing Rserve worker " + index + " after an interrupted evaluation");
+            synchronized (RserveBackend.this) {
+                if (control != null) {
+                    try {
+                        control.voidEval("tools::pskill(" + former + ", tools::SIGKILL)");
+                    } catch (RserveException e) {
+                        log.debug("Unable to stop the former process of Rserve worker " + index, e);
+                    }
+                }
+            }
+            connect();
+        }
+
+        void start(REXP env) {
+            synchronized (state) {
+                running = env;
+            }
+        }
+
+        void finish() {
+            synchronized (state) {
+                running = null;
+            }
+        }
+
+        /**
+         * Closes the connection if the worker evaluates in the given environment. The evaluation then fails.
+         */
+        void abort(REXP env) {
+            synchronized (state) {
+                if (running == env && env != null) {
+                    aborted = true;
+                    connection.close();
+                }
+            }
+        }
+
+        void run(Definition definition) throws REngineException {
+            if (definition.name != null) {
+                assign(definition.name, definition.value);
+            }
+            eval(definition.expression);
+        }
+
+        void assign(String symbol, REXP value) throws REngineException {
+            if (aborted) {
+                reconnect();
+            }
+            connection.assign(symbol, value);
+        }
+
+        REXP eval(String expression) throws REngineException {
+            if (aborted) {
+                reconnect();
+            }
+            REXP result = connection.eval("try(" + expression + ", silent = TRUE)");
+            if (result.inherits("try-error")) {
+                String message;
+                try {
+                    message = result.asString().trim();
+                } catch (REXPMismatchException e) {
+                    message = "unknown error";
+                }
+                throw new REngineException(null, "Rserve worker " + index + " failed to evaluate: " + message);
+            }
+            return result;
+        }
+
+        void voidEval(String expression) throws REngineException {
+            if (aborted) {
+                reconnect();
+            }
+            connection.voidEval(expression);
+        }
+
+        void close() {
+            connection.close();
+        }
+    }
+}
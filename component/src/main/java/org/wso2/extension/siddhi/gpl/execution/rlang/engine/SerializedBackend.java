@@ -0,0 +1,531 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.apache.log4j.Logger;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.REngineException;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backend which confines every call of the wrapped backend to a single executor thread. Processors hand their
+ * requests over through a bounded queue, which the executor drains as a whole on each iteration of its loop, so a
+ * burst of requests from many queries costs one hand-off instead of one lock acquisition per call. Batches of the
+ * same environment which ask to be coalesced and are found queued together are merged into one evaluation. The
+ * workers of the wrapped backend are kept, though their batches are evaluated one at a time.
+ */
+public class SerializedBackend implements RBackend {
+
+    public static final String QUEUE_SIZE = "executor.queue.size";
+
+    private static final Logger log = Logger.getLogger(SerializedBackend.class);
+    private static final long OFFER_INTERVAL = 100;
+
+    private final RBackend backend;
+    private BlockingQueue<Task> queue;
+    private Thread executor;
+    private volatile boolean running;
+    private volatile Task current;
+
+    public SerializedBackend(RBackend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public void init(final ConfigReader configReader) throws REngineException {
+        queue = new ArrayBlockingQueue<Task>(Integer.parseInt(configReader.readConfig(QUEUE_SIZE, "1024")));
+        running = true;
+        executor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "Siddhi-R-executor");
+        executor.setDaemon(true);
+        executor.start();
+        callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                backend.init(configReader);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public REXP parse(final String script) throws REngineException {
+        return callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                return backend.parse(script);
+            }
+        });
+    }
+
+    @Override
+    public REXP compile(final String script) throws REngineException {
+        return callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                return backend.compile(script);
+            }
+        });
+    }
+
+    @Override
+    public void releaseScript(final REXP script) {
+        try {
+            call(new Task() {
+                @Override
+                REXP run() {
+                    backend.releaseScript(script);
+                    return null;
+                }
+            });
+        } catch (REngineException | REXPMismatchException e) {
+            log.warn("Unable to release the R script", e);
+        }
+    }
+
+    @Override
+    public REXP loadModel(final String path) throws REngineException {
+        return callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                return backend.loadModel(path);
+            }
+        });
+    }
+
+    @Override
+    public long modelSize(final REXP model) throws REngineException {
+        final long[] size = new long[1];
+        callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                size[0] = backend.modelSize(model);
+                return null;
+            }
+        });
+        return size[0];
+    }
+
+    @Override
+    public void bindModel(final REXP env, final String name, final REXP model) throws REngineException {
+        callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                backend.bindModel(env, name, model);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public String exportScript(String variable) {
+        return backend.exportScript(variable);
+    }
+
+    @Override
+    public REXP publishModel(final REXP exported) throws REngineException {
+        return callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                return backend.publishModel(exported);
+            }
+        });
+    }
+
+    @Override
+    public void releaseModel(final REXP model) {
+        try {
+            call(new Task() {
+                @Override
+                REXP run() {
+                    backend.releaseModel(model);
+                    return null;
+                }
+            });
+        } catch (REngineException | REXPMismatchException e) {
+            log.warn("Unable to release the R model", e);
+        }
+    }
+
+    @Override
+    public REXP newEnvironment() throws REngineException {
+        return callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                return backend.newEnvironment();
+            }
+        });
+    }
+
+    @Override
+    public void assign(final String symbol, final REXP value, final REXP env) throws REngineException,
+            REXPMismatchException {
+        call(new Task() {
+            @Override
+            REXP run() throws REngineException, REXPMismatchException {
+                backend.assign(symbol, value, env);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public REXP eval(final REXP expression, final REXP env, final boolean resolve) throws REngineException,
+            REXPMismatchException {
+        return call(new Task() {
+            @Override
+            REXP run() throws REngineException, REXPMismatchException {
+                return backend.eval(expression, env, resolve);
+            }
+        });
+    }
+
+    @Override
+    public REXP evaluate(REXP env, String[] names, REXP[] values, REXP script, REXP outputs)
+            throws REngineException, REXPMismatchException {
+        return evaluate(env, names, values, script, outputs, false);
+    }
+
+    @Override
+    public REXP evaluate(REXP env, String[] names, REXP[] values, REXP script, REXP outputs, boolean coalesce)
+            throws REngineException, REXPMismatchException {
+        return call(new Evaluation(env, names, values, script, outputs, coalesce));
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return backend.getWorkerCount();
+    }
+
+    @Override
+    public REXP evaluate(final int worker, final REXP env, final String[] names, final REXP[] values,
+                         final REXP script, final REXP outputs) throws REngineException, REXPMismatchException {
+        // The queue is drained in order, hence the batches of each worker keep their order as well
+        return call(new Task(env) {
+            @Override
+            REXP run() throws REngineException, REXPMismatchException {
+                return backend.evaluate(worker, env, names, values, script, outputs);
+            }
+        });
+    }
+
+    @Override
+    public REXP evaluateGroups(final int worker, final REXP env, final String[] names, final REXP[] values,
+                               final int[] groups, final REXP script, final REXP outputs)
+            throws REngineException, REXPMismatchException {
+        return call(new Task(env) {
+            @Override
+            REXP run() throws REngineException, REXPMismatchException {
+                return backend.evaluateGroups(worker, env, names, values, groups, script, outputs);
+            }
+        });
+    }
+
+    @Override
+    public void interrupt(REXP env) {
+        // Only the task running on the executor can be interrupted, queued ones run once it is done
+        Task task = current;
+        if (task != null && task.env == env) {
+            backend.interrupt(env);
+        }
+    }
+
+    @Override
+    public long resetEnvironment(final REXP env) throws REngineException {
+        final long[] size = new long[1];
+        callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                size[0] = backend.resetEnvironment(env);
+                return null;
+            }
+        });
+        return size[0];
+    }
+
+    @Override
+    public REXP saveEnvironment(final int worker, final REXP env, final String[] excluded, final boolean full)
+            throws REngineException {
+        return callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                return backend.saveEnvironment(worker, env, excluded, full);
+            }
+        });
+    }
+
+    @Override
+    public void restoreEnvironment(final int worker, final REXP env, final REXP saved) throws REngineException {
+        callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                backend.restoreEnvironment(worker, env, saved);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void collectGarbage() throws REngineException {
+        callEngine(new Task() {
+            @Override
+            REXP run() throws REngineException {
+                backend.collectGarbage();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void releaseEnvironment(final REXP env) {
+        try {
+            call(new Task() {
+                @Override
+                REXP run() {
+                    backend.releaseEnvironment(env);
+                    return null;
+                }
+            });
+        } catch (REngineException | REXPMismatchException e) {
+            log.warn("Unable to release the R environment", e);
+        }
+    }
+
+    @Override
+    public void release() {
+        try {
+            call(new Task() {
+                @Override
+                REXP run() {
+                    backend.release();
+                    running = false;
+                    return null;
+                }
+            });
+            executor.join();
+        } catch (REngineException | REXPMismatchException e) {
+            log.warn("Unable to release the R engine", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private REXP callEngine(Task task) throws REngineException {
+        try {
+            return call(task);
+        } catch (REXPMismatchException e) {
+            throw new REngineException(null, "Mismatch in the result of the R executor: " + e.getMessage());
+        }
+    }
+
+    private REXP call(Task task) throws REngineException, REXPMismatchException {
+        if (!running) {
+            throw new REngineException(null, "The R executor has been stopped");
+        }
+        try {
+            // A full queue is waited on only while the executor runs, it is no longer drained once it stopped
+            while (!queue.offer(task, OFFER_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (!running) {
+                    throw new REngineException(null, "The R executor has been stopped");
+                }
+            }
+            if (!running) {
+                // The executor may have stopped after the check above, in which case it never takes the task
+                task.result.completeExceptionally(new REngineException(null, "The R executor has been stopped"));
+            }
+            return task.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new REngineException(null, "Interrupted while waiting for the R executor");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof REngineException) {
+                throw (REngineException) e.getCause();
+            } else if (e.getCause() instanceof REXPMismatchException) {
+                throw (REXPMismatchException) e.getCause();
+            }
+            throw new REngineException(null, "R executor failed: " + e.getCause());
+        }
+    }
+
+    private void drain() {
+        List<Task> tasks = new ArrayList<Task>();
+        while (running) {
+            try {
+                tasks.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            // Pick up everything the producers queued meanwhile, and serve it in one go
+            queue.drainTo(tasks);
+            coalesce(tasks);
+            for (Task task : tasks) {
+                if (task.result.isDone()) {
+                    continue;
+                }
+                current = task;
+                try {
+                    task.result.complete(task.run());
+                } catch (Throwable t) {
+                    task.result.completeExceptionally(t);
+                } finally {
+                    current = null;
+                }
+            }
+            tasks.clear();
+        }
+        running = false;
+        // Requests queued meanwhile are failed, so that their callers do not wait for ever
+        queue.drainTo(tasks);
+        for (Task task : tasks) {
+            task.result.completeExceptionally(new REngineException(null, "The R executor has been stopped"));
+        }
+    }
+
+    /**
+     * Merges the inputs of the coalescing evaluations of each environment into the last of them, and completes the
+     * others without a result.
+     */
+    private static void coalesce(List<Task> tasks) {
+        Map<REXP, Evaluation> last = null;
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            if (!(tasks.get(i) instanceof Evaluation) || !((Evaluation) tasks.get(i)).coalesce) {
+                continue;
+            }
+            Evaluation evaluation = (Evaluation) tasks.get(i);
+            if (last == null) {
+                last = new IdentityHashMap<REXP, Evaluation>();
+            }
+            Evaluation target = last.get(evaluation.env);
+            if (target == null) {
+                last.put(evaluation.env, evaluation);
+                continue;
+            }
+            try {
+                // The target only takes the merged inputs once every one of them could be merged
+                REXP[] merged = new REXP[target.values.length];
+                for (int j = 0; j < merged.length; j++) {
+                    merged[j] = concat(evaluation.values[j], target.values[j]);
+                }
+                target.values = merged;
+                evaluation.result.complete(null);
+            } catch (REXPMismatchException e) {
+                // Inputs which cannot be merged are simply evaluated on their own
+                log.debug("Unable to coalesce R evaluations", e);
+            }
+        }
+    }
+
+    private static REXP concat(REXP first, REXP second) throws REXPMismatchException {
+        if (first instanceof REXPString) {
+            return new REXPString(concat(first.asStrings(), second.asStrings()));
+        } else if (first instanceof REXPLogical) {
+            byte[] a = ((REXPLogical) first).asBytes();
+            byte[] b = ((REXPLogical) second).asBytes();
+            byte[] merged = new byte[a.length + b.length];
+            System.arraycopy(a, 0, merged, 0, a.length);
+            System.arraycopy(b, 0, merged, a.length, b.length);
+            return new REXPLogical(merged);
+        } else if (first instanceof REXPInteger) {
+            int[] a = first.asIntegers();
+            int[] b = second.asIntegers();
+            int[] merged = new int[a.length + b.length];
+            System.arraycopy(a, 0, merged, 0, a.length);
+            System.arraycopy(b, 0, merged, a.length, b.length);
+            return new REXPInteger(merged);
+        } else if (first instanceof REXPDouble) {
+            double[] a = first.asDoubles();
+            double[] b = second.asDoubles();
+            double[] merged = new double[a.length + b.length];
+            System.arraycopy(a, 0, merged, 0, a.length);
+            System.arraycopy(b, 0, merged, a.length, b.length);
+            return new REXPDouble(merged);
+        }
+        throw new REXPMismatchException(first, "concatenation");
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        String[] merged = new String[a.length + b.length];
+        System.arraycopy(a, 0, merged, 0, a.length);
+        System.arraycopy(b, 0, merged, a.length, b.length);
+        return merged;
+    }
+
+    /**
+     * Call of the wrapped backend, run on the executor thread.
+     */
+    private abstract static class Task {
+        final CompletableFuture<REXP> result = new CompletableFuture<REXP>();
+        /**
+         * Environment the task evaluates in, or null if it does not evaluate a script.
+         */
+        final REXP env;
+
+        Task() {
+            this(null);
+        }
+
+        Task(REXP env) {
+            this.env = env;
+        }
+
+        abstract REXP run() throws REngineException, REXPMismatchException;
+    }
+
+    private class Evaluation extends Task {
+        private final String[] names;
+        private REXP[] values;
+        private final REXP script;
+        private final REXP outputs;
+        private final boolean coalesce;
+
+        Evaluation(REXP env, String[] names, REXP[] values, REXP script, REXP outputs, boolean coalesce) {
+            super(env);
+            this.names = names;
+            this.values = values;
+            this.script = script;
+            this.outputs = outputs;
+            this.coalesce = coalesce;
+        }
+
+        @Override
+        REXP run() throws REngineException, REXPMismatchException {
+            return backend.evaluate(env, names, values, script, outputs);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPFactor;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPNull;
+import org.rosuda.REngine.REXPRaw;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.RList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary form of the values of the Java engine, which stands in for R's {@code serialize()} when its environments
+ * are saved. Each value is written as a type tag followed by its length and elements; lists also carry their names.
+ */
+final class VectorCodec {
+
+    private static final byte NULL = 0;
+    private static final byte DOUBLE = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LOGICAL = 3;
+    private static final byte STRING = 4;
+    private static final byte FACTOR = 5;
+    private static final byte RAW = 6;
+    private static final byte LIST = 7;
+
+    private VectorCodec() {
+
+    }
+
+    /**
+     * Encodes a value.
+     *
+     * @param value value of the Java engine
+     * @return binary form of the value
+     * @throws REXPMismatchException if the value is of a type which cannot be encoded
+     */
+    static byte[] encode(REXP value) throws REXPMismatchException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(out, value);
+        } catch (IOException e) {
+            // Writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a value encoded by {@link #encode(REXP)}.
+     *
+     * @param bytes binary form of the value
+     * @return the value
+     * @throws IOException if the bytes are not a valid encoding
+     */
+    static REXP decode(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return read(in);
+        }
+    }
+
+    private static void write(DataOutputStream out, REXP value) throws IOException, REXPMismatchException {
+        if (value == null || value.isNull()) {
+            out.writeByte(NULL);
+        } else if (value instanceof REXPDouble) {
+            double[] doubles = value.asDoubles();
+            out.writeByte(DOUBLE);
+            out.writeInt(doubles.length);
+            for (double d : doubles) {
+                // Raw bits keep NA apart from NaN
+                out.writeLong(Double.doubleToRawLongBits(d));
+            }
+        } else if (value instanceof REXPFactor) {
+            out.writeByte(FACTOR);
+            writeInts(out, value.asIntegers());
+            writeStrings(out, ((REXPFactor) value).asFactor().levels());
+        } else if (value instanceof REXPInteger) {
+            out.writeByte(INTEGER);
+            writeInts(out, value.asIntegers());
+        } else if (value instanceof REXPLogical) {
+            byte[] logicals = ((REXPLogical) value).asBytes();
+            out.writeByte(LOGICAL);
+            out.writeInt(logicals.length);
+            out.write(logicals);
+        } else if (value instanceof REXPString) {
+            out.writeByte(STRING);
+            writeStrings(out, value.asStrings());
+        } else if (value instanceof REXPRaw) {
+            byte[] raw = value.asBytes();
+            out.writeByte(RAW);
+            out.writeInt(raw.length);
+            out.write(raw);
+        } else if (value instanceof REXPGenericVector) {
+            RList list = value.asList();
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            out.writeBoolean(list.isNamed());
+            if (list.isNamed()) {
+                writeStrings(out, list.keys());
+            }
+            for (int i = 0; i < list.size(); i++) {
+                write(out, list.at(i));
+            }
+        } else {
+            throw new REXPMismatchException(value, "serialize");
+        }
+    }
+
+    private static REXP read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return new REXPNull();
+            case DOUBLE:
+                double[] doubles = new double[in.readInt()];
+                for (int i = 0; i < doubles.length; i++) {
+                    doubles[i] = Double.longBitsToDouble(in.readLong());
+                }
+                return new REXPDouble(doubles);
+            case INTEGER:
+                return new REXPInteger(readInts(in));
+            case LOGICAL:
+                byte[] logicals = new byte[in.readInt()];
+                in.readFully(logicals);
+                return new REXPLogical(logicals);
+            case STRING:
+                return new REXPString(readStrings(in));
+            case FACTOR:
+                int[] codes = readInts(in);
+                return new REXPFactor(codes, readStrings(in));
+            case RAW:
+                byte[] raw = new byte[in.readInt()];
+                in.readFully(raw);
+                return new REXPRaw(raw);
+            case LIST:
+                REXP[] values = new REXP[in.readInt()];
+                String[] names = in.readBoolean() ? readStrings(in) : null;
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = read(in);
+                }
+                return new REXPGenericVector(names == null ? new RList(values) : new RList(values, names));
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        out.writeInt(ints.length);
+        for (int i : ints) {
+            out.writeInt(i);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] ints = new int[in.readInt()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = in.readInt();
+        }
+        return ints;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String s : strings) {
+            if (s == null) {
+                // NA
+                out.writeInt(-1);
+            } else {
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            int length = in.readInt();
+            if (length >= 0) {
+                byte[] utf8 = new byte[length];
+                in.readFully(utf8);
+                strings[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,1085 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPFactor;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPJavaReference;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPNull;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.RList;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Functions and operators of the {@link Interpreter}. Numeric reductions accumulate in the extended precision of
+ * {@link LongDouble}, the way R does, so that they return the same doubles as R.
+ */
+public final class Builtins {
+
+    private static final Map<String, Function> FUNCTIONS = new HashMap<String, Function>();
+    private static final double[] QUARTILES = {0, 0.25, 0.5, 0.75, 1};
+    // Distance to a whole number below which R takes the index of a quantile as that number
+    private static final double QUANTILE_FUZZ = 4 * Math.ulp(1.0);
+
+    static {
+        for (String operator : new String[]{"+", "-", "*", "/", "^", "%%", "%/%"}) {
+            FUNCTIONS.put(operator, (args, names) -> args.length == 1 ? unary(operator, args[0]) :
+                    arithmetic(operator, args[0], args[1]));
+        }
+        for (String operator : new String[]{"==", "!=", "<", ">", "<=", ">="}) {
+            FUNCTIONS.put(operator, (args, names) -> compare(operator, args[0], args[1]));
+        }
+        FUNCTIONS.put("!", (args, names) -> {
+            byte[] values = Vectors.logicals(args[0]);
+            byte[] result = new byte[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = REXPLogical.isNA(values[i]) ? REXPLogical.NA :
+                        (values[i] == REXPLogical.TRUE ? REXPLogical.FALSE : REXPLogical.TRUE);
+            }
+            return new REXPLogical(result);
+        });
+        FUNCTIONS.put("&", (args, names) -> logical(true, args[0], args[1]));
+        FUNCTIONS.put("|", (args, names) -> logical(false, args[0], args[1]));
+        FUNCTIONS.put("&&", (args, names) -> logical(true, first(args[0]), first(args[1])));
+        FUNCTIONS.put("||", (args, names) -> logical(false, first(args[0]), first(args[1])));
+        FUNCTIONS.put(":", (args, names) -> {
+            double from = Vectors.doubles(args[0])[0];
+            double to = Vectors.doubles(args[1])[0];
+            int length = (int) Math.floor(Math.abs(to - from) + 1e-10) + 1;
+            double step = from <= to ? 1 : -1;
+            if (from == Math.rint(from) && Math.abs(from) < Integer.MAX_VALUE) {
+                int[] result = new int[length];
+                for (int i = 0; i < length; i++) {
+                    result[i] = (int) (from + i * step);
+                }
+                return new REXPInteger(result);
+            }
+            double[] result = new double[length];
+            for (int i = 0; i < length; i++) {
+                result[i] = from + i * step;
+            }
+            return new REXPDouble(result);
+        });
+        FUNCTIONS.put("[[", (args, names) -> element(args[0], args[1]));
+        FUNCTIONS.put("$", (args, names) -> element(args[0], args[1]));
+        FUNCTIONS.put("[", (args, names) -> args.length < 2 ? args[0] : subset(args[0], args[1]));
+        FUNCTIONS.put("c", Builtins::combine);
+        FUNCTIONS.put("list", (args, names) -> new REXPGenericVector(new RList(args, names(names))));
+        FUNCTIONS.put("length", (args, names) -> new REXPInteger(Vectors.length(args[0])));
+        FUNCTIONS.put("sum", (args, names) -> {
+            REXP values = combine(valueArguments(args, names), null);
+            boolean naRm = naRm(args, names);
+            if (Vectors.typeOf(values) <= Vectors.INTEGER) {
+                long sum = 0;
+                for (int value : Vectors.integers(values)) {
+                    if (REXPInteger.isNA(value)) {
+                        if (!naRm) {
+                            return new REXPInteger(REXPInteger.NA);
+                        }
+                    } else {
+                        sum += value;
+                    }
+                }
+                return new REXPInteger(Math.abs(sum) > Integer.MAX_VALUE ? REXPInteger.NA : (int) sum);
+            }
+            // Like R, each argument is summed on its own and the sums are added as doubles
+            double sum = 0;
+            for (REXP value : valueArguments(args, names)) {
+                sum += sum(numeric(value, naRm));
+            }
+            return new REXPDouble(sum);
+        });
+        FUNCTIONS.put("prod", (args, names) -> {
+            double product = 1;
+            for (double value : numeric(combine(valueArguments(args, names), null), naRm(args, names))) {
+                product *= value;
+            }
+            return new REXPDouble(product);
+        });
+        FUNCTIONS.put("mean", (args, names) -> {
+            double[] values = numeric(args[0], naRm(args, names));
+            return new REXPDouble(Vectors.typeOf(args[0]) <= Vectors.INTEGER ? integerMean(values) : mean(values));
+        });
+        FUNCTIONS.put("var", (args, names) -> new REXPDouble(variance(numeric(args[0], naRm(args, names)))));
+        FUNCTIONS.put("sd", (args, names) ->
+                new REXPDouble(Math.sqrt(variance(numeric(args[0], naRm(args, names))))));
+        FUNCTIONS.put("median", (args, names) -> {
+            double[] values = numeric(args[0], naRm(args, names));
+            if (values.length == 0) {
+                return new REXPDouble(REXPDouble.NA);
+            }
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            int half = sorted.length / 2;
+            return new REXPDouble(sorted.length % 2 == 1 ? sorted[half] :
+                    mean(new double[]{sorted[half - 1], sorted[half]}));
+        });
+        FUNCTIONS.put("quantile", (args, names) -> {
+            REXP probs = argument(args, names, "probs", 1);
+            return new REXPDouble(quantile(numeric(args[0], false), probs == null ? QUARTILES :
+                    Vectors.doubles(probs), naRm(args, names)));
+        });
+        FUNCTIONS.put("min", (args, names) -> extreme(valueArguments(args, names), naRm(args, names), true));
+        FUNCTIONS.put("max", (args, names) -> extreme(valueArguments(args, names), naRm(args, names), false));
+        FUNCTIONS.put("range", (args, names) -> combine(new REXP[]{
+                extreme(valueArguments(args, names), naRm(args, names), true),
+                extreme(valueArguments(args, names), naRm(args, names), false)}, null));
+        FUNCTIONS.put("any", (args, names) -> {
+            boolean na = false;
+            for (byte value : Vectors.logicals(combine(valueArguments(args, names), null))) {
+                if (value == REXPLogical.TRUE) {
+                    return new REXPLogical(true);
+                }
+                na |= REXPLogical.isNA(value);
+            }
+            return na && !naRm(args, names) ? new REXPLogical(REXPLogical.NA) : new REXPLogical(false);
+        });
+        FUNCTIONS.put("all", (args, names) -> {
+            boolean na = false;
+            for (byte value : Vectors.logicals(combine(valueArguments(args, names), null))) {
+                if (value == REXPLogical.FALSE) {
+                    return new REXPLogical(false);
+                }
+                na |= REXPLogical.isNA(value);
+            }
+            return na && !naRm(args, names) ? new REXPLogical(REXPLogical.NA) : new REXPLogical(true);
+        });
+        FUNCTIONS.put("abs", (args, names) -> Vectors.typeOf(args[0]) <= Vectors.INTEGER ?
+                integerMap(args[0], Math::abs) : map(args[0], Math::abs));
+        FUNCTIONS.put("sqrt", (args, names) -> map(args[0], Math::sqrt));
+        FUNCTIONS.put("exp", (args, names) -> map(args[0], Math::exp));
+        FUNCTIONS.put("floor", (args, names) -> map(args[0], Math::floor));
+        FUNCTIONS.put("ceiling", (args, names) -> map(args[0], Math::ceil));
+        FUNCTIONS.put("log", (args, names) -> {
+            if (args.length > 1) {
+                double base = Math.log(Vectors.doubles(args[1])[0]);
+                return map(args[0], value -> Math.log(value) / base);
+            }
+            return map(args[0], Math::log);
+        });
+        FUNCTIONS.put("round", (args, names) -> {
+            int digits = args.length > 1 ? Vectors.integers(args[1])[0] : 0;
+            return map(args[0], value -> Double.isNaN(value) || Double.isInfinite(value) ? value :
+                    new BigDecimal(value).setScale(digits, RoundingMode.HALF_EVEN).doubleValue());
+        });
+        FUNCTIONS.put("cumsum", (args, names) -> {
+            double[] values = Vectors.doubles(args[0]);
+            double[] result = new double[values.length];
+            LongDouble sum = LongDouble.ZERO;
+            for (int i = 0; i < values.length; i++) {
+                sum = sum.add(values[i]);
+                result[i] = sum.toDouble();
+            }
+            return Vectors.typeOf(args[0]) <= Vectors.INTEGER ? Vectors.coerce(new REXPDouble(result),
+                    Vectors.INTEGER) : new REXPDouble(result);
+        });
+        FUNCTIONS.put("rev", (args, names) -> {
+            int length = Vectors.length(args[0]);
+            int[] positions = new int[length];
+            for (int i = 0; i < length; i++) {
+                positions[i] = length - 1 - i;
+            }
+            return Vectors.select(args[0], positions);
+        });
+        FUNCTIONS.put("head", (args, names) -> {
+            int length = Vectors.length(args[0]);
+            int n = args.length > 1 ? Vectors.integers(args[1])[0] : 6;
+            return Vectors.select(args[0], range(0, n < 0 ? Math.max(0, length + n) : Math.min(n, length)));
+        });
+        FUNCTIONS.put("tail", (args, names) -> {
+            int length = Vectors.length(args[0]);
+            int n = args.length > 1 ? Vectors.integers(args[1])[0] : 6;
+            int count = n < 0 ? Math.max(0, length + n) : Math.min(n, length);
+            return Vectors.select(args[0], range(length - count, count));
+        });
+        FUNCTIONS.put("seq_len", (args, names) -> new REXPInteger(sequence(Vectors.integers(args[0])[0])));
+        FUNCTIONS.put("seq_along", (args, names) -> new REXPInteger(sequence(Vectors.length(args[0]))));
+        FUNCTIONS.put("rep", (args, names) -> {
+            int times = args.length > 1 ? Vectors.integers(args[1])[0] : 1;
+            int length = Vectors.length(args[0]);
+            int[] positions = new int[length * times];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i % length;
+            }
+            return Vectors.select(args[0], positions);
+        });
+        FUNCTIONS.put("numeric", (args, names) ->
+                new REXPDouble(new double[args.length > 0 ? Vectors.integers(args[0])[0] : 0]));
+        FUNCTIONS.put("character", (args, names) -> {
+            String[] result = new String[args.length > 0 ? Vectors.integers(args[0])[0] : 0];
+            Arrays.fill(result, "");
+            return new REXPString(result);
+        });
+        FUNCTIONS.put("as.integer", (args, names) -> Vectors.coerce(args[0], Vectors.INTEGER));
+        FUNCTIONS.put("as.numeric", (args, names) -> Vectors.coerce(args[0], Vectors.DOUBLE));
+        FUNCTIONS.put("as.double", (args, names) -> Vectors.coerce(args[0], Vectors.DOUBLE));
+        FUNCTIONS.put("as.character", (args, names) -> Vectors.coerce(args[0], Vectors.STRING));
+        FUNCTIONS.put("as.logical", (args, names) -> Vectors.coerce(args[0], Vectors.LOGICAL));
+        FUNCTIONS.put("is.na", (args, names) -> {
+            if (Vectors.typeOf(args[0]) == Vectors.STRING) {
+                String[] values = Vectors.strings(args[0]);
+                boolean[] result = new boolean[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    result[i] = values[i] == null;
+                }
+                return new REXPLogical(result);
+            }
+            double[] values = Vectors.doubles(args[0]);
+            boolean[] result = new boolean[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = Double.isNaN(values[i]);
+            }
+            return new REXPLogical(result);
+        });
+        FUNCTIONS.put("ifelse", (args, names) -> {
+            byte[] test = Vectors.logicals(args[0]);
+            int type = Math.max(Vectors.typeOf(args[1]), Vectors.typeOf(args[2]));
+            REXP yes = Vectors.coerce(args[1], type);
+            REXP no = Vectors.coerce(args[2], type);
+            REXP[] parts = new REXP[test.length];
+            for (int i = 0; i < test.length; i++) {
+                REXP source = test[i] == REXPLogical.TRUE ? yes : no;
+                parts[i] = REXPLogical.isNA(test[i]) ? Vectors.select(yes, new int[]{-1}) :
+                        Vectors.select(source, new int[]{i % Vectors.length(source)});
+            }
+            return combine(parts, null);
+        });
+        FUNCTIONS.put("which", (args, names) -> {
+            byte[] test = Vectors.logicals(args[0]);
+            int count = 0;
+            int[] result = new int[test.length];
+            for (int i = 0; i < test.length; i++) {
+                if (test[i] == REXPLogical.TRUE) {
+                    result[count++] = i + 1;
+                }
+            }
+            return new REXPInteger(Arrays.copyOf(result, count));
+        });
+        FUNCTIONS.put("unique", (args, names) -> {
+            String[] keys = Vectors.strings(args[0]);
+            Set<String> seen = new LinkedHashSet<String>();
+            int[] positions = new int[keys.length];
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (seen.add(keys[i])) {
+                    positions[count++] = i;
+                }
+            }
+            return Vectors.select(args[0], Arrays.copyOf(positions, count));
+        });
+        FUNCTIONS.put("sort", (args, names) -> {
+            boolean decreasing = flag(args, names, "decreasing");
+            REXP sorted;
+            if (Vectors.typeOf(args[0]) == Vectors.STRING) {
+                String[] values = Vectors.strings(args[0]).clone();
+                Arrays.sort(values);
+                sorted = new REXPString(values);
+            } else {
+                double[] values = Vectors.doubles(args[0]).clone();
+                Arrays.sort(values);
+                sorted = Vectors.coerce(new REXPDouble(values), Vectors.typeOf(args[0]));
+            }
+            return decreasing ? FUNCTIONS.get("rev").apply(new REXP[]{sorted}, new String[1]) : sorted;
+        });
+        FUNCTIONS.put("data.frame", Builtins::dataFrame);
+        FUNCTIONS.put("structure", (args, names) -> {
+            // Only factors are given a class, other attributes are dropped
+            REXP levels = argument(args, names, "levels", -1);
+            REXP type = argument(args, names, "class", -1);
+            if (levels != null && type != null && "factor".equals(Vectors.strings(type)[0])) {
+                return new REXPFactor(Vectors.integers(args[0]), Vectors.strings(levels));
+            }
+            return args[0];
+        });
+        FUNCTIONS.put("nchar", (args, names) -> {
+            String[] values = Vectors.strings(args[0]);
+            int[] result = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = values[i] == null ? 2 : values[i].length();
+            }
+            return new REXPInteger(result);
+        });
+        FUNCTIONS.put("toupper", (args, names) -> stringMap(args[0], String::toUpperCase));
+        FUNCTIONS.put("tolower", (args, names) -> stringMap(args[0], String::toLowerCase));
+        FUNCTIONS.put("paste", (args, names) -> paste(args, names, " "));
+        FUNCTIONS.put("paste0", (args, names) -> paste(args, names, ""));
+        FUNCTIONS.put("is.null", (args, names) -> new REXPLogical(args[0].isNull()));
+        FUNCTIONS.put("identity", (args, names) -> args[0]);
+        FUNCTIONS.put("invisible", (args, names) -> args.length > 0 ? args[0] : new REXPNull());
+        FUNCTIONS.put("file", (args, names) -> {
+            // Binary files are only ever read sequentially, hence they are mapped as a whole
+            String path = Vectors.strings(args[0])[0];
+            try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                return new REXPJavaReference(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IOException e) {
+                throw new ScriptException("cannot open file '" + path + "': " + e.getMessage());
+            }
+        });
+        FUNCTIONS.put("readBin", Builtins::readBin);
+        FUNCTIONS.put("close", (args, names) -> new REXPNull());
+        FUNCTIONS.put("Sys.sleep", (args, names) -> {
+            try {
+                Thread.sleep((long) (Vectors.doubles(args[0])[0] * 1000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ScriptException("interrupted");
+            }
+            return new REXPNull();
+        });
+    }
+
+    private Builtins() {
+
+    }
+
+    static Function get(String name) {
+        return FUNCTIONS.get(name);
+    }
+
+    /**
+     * Names of all the functions and operators known to the interpreter.
+     */
+    public static Set<String> names() {
+        return Collections.unmodifiableSet(FUNCTIONS.keySet());
+    }
+
+    /**
+     * Sums the values in extended precision, like R does.
+     */
+    public static double sum(double[] values) {
+        LongDouble sum = LongDouble.ZERO;
+        for (double value : values) {
+            sum = sum.add(value);
+        }
+        return sum.toDouble();
+    }
+
+    /**
+     * Mean computed the way R does, in extended precision with a second pass correcting the rounding error of the
+     * first one. Terms are divided before they are summed if their sum overflows.
+     */
+    public static double mean(double[] values) {
+        int n = values.length;
+        LongDouble sum = LongDouble.ZERO;
+        for (double value : values) {
+            sum = sum.add(value);
+        }
+        boolean finite = sum.isFinite();
+        if (finite) {
+            sum = sum.divide(n);
+        } else {
+            sum = LongDouble.ZERO;
+            for (double value : values) {
+                sum = sum.add(value / n);
+            }
+        }
+        if (finite && sum.isFinite()) {
+            LongDouble correction = LongDouble.ZERO;
+            for (double value : values) {
+                correction = correction.add(LongDouble.of(value).subtract(sum));
+            }
+            sum = sum.add(correction.divide(n));
+        }
+        return sum.toDouble();
+    }
+
+    /**
+     * Mean of integer values, which R computes in a single pass.
+     */
+    private static double integerMean(double[] values) {
+        LongDouble sum = LongDouble.ZERO;
+        for (double value : values) {
+            sum = sum.add(value);
+        }
+        return sum.divide(values.length).toDouble();
+    }
+
+    /**
+     * Sample variance, with the n - 1 denominator. Like {@code cov()} in R, the mean is rounded to a double and
+     * the squared deviations are summed in extended precision.
+     */
+    public static double variance(double[] values) {
+        int n = values.length;
+        if (n < 2) {
+            return REXPDouble.NA;
+        }
+        for (double value : values) {
+            if (Double.isNaN(value)) {
+                return REXPDouble.NA;
+            }
+        }
+        LongDouble sum = LongDouble.ZERO;
+        for (double value : values) {
+            sum = sum.add(value);
+        }
+        LongDouble mean = sum.divide(n);
+        if (mean.isFinite()) {
+            LongDouble correction = LongDouble.ZERO;
+            for (double value : values) {
+                correction = correction.add(LongDouble.of(value).subtract(mean));
+            }
+            mean = mean.add(correction.divide(n));
+        }
+        LongDouble rounded = LongDouble.of(mean.toDouble());
+        LongDouble squares = LongDouble.ZERO;
+        for (double value : values) {
+            LongDouble deviation = LongDouble.of(value).subtract(rounded);
+            squares = squares.add(deviation.multiply(deviation));
+        }
+        return squares.divide(n - 1).toDouble();
+    }
+
+    /**
+     * Sample quantiles with the default interpolation of R, type 7 of {@code quantile()}. Like R, an index within
+     * a few ulps of a whole number is taken as that number.
+     */
+    public static double[] quantile(double[] values, double[] probs, boolean naRm) throws ScriptException {
+        double[] sorted = new double[values.length];
+        int n = 0;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                sorted[n++] = value;
+            } else if (!naRm) {
+                throw new ScriptException("missing values and NaN's not allowed if 'na.rm' is FALSE");
+            }
+        }
+        sorted = Arrays.copyOf(sorted, n);
+        Arrays.sort(sorted);
+        double[] result = new double[probs.length];
+        for (int i = 0; i < probs.length; i++) {
+            double p = probs[i];
+            if (p < -100 * Math.ulp(1.0) || p > 1 + 100 * Math.ulp(1.0)) {
+                throw new ScriptException("'probs' outside [0,1]");
+            }
+            if (Double.isNaN(p) || n == 0) {
+                result[i] = REXPDouble.NA;
+                continue;
+            }
+            double index = 1 + (n - 1) * Math.max(0, Math.min(1, p));
+            int lo = (int) Math.floor(index + QUANTILE_FUZZ);
+            int hi = (int) Math.ceil(index - QUANTILE_FUZZ);
+            double h = index - lo;
+            result[i] = index > lo && sorted[hi - 1] != sorted[lo - 1] ?
+                    (1 - h) * sorted[lo - 1] + h * sorted[hi - 1] : sorted[lo - 1];
+        }
+        return result;
+    }
+
+    private static REXP unary(String operator, REXP value) throws ScriptException {
+        if (operator.equals("+")) {
+            return value;
+        }
+        if (!operator.equals("-")) {
+            throw new ScriptException("invalid unary operator");
+        }
+        if (Vectors.typeOf(value) <= Vectors.INTEGER) {
+            return integerMap(value, v -> -v);
+        }
+        return map(value, v -> -v);
+    }
+
+    private static REXP arithmetic(String operator, REXP left, REXP right) throws ScriptException {
+        int leftType = Vectors.typeOf(left);
+        int rightType = Vectors.typeOf(right);
+        if (leftType > Vectors.DOUBLE || rightType > Vectors.DOUBLE) {
+            throw new ScriptException("non-numeric argument to binary operator");
+        }
+        int leftLength = Vectors.length(left);
+        int rightLength = Vectors.length(right);
+        int length = leftLength == 0 || rightLength == 0 ? 0 : Math.max(leftLength, rightLength);
+        boolean integer = leftType <= Vectors.INTEGER && rightType <= Vectors.INTEGER &&
+                !operator.equals("/") && !operator.equals("^");
+        if (integer) {
+            int[] a = Vectors.integers(left);
+            int[] b = Vectors.integers(right);
+            int[] result = new int[length];
+            for (int i = 0; i < length; i++) {
+                int x = a[i % leftLength];
+                int y = b[i % rightLength];
+                if (REXPInteger.isNA(x) || REXPInteger.isNA(y)) {
+                    result[i] = REXPInteger.NA;
+                    continue;
+                }
+                long value;
+                switch (operator) {
+                    case "+":
+                        value = (long) x + y;
+                        break;
+                    case "-":
+                        value = (long) x - y;
+                        break;
+                    case "*":
+                        value = (long) x * y;
+                        break;
+                    case "%%":
+                        value = y == 0 ? REXPInteger.NA : Math.floorMod(x, y);
+                        break;
+                    default:
+                        value = y == 0 ? REXPInteger.NA : Math.floorDiv(x, y);
+                }
+                result[i] = Math.abs(value) > Integer.MAX_VALUE ? REXPInteger.NA : (int) value;
+            }
+            return new REXPInteger(result);
+        }
+        double[] a = Vectors.doubles(left);
+        double[] b = Vectors.doubles(right);
+        double[] result = new double[length];
+        for (int i = 0; i < length; i++) {
+            double x = a[i % leftLength];
+            double y = b[i % rightLength];
+            switch (operator) {
+                case "+":
+                    result[i] = x + y;
+                    break;
+                case "-":
+                    result[i] = x - y;
+                    break;
+                case "*":
+                    result[i] = x * y;
+                    break;
+                case "/":
+                    result[i] = x / y;
+                    break;
+                case "^":
+                    result[i] = Math.pow(x, y);
+                    break;
+                case "%%":
+                    result[i] = x - Math.floor(x / y) * y;
+                    break;
+                default:
+                    result[i] = Math.floor(x / y);
+            }
+        }
+        return new REXPDouble(result);
+    }
+
+    private static REXP compare(String operator, REXP left, REXP right) throws ScriptException {
+        int leftLength = Vectors.length(left);
+        int rightLength = Vectors.length(right);
+        int length = leftLength == 0 || rightLength == 0 ? 0 : Math.max(leftLength, rightLength);
+        byte[] result = new byte[length];
+        if (Vectors.typeOf(left) == Vectors.STRING || Vectors.typeOf(right) == Vectors.STRING) {
+            String[] a = Vectors.strings(left);
+            String[] b = Vectors.strings(right);
+            for (int i = 0; i < length; i++) {
+                String x = a[i % leftLength];
+                String y = b[i % rightLength];
+                result[i] = x == null || y == null ? REXPLogical.NA : test(operator, x.compareTo(y));
+            }
+        } else {
+            double[] a = Vectors.doubles(left);
+            double[] b = Vectors.doubles(right);
+            for (int i = 0; i < length; i++) {
+                double x = a[i % leftLength];
+                double y = b[i % rightLength];
+                result[i] = Double.isNaN(x) || Double.isNaN(y) ? REXPLogical.NA : test(operator, Double.compare(x, y));
+            }
+        }
+        return new REXPLogical(result);
+    }
+
+    private static byte test(String operator, int comparison) {
+        boolean result;
+        switch (operator) {
+            case "==":
+                result = comparison == 0;
+                break;
+            case "!=":
+                result = comparison != 0;
+                break;
+            case "<":
+                result = comparison < 0;
+                break;
+            case ">":
+                result = comparison > 0;
+                break;
+            case "<=":
+                result = comparison <= 0;
+                break;
+            default:
+                result = comparison >= 0;
+        }
+        return result ? REXPLogical.TRUE : REXPLogical.FALSE;
+    }
+
+    private static REXP logical(boolean and, REXP left, REXP right) throws ScriptException {
+        byte[] a = Vectors.logicals(left);
+        byte[] b = Vectors.logicals(right);
+        int length = a.length == 0 || b.length == 0 ? 0 : Math.max(a.length, b.length);
+        byte[] result = new byte[length];
+        byte dominant = and ? REXPLogical.FALSE : REXPLogical.TRUE;
+        for (int i = 0; i < length; i++) {
+            byte x = a[i % a.length];
+            byte y = b[i % b.length];
+            if (x == dominant || y == dominant) {
+                result[i] = dominant;
+            } else if (REXPLogical.isNA(x) || REXPLogical.isNA(y)) {
+                result[i] = REXPLogical.NA;
+            } else {
+                result[i] = and ? REXPLogical.TRUE : REXPLogical.FALSE;
+            }
+        }
+        return new REXPLogical(result);
+    }
+
+    private static REXP first(REXP value) throws ScriptException {
+        if (Vectors.length(value) == 0) {
+            throw new ScriptException("invalid 'x' type in 'x && y'");
+        }
+        return Vectors.select(value, new int[]{0});
+    }
+
+    private static REXP element(REXP value, REXP index) throws ScriptException {
+        if (Vectors.typeOf(index) == Vectors.STRING) {
+            RList list = Vectors.list(value);
+            String name = Vectors.strings(index)[0];
+            REXP result = list.at(name);
+            if (result == null) {
+                return new REXPNull();
+            }
+            return result;
+        }
+        int position = Vectors.integers(index)[0] - 1;
+        if (position < 0 || position >= Vectors.length(value)) {
+            throw new ScriptException("subscript out of bounds");
+        }
+        if (Vectors.typeOf(value) == Vectors.LIST) {
+            return Vectors.list(value).at(position);
+        }
+        return Vectors.select(value, new int[]{position});
+    }
+
+    private static REXP subset(REXP value, REXP index) throws ScriptException {
+        int length = Vectors.length(value);
+        if (index instanceof REXPLogical) {
+            byte[] mask = Vectors.logicals(index);
+            int[] positions = new int[Math.max(length, mask.length)];
+            int count = 0;
+            for (int i = 0; i < positions.length; i++) {
+                byte selected = mask[i % mask.length];
+                if (selected == REXPLogical.TRUE) {
+                    positions[count++] = i;
+                } else if (REXPLogical.isNA(selected)) {
+                    positions[count++] = -1;
+                }
+            }
+            return Vectors.select(value, Arrays.copyOf(positions, count));
+        }
+        if (Vectors.typeOf(index) == Vectors.STRING) {
+            RList list = Vectors.list(value);
+            String[] keys = Vectors.strings(index);
+            RList result = new RList();
+            for (String key : keys) {
+                REXP element = list.at(key);
+                result.put(key, element == null ? new REXPNull() : element);
+            }
+            return new REXPGenericVector(result);
+        }
+        int[] indices = Vectors.integers(index);
+        boolean negative = false;
+        for (int i : indices) {
+            negative |= i < 0;
+        }
+        if (negative) {
+            boolean[] excluded = new boolean[length];
+            for (int i : indices) {
+                if (i > 0) {
+                    throw new ScriptException("can't mix positive and negative subscripts");
+                }
+                if (-i <= length && i != 0) {
+                    excluded[-i - 1] = true;
+                }
+            }
+            int[] positions = new int[length];
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                if (!excluded[i]) {
+                    positions[count++] = i;
+                }
+            }
+            return Vectors.select(value, Arrays.copyOf(positions, count));
+        }
+        int[] positions = new int[indices.length];
+        int count = 0;
+        for (int i : indices) {
+            if (i != 0) {
+                positions[count++] = REXPInteger.isNA(i) ? -1 : i - 1;
+            }
+        }
+        return Vectors.select(value, Arrays.copyOf(positions, count));
+    }
+
+    private static REXP combine(REXP[] args, String[] names) throws ScriptException {
+        int type = Vectors.LOGICAL;
+        int length = 0;
+        for (REXP arg : args) {
+            if (!(arg instanceof REXPNull)) {
+                type = Math.max(type, Vectors.typeOf(arg));
+                length += Vectors.length(arg);
+            }
+        }
+        int position = 0;
+        switch (type) {
+            case Vectors.LOGICAL: {
+                byte[] result = new byte[length];
+                for (REXP arg : args) {
+                    byte[] values = Vectors.logicals(arg);
+                    System.arraycopy(values, 0, result, position, values.length);
+                    position += values.length;
+                }
+                return new REXPLogical(result);
+            }
+            case Vectors.INTEGER: {
+                int[] result = new int[length];
+                for (REXP arg : args) {
+                    int[] values = Vectors.integers(arg);
+                    System.arraycopy(values, 0, result, position, values.length);
+                    position += values.length;
+                }
+                return new REXPInteger(result);
+            }
+            case Vectors.DOUBLE: {
+                double[] result = new double[length];
+                for (REXP arg : args) {
+                    double[] values = Vectors.doubles(arg);
+                    System.arraycopy(values, 0, result, position, values.length);
+                    position += values.length;
+                }
+                return new REXPDouble(result);
+            }
+            case Vectors.STRING: {
+                String[] result = new String[length];
+                for (REXP arg : args) {
+                    String[] values = Vectors.strings(arg);
+                    System.arraycopy(values, 0, result, position, values.length);
+                    position += values.length;
+                }
+                return new REXPString(result);
+            }
+            default: {
+                RList result = new RList();
+                for (REXP arg : args) {
+                    result.addAll(Vectors.list(arg));
+                }
+                return new REXPGenericVector(result);
+            }
+        }
+    }
+
+    private static REXP extreme(REXP[] args, boolean naRm, boolean min) throws ScriptException {
+        REXP values = combine(args, null);
+        if (Vectors.typeOf(values) == Vectors.STRING) {
+            String result = null;
+            for (String value : Vectors.strings(values)) {
+                if (value == null) {
+                    if (!naRm) {
+                        return new REXPString(new String[]{null});
+                    }
+                } else if (result == null || (min ? value.compareTo(result) < 0 : value.compareTo(result) > 0)) {
+                    result = value;
+                }
+            }
+            if (result == null) {
+                throw new ScriptException("no non-missing arguments to " + (min ? "min" : "max"));
+            }
+            return new REXPString(result);
+        }
+        double result = min ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        for (double value : numeric(values, naRm)) {
+            if (Double.isNaN(value)) {
+                return new REXPDouble(value);
+            }
+            result = min ? Math.min(result, value) : Math.max(result, value);
+        }
+        if (Vectors.typeOf(values) <= Vectors.INTEGER && !Double.isInfinite(result)) {
+            return new REXPInteger((int) result);
+        }
+        return new REXPDouble(result);
+    }
+
+    private static REXP paste(REXP[] args, String[] names, String separator) throws ScriptException {
+        String sep = separator;
+        String collapse = null;
+        int length = 0;
+        int count = 0;
+        String[][] parts = new String[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            if ("sep".equals(names[i])) {
+                sep = Vectors.strings(args[i])[0];
+            } else if ("collapse".equals(names[i])) {
+                collapse = Vectors.strings(args[i])[0];
+            } else {
+                parts[count] = Vectors.strings(args[i]);
+                length = Math.max(length, parts[count].length);
+                count++;
+            }
+        }
+        String[] result = new String[length];
+        for (int i = 0; i < length; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < count; j++) {
+                if (j > 0) {
+                    sb.append(sep);
+                }
+                if (parts[j].length > 0) {
+                    String part = parts[j][i % parts[j].length];
+                    sb.append(part == null ? "NA" : part);
+                }
+            }
+            result[i] = sb.toString();
+        }
+        if (collapse != null) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < result.length; i++) {
+                if (i > 0) {
+                    sb.append(collapse);
+                }
+                sb.append(result[i]);
+            }
+            return new REXPString(sb.toString());
+        }
+        return new REXPString(result);
+    }
+
+    private static REXP readBin(REXP[] args, String[] names) throws ScriptException {
+        if (!(args[0] instanceof REXPJavaReference) ||
+                !(((REXPJavaReference) args[0]).getObject() instanceof ByteBuffer)) {
+            throw new ScriptException("invalid connection");
+        }
+        ByteBuffer buffer = (ByteBuffer) ((REXPJavaReference) args[0]).getObject();
+        String what = Vectors.strings(argument(args, names, "what", 1))[0];
+        REXP n = argument(args, names, "n", 2);
+        REXP size = argument(args, names, "size", 3);
+        REXP endian = argument(args, names, "endian", 5);
+        int length = n == null ? 1 : Vectors.integers(n)[0];
+        int width = what.equals("double") || what.equals("numeric") ? 8 : 4;
+        if (size != null && Vectors.integers(size)[0] != width) {
+            throw new ScriptException("size " + Vectors.integers(size)[0] + " is unsupported for '" + what + "'");
+        }
+        buffer.order(endian != null && Vectors.strings(endian)[0].equals("big") ? ByteOrder.BIG_ENDIAN :
+                ByteOrder.LITTLE_ENDIAN);
+        length = Math.min(length, buffer.remaining() / width);
+        switch (what) {
+            case "double":
+            case "numeric":
+                double[] doubles = new double[length];
+                buffer.asDoubleBuffer().get(doubles);
+                buffer.position(buffer.position() + length * width);
+                return new REXPDouble(doubles);
+            case "integer":
+            case "int":
+                int[] integers = new int[length];
+                buffer.asIntBuffer().get(integers);
+                buffer.position(buffer.position() + length * width);
+                return new REXPInteger(integers);
+            case "logical":
+                byte[] logicals = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    int value = buffer.getInt();
+                    logicals[i] = value == REXPInteger.NA ? REXPLogical.NA :
+                            value != 0 ? REXPLogical.TRUE : REXPLogical.FALSE;
+                }
+                return new REXPLogical(logicals);
+            default:
+                throw new ScriptException("invalid 'what' argument '" + what + "'");
+        }
+    }
+
+    /**
+     * Returns the argument given by name, or else the unnamed argument at the given position, if any.
+     */
+    private static REXP argument(REXP[] args, String[] names, String name, int position) {
+        for (int i = 0; i < args.length; i++) {
+            if (name.equals(names[i])) {
+                return args[i];
+            }
+        }
+        REXP[] values = valueArguments(args, names);
+        return position >= 0 && position < values.length ? values[position] : null;
+    }
+
+    private static REXP[] valueArguments(REXP[] args, String[] names) {
+        int count = 0;
+        REXP[] values = new REXP[args.length];
+        for (int i = 0; i < args.length; i++) {
+            if (names[i] == null) {
+                values[count++] = args[i];
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    private static boolean naRm(REXP[] args, String[] names) throws ScriptException {
+        return flag(args, names, "na.rm");
+    }
+
+    private static boolean flag(REXP[] args, String[] names, String name) throws ScriptException {
+        for (int i = 0; i < args.length; i++) {
+            if (name.equals(names[i])) {
+                return Vectors.isTrue(args[i]);
+            }
+        }
+        return false;
+    }
+
+    private static double[] numeric(REXP value, boolean naRm) throws ScriptException {
+        if (Vectors.typeOf(value) > Vectors.DOUBLE) {
+            throw new ScriptException("invalid 'type' (" + (Vectors.typeOf(value) == Vectors.STRING ?
+                    "character" : "list") + ") of argument");
+        }
+        double[] values = Vectors.doubles(value);
+        if (!naRm) {
+            return values;
+        }
+        double[] result = new double[values.length];
+        int count = 0;
+        for (double v : values) {
+            if (!Double.isNaN(v)) {
+                result[count++] = v;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static REXP map(REXP value, DoubleOperator operator) throws ScriptException {
+        double[] values = Vectors.doubles(value);
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = REXPDouble.isNA(values[i]) ? REXPDouble.NA : operator.apply(values[i]);
+        }
+        return new REXPDouble(result);
+    }
+
+    private static REXP integerMap(REXP value, IntegerOperator operator) throws ScriptException {
+        int[] values = Vectors.integers(value);
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = REXPInteger.isNA(values[i]) ? REXPInteger.NA : operator.apply(values[i]);
+        }
+        return new REXPInteger(result);
+    }
+
+    private static REXP stringMap(REXP value, StringOperator operator) throws ScriptException {
+        String[] values = Vectors.strings(value);
+        String[] result = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i] == null ? null : operator.apply(values[i]);
+        }
+        return new REXPString(result);
+    }
+
+    private static int[] sequence(int length) {
+        int[] result = new int[Math.max(0, length)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = i + 1;
+        }
+        return result;
+    }
+
+    private static int[] range(int from, int length) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = from + i;
+        }
+        return result;
+    }
+
+    /**
+     * Builds a data frame as a list of named columns, recycling the columns to the length of the longest one.
+     */
+    private static REXP dataFrame(REXP[] args, String[] names) throws ScriptException {
+        List<REXP> columns = new ArrayList<REXP>();
+        List<String> columnNames = new ArrayList<String>();
+        int rows = 0;
+        for (int i = 0; i < args.length; i++) {
+            if ("stringsAsFactors".equals(names[i])) {
+                continue;
+            }
+            columns.add(args[i]);
+            columnNames.add(names[i] == null ? "V" + (i + 1) : names[i]);
+            rows = Math.max(rows, Vectors.length(args[i]));
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            int length = Vectors.length(columns.get(i));
+            if (length != rows) {
+                if (length == 0 || rows % length != 0) {
+                    throw new ScriptException("arguments imply differing number of rows: " + rows + ", " + length);
+                }
+                int[] positions = new int[rows];
+                for (int j = 0; j < rows; j++) {
+                    positions[j] = j % length;
+                }
+                columns.set(i, Vectors.select(columns.get(i), positions));
+            }
+        }
+        return new REXPGenericVector(new RList(columns, columnNames.toArray(new String[columnNames.size()])));
+    }
+
+    private static String[] names(String[] names) {
+        for (String name : names) {
+            if (name != null) {
+                String[] result = new String[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    result[i] = names[i] == null ? "" : names[i];
+                }
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function callable from scripts.
+     */
+    interface Function {
+        REXP apply(REXP[] args, String[] names) throws ScriptException;
+    }
+
+    private interface DoubleOperator {
+        double apply(double value);
+    }
+
+    private interface IntegerOperator {
+        int apply(int value);
+    }
+
+    private interface StringOperator {
+        String apply(String value);
+    }
+}
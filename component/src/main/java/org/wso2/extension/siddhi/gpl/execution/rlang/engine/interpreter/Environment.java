@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter;
+
+import org.rosuda.REngine.REXP;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Variable scope of the {@link Interpreter}. Lookups fall back to the parent environment, assignments always
+ * bind in the environment itself. Like R's {@code lockBinding}, a variable can be locked so that scripts cannot
+ * change it.
+ */
+public class Environment {
+
+    private final Environment parent;
+    private final Map<String, REXP> variables = new LinkedHashMap<String, REXP>();
+    private final Set<String> locked = new HashSet<String>();
+
+    public Environment(Environment parent) {
+        this.parent = parent;
+    }
+
+    public REXP get(String name) {
+        REXP value = variables.get(name);
+        if (value == null && parent != null) {
+            return parent.get(name);
+        }
+        return value;
+    }
+
+    public void assign(String name, REXP value) {
+        variables.put(name, value);
+    }
+
+    public void lock(String name) {
+        locked.add(name);
+    }
+
+    public void clear() {
+        variables.clear();
+        locked.clear();
+    }
+
+    void set(String name, REXP value) throws ScriptException {
+        if (locked.contains(name)) {
+            throw new ScriptException("cannot change value of locked binding for '" + name + "'");
+        }
+        variables.put(name, value);
+    }
+
+    void assignInherited(String name, REXP value) throws ScriptException {
+        if (variables.containsKey(name) || parent == null) {
+            set(name, value);
+        } else {
+            parent.assignInherited(name, value);
+        }
+    }
+
+    public Environment getParent() {
+        return parent;
+    }
+
+    public Map<String, REXP> getVariables() {
+        return variables;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPLogical;
+
+import java.util.List;
+
+/**
+ * Tree walking interpreter for a small, vectorised subset of R: constants, variables, assignments, arithmetic,
+ * comparison and logical operators, indexing, {@code if}, {@code exists} and the functions provided by
+ * {@link Builtins}.
+ * It has no dependency on a native R installation.
+ */
+public class Interpreter {
+
+    /**
+     * Evaluates a parsed script.
+     *
+     * @param node root node returned by {@link Parser#parse(String)}
+     * @param env  environment in which the script is evaluated
+     * @return value of the last statement
+     * @throws ScriptException if the evaluation fails
+     */
+    public REXP eval(Node node, Environment env) throws ScriptException {
+        return node.eval(this, env);
+    }
+
+    REXP call(Node.Call call, Environment env) throws ScriptException {
+        if (call.function.equals("exists")) {
+            // Unlike the builtins, exists() looks into the calling environment
+            if (call.arguments.isEmpty()) {
+                throw new ScriptException("argument missing in call to 'exists'");
+            }
+            String name = Vectors.strings(call.arguments.get(0).eval(this, env))[0];
+            return new REXPLogical(env.get(name) != null);
+        }
+        Builtins.Function function = Builtins.get(call.function);
+        if (function == null) {
+            throw new ScriptException("could not find function \"" + call.function + "\"");
+        }
+        List<Node> arguments = call.arguments;
+        REXP[] values = new REXP[arguments.size()];
+        String[] names = new String[arguments.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = arguments.get(i).eval(this, env);
+            names[i] = call.names.get(i);
+        }
+        if (values.length == 0 && requiresArguments(call.function)) {
+            throw new ScriptException("argument missing in call to '" + call.function + "'");
+        }
+        return function.apply(values, names);
+    }
+
+    private static boolean requiresArguments(String function) {
+        return !function.equals("c") && !function.equals("list") && !function.equals("paste") &&
+                !function.equals("paste0") && !function.equals("invisible") && !function.equals("numeric") &&
+                !function.equals("character");
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an R script into the tokens understood by the {@link Parser}.
+ */
+class Lexer {
+
+    private static final String[] OPERATORS = {"<<-", "%%", "%/%", "%in%", "<-", "<=", ">=", "==", "!=", "&&",
+            "||", "[[", "<", ">", "=", "+", "-", "*", "/", "^", "!", "&", "|", "~", ":", "$", ",", "(", ")",
+            "[", "]", "{", "}", ";"};
+
+    private final String source;
+    private int position;
+    private int depth;
+    private final List<Integer> depthStack = new ArrayList<Integer>();
+
+    Lexer(String source) {
+        this.source = source;
+    }
+
+    List<Token> tokenize() throws ScriptException {
+        List<Token> tokens = new ArrayList<Token>();
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (c == '#') {
+                while (position < source.length() && source.charAt(position) != '\n') {
+                    position++;
+                }
+            } else if (c == '\n') {
+                // Line breaks only terminate statements outside parentheses and brackets
+                if (depth == 0) {
+                    tokens.add(new Token(Token.Type.NEWLINE, "\n"));
+                }
+                position++;
+            } else if (Character.isWhitespace(c)) {
+                position++;
+            } else if (Character.isDigit(c) || (c == '.' && position + 1 < source.length() &&
+                    Character.isDigit(source.charAt(position + 1)))) {
+                tokens.add(readNumber());
+            } else if (c == '"' || c == '\'') {
+                tokens.add(readString(c));
+            } else if (Character.isLetter(c) || c == '.' || c == '_') {
+                tokens.add(readIdentifier());
+            } else if (c == '`') {
+                int end = source.indexOf('`', position + 1);
+                if (end < 0) {
+                    throw new ScriptException("Unterminated quoted name at position " + position);
+                }
+                tokens.add(new Token(Token.Type.IDENTIFIER, source.substring(position + 1, end)));
+                position = end + 1;
+            } else {
+                tokens.add(readOperator());
+            }
+        }
+        tokens.add(new Token(Token.Type.EOF, ""));
+        return tokens;
+    }
+
+    private Token readNumber() {
+        int start = position;
+        boolean hex = source.startsWith("0x", position) || source.startsWith("0X", position);
+        if (hex) {
+            position += 2;
+            while (position < source.length() && Character.digit(source.charAt(position), 16) >= 0) {
+                position++;
+            }
+        } else {
+            while (position < source.length() && (Character.isDigit(source.charAt(position)) ||
+                    source.charAt(position) == '.')) {
+                position++;
+            }
+            if (position < source.length() && (source.charAt(position) == 'e' || source.charAt(position) == 'E')) {
+                position++;
+                if (position < source.length() && (source.charAt(position) == '+' ||
+                        source.charAt(position) == '-')) {
+                    position++;
+                }
+                while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                    position++;
+                }
+            }
+        }
+        String text = source.substring(start, position);
+        if (position < source.length() && source.charAt(position) == 'L') {
+            position++;
+            return new Token(Token.Type.INTEGER, hex ? String.valueOf(Long.parseLong(text.substring(2), 16)) :
+                    text);
+        }
+        return new Token(Token.Type.NUMBER, hex ? String.valueOf(Long.parseLong(text.substring(2), 16)) : text);
+    }
+
+    private Token readString(char quote) throws ScriptException {
+        StringBuilder sb = new StringBuilder();
+        position++;
+        while (position < source.length() && source.charAt(position) != quote) {
+            char c = source.charAt(position);
+            if (c == '\\' && position + 1 < source.length()) {
+                position++;
+                char escaped = source.charAt(position);
+                switch (escaped) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    default:
+                        sb.append(escaped);
+                }
+            } else {
+                sb.append(c);
+            }
+            position++;
+        }
+        if (position >= source.length()) {
+            throw new ScriptException("Unterminated string literal");
+        }
+        position++;
+        return new Token(Token.Type.STRING, sb.toString());
+    }
+
+    private Token readIdentifier() {
+        int start = position;
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (Character.isLetterOrDigit(c) || c == '.' || c == '_') {
+                position++;
+            } else {
+                break;
+            }
+        }
+        return new Token(Token.Type.IDENTIFIER, source.substring(start, position));
+    }
+
+    private Token readOperator() throws ScriptException {
+        for (String operator : OPERATORS) {
+            if (source.startsWith(operator, position)) {
+                position += operator.length();
+                if (operator.equals("(") || operator.equals("[")) {
+                    depth++;
+                } else if (operator.equals("[[")) {
+                    depth += 2;
+                } else if ((operator.equals(")") || operator.equals("]")) && depth > 0) {
+                    depth--;
+                } else if (operator.equals("{")) {
+                    // Statements inside braces are separated by line breaks again
+                    depthStack.add(depth);
+                    depth = 0;
+                } else if (operator.equals("}") && !depthStack.isEmpty()) {
+                    depth = depthStack.remove(depthStack.size() - 1);
+                }
+                return new Token(Token.Type.OPERATOR, operator);
+            }
+        }
+        throw new ScriptException("Unexpected character '" + source.charAt(position) + "' at position " + position);
+    }
+
+    /**
+     * Token of an R script.
+     */
+    static class Token {
+
+        /**
+         * Kinds of tokens.
+         */
+        enum Type {
+            NUMBER, INTEGER, STRING, IDENTIFIER, OPERATOR, NEWLINE, EOF
+        }
+
+        final Type type;
+        final String text;
+
+        Token(Type type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        boolean is(String operator) {
+            return type == Type.OPERATOR && text.equals(operator);
+        }
+
+        @Override
+        public String toString() {
+            return type == Type.EOF ? "end of script" : "'" + text + "'";
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter;
+
+import java.math.BigInteger;
+
+/**
+ * Number in the x87 extended precision format, the long double in which R accumulates its sums and means on
+ * x86-64. The significand has 64 bits and every operation rounds to nearest, ties to even, like the FPU does,
+ * hence the reductions of the {@link Builtins} return the same doubles as R. Values are immutable.
+ */
+final class LongDouble {
+
+    static final LongDouble ZERO = new LongDouble(BigInteger.ZERO, 0, 0);
+
+    private static final int PRECISION = 64;
+    private static final int MIN_EXPONENT = -16445;
+    private static final int DOUBLE_PRECISION = 53;
+    private static final int DOUBLE_MIN_EXPONENT = -1074;
+
+    // Finite values are mantissa * 2^exponent, special holds NaN or an infinity and is 0 for finite values
+    private final BigInteger mantissa;
+    private final int exponent;
+    private final double special;
+
+    private LongDouble(BigInteger mantissa, int exponent, double special) {
+        this.mantissa = mantissa;
+        this.exponent = exponent;
+        this.special = special;
+    }
+
+    /**
+     * Converts a double, which is exact.
+     */
+    static LongDouble of(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return new LongDouble(BigInteger.ZERO, 0, value);
+        }
+        if (value == 0) {
+            return ZERO;
+        }
+        long bits = Double.doubleToRawLongBits(value);
+        int biased = (int) ((bits >> 52) & 0x7ff);
+        long significand = bits & 0xfffffffffffffL;
+        int exponent = DOUBLE_MIN_EXPONENT;
+        if (biased != 0) {
+            significand |= 1L << 52;
+            exponent = biased - 1075;
+        }
+        return new LongDouble(BigInteger.valueOf(value < 0 ? -significand : significand), exponent, 0);
+    }
+
+    LongDouble add(LongDouble other) {
+        if (special != 0 || other.special != 0) {
+            // The first NaN is kept, which keeps the NA of R apart from other NaNs
+            if (Double.isNaN(special)) {
+                return this;
+            }
+            return Double.isNaN(other.special) ? other : new LongDouble(BigInteger.ZERO, 0, special + other.special);
+        }
+        int common = Math.min(exponent, other.exponent);
+        BigInteger sum = mantissa.shiftLeft(exponent - common).add(other.mantissa.shiftLeft(other.exponent - common));
+        return round(sum, common, false, PRECISION, MIN_EXPONENT);
+    }
+
+    LongDouble add(double value) {
+        return add(of(value));
+    }
+
+    LongDouble subtract(LongDouble other) {
+        return add(other.negate());
+    }
+
+    LongDouble multiply(LongDouble other) {
+        if (special != 0 || other.special != 0) {
+            return new LongDouble(BigInteger.ZERO, 0, toDouble() * other.toDouble());
+        }
+        return round(mantissa.multiply(other.mantissa), exponent + other.exponent, false, PRECISION, MIN_EXPONENT);
+    }
+
+    LongDouble divide(long divisor) {
+        if (special != 0 || divisor == 0) {
+            return new LongDouble(BigInteger.ZERO, 0, toDouble() / divisor);
+        }
+        if (mantissa.signum() == 0) {
+            return ZERO;
+        }
+        // The quotient is given two bits more than the precision, the remainder tells whether it was inexact
+        BigInteger magnitude = mantissa.abs();
+        BigInteger divisorValue = BigInteger.valueOf(Math.abs(divisor));
+        int shift = Math.max(0, PRECISION + 2 + divisorValue.bitLength() - magnitude.bitLength());
+        BigInteger[] quotient = magnitude.shiftLeft(shift).divideAndRemainder(divisorValue);
+        BigInteger result = (mantissa.signum() < 0) == (divisor < 0) ? quotient[0] : quotient[0].negate();
+        return round(result, exponent - shift, quotient[1].signum() != 0, PRECISION, MIN_EXPONENT);
+    }
+
+    LongDouble negate() {
+        return special != 0 ? new LongDouble(BigInteger.ZERO, 0, -special) :
+                new LongDouble(mantissa.negate(), exponent, 0);
+    }
+
+    /**
+     * Rounds to the nearest double, like the conversion of a long double by R.
+     */
+    double toDouble() {
+        if (special != 0) {
+            return special;
+        }
+        if (mantissa.signum() == 0) {
+            return 0;
+        }
+        LongDouble rounded = round(mantissa, exponent, false, DOUBLE_PRECISION, DOUBLE_MIN_EXPONENT);
+        // The rounded significand has at most 54 bits, hence its conversion and scaling are exact
+        return Math.scalb((double) rounded.mantissa.longValue(), rounded.exponent);
+    }
+
+    boolean isFinite() {
+        double value = toDouble();
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    /**
+     * Rounds mantissa * 2^exponent to the given number of significant bits, to nearest with ties to even.
+     *
+     * @param inexact whether the exact value is a little larger in magnitude than the given one
+     */
+    private static LongDouble round(BigInteger mantissa, int exponent, boolean inexact, int precision,
+                                    int minExponent) {
+        if (mantissa.signum() == 0) {
+            return ZERO;
+        }
+        BigInteger magnitude = mantissa.abs();
+        int quantum = Math.max(magnitude.bitLength() + exponent - precision, minExponent);
+        if (quantum <= exponent) {
+            return new LongDouble(mantissa, exponent, 0);
+        }
+        int shift = quantum - exponent;
+        BigInteger kept = magnitude.shiftRight(shift);
+        int half = magnitude.subtract(kept.shiftLeft(shift)).shiftLeft(1).compareTo(BigInteger.ONE.shiftLeft(shift));
+        if (half > 0 || (half == 0 && (inexact || kept.testBit(0)))) {
+            kept = kept.add(BigInteger.ONE);
+        }
+        return new LongDouble(mantissa.signum() < 0 ? kept.negate() : kept, quantum, 0);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Node of the syntax tree produced by the {@link Parser}. Operators are represented as calls to the function
+ * of the same name, the way R itself represents them.
+ */
+public abstract class Node {
+
+    abstract REXP eval(Interpreter interpreter, Environment env) throws ScriptException;
+
+    /**
+     * Constant value.
+     */
+    static class Constant extends Node {
+        final REXP value;
+
+        Constant(REXP value) {
+            this.value = value;
+        }
+
+        @Override
+        REXP eval(Interpreter interpreter, Environment env) {
+            return value;
+        }
+    }
+
+    /**
+     * Reference to a variable.
+     */
+    static class Symbol extends Node {
+        final String name;
+
+        Symbol(String name) {
+            this.name = name;
+        }
+
+        @Override
+        REXP eval(Interpreter interpreter, Environment env) throws ScriptException {
+            REXP value = env.get(name);
+            if (value == null) {
+                throw new ScriptException("object '" + name + "' not found");
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Assignment of a value to a variable, {@code name <- value}.
+     */
+    static class Assign extends Node {
+        final String name;
+        final Node value;
+        final boolean global;
+
+        Assign(String name, Node value, boolean global) {
+            this.name = name;
+            this.value = value;
+            this.global = global;
+        }
+
+        @Override
+        REXP eval(Interpreter interpreter, Environment env) throws ScriptException {
+            REXP result = value.eval(interpreter, env);
+            if (global && env.getParent() != null) {
+                env.getParent().assignInherited(name, result);
+            } else {
+                env.set(name, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Call of a function or an operator.
+     */
+    static class Call extends Node {
+        final String function;
+        final List<Node> arguments;
+        final List<String> names;
+
+        Call(String function, List<Node> arguments, List<String> names) {
+            this.function = function;
+            this.arguments = arguments;
+            this.names = names;
+        }
+
+        @Override
+        REXP eval(Interpreter interpreter, Environment env) throws ScriptException {
+            return interpreter.call(this, env);
+        }
+    }
+
+    /**
+     * Sequence of statements, either a whole script or a braced block.
+     */
+    static class Block extends Node {
+        final List<Node> statements;
+
+        Block(List<Node> statements) {
+            this.statements = Collections.unmodifiableList(statements);
+        }
+
+        @Override
+        REXP eval(Interpreter interpreter, Environment env) throws ScriptException {
+            REXP result = new REXPNull();
+            for (Node statement : statements) {
+                result = statement.eval(interpreter, env);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Conditional, {@code if (condition) then else otherwise}.
+     */
+    static class If extends Node {
+        final Node condition;
+        final Node then;
+        final Node otherwise;
+
+        If(Node condition, Node then, Node otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        REXP eval(Interpreter interpreter, Environment env) throws ScriptException {
+            if (Vectors.isTrue(condition.eval(interpreter, env))) {
+                return then.eval(interpreter, env);
+            } else if (otherwise != null) {
+                return otherwise.eval(interpreter, env);
+            }
+            return new REXPNull();
+        }
+    }
+}
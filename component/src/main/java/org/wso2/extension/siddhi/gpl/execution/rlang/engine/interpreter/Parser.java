@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter;
+
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPNull;
+import org.rosuda.REngine.REXPString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recursive descent parser for the subset of the R language supported by the {@link Interpreter}. Operator
+ * precedence follows the R language definition.
+ */
+public class Parser {
+
+    private final List<Lexer.Token> tokens;
+    private int position;
+
+    private Parser(List<Lexer.Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Parses a script.
+     *
+     * @param script R script
+     * @return root node of the script
+     * @throws ScriptException if the script is not valid or uses syntax which is not supported
+     */
+    public static Node parse(String script) throws ScriptException {
+        Parser parser = new Parser(new Lexer(script).tokenize());
+        Node program = parser.parseStatements(false);
+        parser.expect(Lexer.Token.Type.EOF);
+        return program;
+    }
+
+    private Node parseStatements(boolean braced) throws ScriptException {
+        List<Node> statements = new ArrayList<Node>();
+        while (true) {
+            skipSeparators();
+            Lexer.Token token = peek();
+            if (token.type == Lexer.Token.Type.EOF || (braced && token.is("}"))) {
+                break;
+            }
+            statements.add(parseExpression());
+            token = peek();
+            if (token.type != Lexer.Token.Type.NEWLINE && !token.is(";") && token.type != Lexer.Token.Type.EOF &&
+                    !(braced && token.is("}"))) {
+                throw new ScriptException("Unexpected " + token);
+            }
+        }
+        return new Node.Block(statements);
+    }
+
+    private Node parseExpression() throws ScriptException {
+        Node left = parseTilde();
+        Lexer.Token token = peek();
+        if (token.is("<-") || token.is("=") || token.is("<<-")) {
+            next();
+            skipNewLines();
+            Node value = parseExpression();
+            if (left instanceof Node.Symbol) {
+                return new Node.Assign(((Node.Symbol) left).name, value, token.is("<<-"));
+            }
+            throw new ScriptException("Invalid assignment target");
+        }
+        return left;
+    }
+
+    private Node parseTilde() throws ScriptException {
+        if (peek().is("~")) {
+            next();
+            return call("~", parseOr());
+        }
+        Node left = parseOr();
+        if (peek().is("~")) {
+            next();
+            skipNewLines();
+            return call("~", left, parseOr());
+        }
+        return left;
+    }
+
+    private Node parseOr() throws ScriptException {
+        Node left = parseAnd();
+        while (peek().is("|") || peek().is("||")) {
+            String operator = next().text;
+            skipNewLines();
+            left = call(operator, left, parseAnd());
+        }
+        return left;
+    }
+
+    private Node parseAnd() throws ScriptException {
+        Node left = parseNot();
+        while (peek().is("&") || peek().is("&&")) {
+            String operator = next().text;
+            skipNewLines();
+            left = call(operator, left, parseNot());
+        }
+        return left;
+    }
+
+    private Node parseNot() throws ScriptException {
+        if (peek().is("!")) {
+            next();
+            return call("!", parseNot());
+        }
+        return parseComparison();
+    }
+
+    private Node parseComparison() throws ScriptException {
+        Node left = parseAdditive();
+        Lexer.Token token = peek();
+        if (token.is("<") || token.is(">") || token.is("<=") || token.is(">=") || token.is("==") ||
+                token.is("!=")) {
+            next();
+            skipNewLines();
+            return call(token.text, left, parseAdditive());
+        }
+        return left;
+    }
+
+    private Node parseAdditive() throws ScriptException {
+        Node left = parseMultiplicative();
+        while (peek().is("+") || peek().is("-")) {
+            String operator = next().text;
+            skipNewLines();
+            left = call(operator, left, parseMultiplicative());
+        }
+        return left;
+    }
+
+    private Node parseMultiplicative() throws ScriptException {
+        Node left = parseSpecial();
+        while (peek().is("*") || peek().is("/")) {
+            String operator = next().text;
+            skipNewLines();
+            left = call(operator, left, parseSpecial());
+        }
+        return left;
+    }
+
+    private Node parseSpecial() throws ScriptException {
+        Node left = parseRange();
+        while (peek().is("%%") || peek().is("%/%") || peek().is("%in%")) {
+            String operator = next().text;
+            skipNewLines();
+            left = call(operator, left, parseRange());
+        }
+        return left;
+    }
+
+    private Node parseRange() throws ScriptException {
+        Node left = parseUnary();
+        while (peek().is(":")) {
+            next();
+            left = call(":", left, parseUnary());
+        }
+        return left;
+    }
+
+    private Node parseUnary() throws ScriptException {
+        if (peek().is("-") || peek().is("+")) {
+            String operator = next().text;
+            return call(operator, parseUnary());
+        }
+        return parsePower();
+    }
+
+    private Node parsePower() throws ScriptException {
+        Node base = parsePostfix();
+        if (peek().is("^")) {
+            next();
+            // Exponentiation is right associative and binds tighter than unary minus on its left only
+            return call("^", base, parseUnary());
+        }
+        return base;
+    }
+
+    private Node parsePostfix() throws ScriptException {
+        Node node = parsePrimary();
+        while (true) {
+            Lexer.Token token = peek();
+            if (token.is("(")) {
+                if (!(node instanceof Node.Symbol)) {
+                    throw new ScriptException("Only named functions can be called");
+                }
+                next();
+                node = parseArguments(((Node.Symbol) node).name, ")", null);
+            } else if (token.is("[[")) {
+                next();
+                node = parseArguments("[[", "]", node);
+                expectOperator("]");
+            } else if (token.is("[")) {
+                next();
+                node = parseArguments("[", "]", node);
+            } else if (token.is("$")) {
+                next();
+                Lexer.Token name = next();
+                if (name.type != Lexer.Token.Type.IDENTIFIER && name.type != Lexer.Token.Type.STRING) {
+                    throw new ScriptException("Unexpected " + name + " after '$'");
+                }
+                node = call("$", node, new Node.Constant(new REXPString(name.text)));
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private Node parseArguments(String function, String closing, Node target) throws ScriptException {
+        List<Node> arguments = new ArrayList<Node>();
+        List<String> names = new ArrayList<String>();
+        if (function.equals("[[") || function.equals("[")) {
+            arguments.add(target);
+            names.add(null);
+        }
+        if (peek().is(closing)) {
+            next();
+            return new Node.Call(function, arguments, names);
+        }
+        while (true) {
+            Lexer.Token token = peek();
+            if ((token.type == Lexer.Token.Type.IDENTIFIER || token.type == Lexer.Token.Type.STRING) &&
+                    tokens.get(position + 1).is("=")) {
+                next();
+                next();
+                names.add(token.text);
+            } else {
+                names.add(null);
+            }
+            arguments.add(parseExpression());
+            Lexer.Token separator = next();
+            if (separator.is(closing)) {
+                break;
+            }
+            if (!separator.is(",")) {
+                throw new ScriptException("Unexpected " + separator + " in the arguments of '" + function + "'");
+            }
+        }
+        return new Node.Call(function, arguments, names);
+    }
+
+    private Node parsePrimary() throws ScriptException {
+        Lexer.Token token = next();
+        switch (token.type) {
+            case NUMBER:
+                return new Node.Constant(new REXPDouble(Double.parseDouble(token.text)));
+            case INTEGER:
+                return new Node.Constant(new REXPInteger((int) Double.parseDouble(token.text)));
+            case STRING:
+                return new Node.Constant(new REXPString(token.text));
+            case IDENTIFIER:
+                return parseIdentifier(token);
+            case OPERATOR:
+                if (token.is("(")) {
+                    skipNewLines();
+                    Node node = parseExpression();
+                    skipNewLines();
+                    expectOperator(")");
+                    return node;
+                }
+                if (token.is("{")) {
+                    Node block = parseStatements(true);
+                    expectOperator("}");
+                    return block;
+                }
+                throw new ScriptException("Unexpected " + token);
+            default:
+                throw new ScriptException("Unexpected " + token);
+        }
+    }
+
+    private Node parseIdentifier(Lexer.Token token) throws ScriptException {
+        switch (token.text) {
+            case "TRUE":
+            case "T":
+                return new Node.Constant(new REXPLogical(true));
+            case "FALSE":
+            case "F":
+                return new Node.Constant(new REXPLogical(false));
+            case "NULL":
+                return new Node.Constant(new REXPNull());
+            case "NA":
+                return new Node.Constant(new REXPLogical(REXPLogical.NA));
+            case "Inf":
+                return new Node.Constant(new REXPDouble(Double.POSITIVE_INFINITY));
+            case "NaN":
+                return new Node.Constant(new REXPDouble(Double.NaN));
+            case "if":
+                expectOperator("(");
+                Node condition = parseExpression();
+                expectOperator(")");
+                skipNewLines();
+                Node then = parseExpression();
+                Node otherwise = null;
+                int mark = position;
+                skipNewLines();
+                if (peek().type == Lexer.Token.Type.IDENTIFIER && peek().text.equals("else")) {
+                    next();
+                    skipNewLines();
+                    otherwise = parseExpression();
+                } else {
+                    position = mark;
+                }
+                return new Node.If(condition, then, otherwise);
+            case "function":
+            case "for":
+            case "while":
+            case "repeat":
+                throw new ScriptException("'" + token.text + "' is not supported");
+            default:
+                return new Node.Symbol(token.text);
+        }
+    }
+
+    private static Node call(String function, Node... arguments) {
+        return new Node.Call(function, Arrays.asList(arguments), Arrays.asList(new String[arguments.length]));
+    }
+
+    private void skipSeparators() {
+        while (peek().type == Lexer.Token.Type.NEWLINE || peek().is(";")) {
+            position++;
+        }
+    }
+
+    private void skipNewLines() {
+        while (peek().type == Lexer.Token.Type.NEWLINE) {
+            position++;
+        }
+    }
+
+    private Lexer.Token peek() {
+        return tokens.get(position);
+    }
+
+    private Lexer.Token next() {
+        Lexer.Token token = tokens.get(position);
+        if (token.type != Lexer.Token.Type.EOF) {
+            position++;
+        }
+        return token;
+    }
+
+    private void expect(Lexer.Token.Type type) throws ScriptException {
+        if (peek().type != type) {
+            throw new ScriptException("Unexpected " + peek());
+        }
+    }
+
+    private void expectOperator(String operator) throws ScriptException {
+        Lexer.Token token = next();
+        if (!token.is(operator)) {
+            throw new ScriptException("Expected '" + operator + "' but found " + token);
+        }
+    }
+}
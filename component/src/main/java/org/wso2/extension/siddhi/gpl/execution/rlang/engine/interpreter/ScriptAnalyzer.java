@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter;
+
+import org.rosuda.REngine.REXPString;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tells whether a script is a plain computation over its inputs, made of assignments, arithmetic and the
+ * reductions for which the {@link Builtins} give the same results as R. Such a script can be evaluated by the
+ * {@link Interpreter} instead of R.
+ */
+public final class ScriptAnalyzer {
+
+    // Functions accepted, with their largest number of unnamed arguments. Further arguments of R functions, such
+    // as the trimming of mean() or the second vector of var(), are not known to the interpreter. Functions of the
+    // math library, such as exp(), log() or ^, are left out as Java may round them differently from the C library.
+    private static final Map<String, Integer> FUNCTIONS = new HashMap<String, Integer>();
+    private static final Set<String> REDUCTIONS = new HashSet<String>(Arrays.asList("sum", "mean", "var", "sd",
+            "median", "min", "max", "range", "quantile"));
+
+    static {
+        for (String function : new String[]{"+", "-", "*", "/", "quantile", "[", "[["}) {
+            FUNCTIONS.put(function, 2);
+        }
+        for (String function : new String[]{"length", "mean", "var", "sd", "median", "sqrt", "abs"}) {
+            FUNCTIONS.put(function, 1);
+        }
+        for (String function : new String[]{"c", "sum", "min", "max", "range"}) {
+            FUNCTIONS.put(function, Integer.MAX_VALUE);
+        }
+    }
+
+    private ScriptAnalyzer() {
+
+    }
+
+    /**
+     * Checks a script.
+     *
+     * @param script    R script
+     * @param variables variables assigned before the script runs
+     * @return true if the interpreter evaluates the script exactly like R, false if it has to be left to R
+     */
+    public static boolean isNative(String script, Collection<String> variables) {
+        Node program;
+        try {
+            program = Parser.parse(script);
+        } catch (ScriptException e) {
+            return false;
+        }
+        return isNative(program, new HashSet<String>(variables));
+    }
+
+    /**
+     * Checks a node, given the variables defined so far. Assignments add to the defined variables, hence the
+     * statements are checked in order and a symbol is only accepted once it is known not to come from R.
+     */
+    private static boolean isNative(Node node, Set<String> defined) {
+        if (node instanceof Node.Constant) {
+            return true;
+        }
+        if (node instanceof Node.Symbol) {
+            return defined.contains(((Node.Symbol) node).name);
+        }
+        if (node instanceof Node.Assign) {
+            Node.Assign assign = (Node.Assign) node;
+            if (assign.global || !isNative(assign.value, defined)) {
+                return false;
+            }
+            defined.add(assign.name);
+            return true;
+        }
+        if (node instanceof Node.Block) {
+            for (Node statement : ((Node.Block) node).statements) {
+                if (!isNative(statement, defined)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (node instanceof Node.Call) {
+            return isNative((Node.Call) node, defined);
+        }
+        return false;
+    }
+
+    private static boolean isNative(Node.Call call, Set<String> defined) {
+        List<Node> arguments = call.arguments;
+        if (!FUNCTIONS.containsKey(call.function)) {
+            return false;
+        }
+        // Elements are only selected by position, as the interpreter does not keep the names of vectors
+        if ((call.function.equals("[") || call.function.equals("[[")) && (arguments.size() != 2 ||
+                (arguments.get(1) instanceof Node.Constant &&
+                        ((Node.Constant) arguments.get(1)).value instanceof REXPString))) {
+            return false;
+        }
+        int unnamed = 0;
+        for (int i = 0; i < arguments.size(); i++) {
+            String name = call.names.get(i);
+            if (name == null) {
+                unnamed++;
+            } else if (!(name.equals("na.rm") && REDUCTIONS.contains(call.function)) &&
+                    !(name.equals("probs") && call.function.equals("quantile"))) {
+                return false;
+            }
+            if (!isNative(arguments.get(i), defined)) {
+                return false;
+            }
+        }
+        return unnamed <= FUNCTIONS.get(call.function);
+    }
+}
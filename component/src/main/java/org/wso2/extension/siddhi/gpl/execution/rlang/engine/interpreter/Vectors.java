@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPFactor;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPNull;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.REXPVector;
+import org.rosuda.REngine.RList;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Conversions between the R vector types used by the {@link Interpreter}, following R's coercion rules.
+ */
+public final class Vectors {
+
+    static final int LOGICAL = 0;
+    static final int INTEGER = 1;
+    static final int DOUBLE = 2;
+    static final int STRING = 3;
+    static final int LIST = 4;
+
+    private Vectors() {
+
+    }
+
+    static int typeOf(REXP value) {
+        if (value instanceof REXPLogical) {
+            return LOGICAL;
+        } else if (value instanceof REXPFactor) {
+            return STRING;
+        } else if (value instanceof REXPInteger) {
+            return INTEGER;
+        } else if (value instanceof REXPDouble) {
+            return DOUBLE;
+        } else if (value instanceof REXPString) {
+            return STRING;
+        } else if (value instanceof REXPNull) {
+            return LOGICAL;
+        }
+        return LIST;
+    }
+
+    public static int length(REXP value) {
+        if (value instanceof REXPVector) {
+            return ((REXPVector) value).length();
+        }
+        return value instanceof REXPNull ? 0 : 1;
+    }
+
+    public static double[] doubles(REXP value) throws ScriptException {
+        if (value instanceof REXPDouble) {
+            return ((REXPDouble) value).asDoubles();
+        }
+        if (value instanceof REXPNull) {
+            return new double[0];
+        }
+        if (value instanceof REXPInteger && !(value instanceof REXPFactor)) {
+            int[] ints = ((REXPInteger) value).asIntegers();
+            double[] result = new double[ints.length];
+            for (int i = 0; i < ints.length; i++) {
+                result[i] = REXPInteger.isNA(ints[i]) ? REXPDouble.NA : ints[i];
+            }
+            return result;
+        }
+        if (value instanceof REXPLogical) {
+            byte[] bytes = ((REXPLogical) value).asBytes();
+            double[] result = new double[bytes.length];
+            for (int i = 0; i < bytes.length; i++) {
+                result[i] = REXPLogical.isNA(bytes[i]) ? REXPDouble.NA : bytes[i];
+            }
+            return result;
+        }
+        if (value instanceof REXPString) {
+            String[] strings = strings(value);
+            double[] result = new double[strings.length];
+            for (int i = 0; i < strings.length; i++) {
+                try {
+                    result[i] = strings[i] == null ? REXPDouble.NA : Double.parseDouble(strings[i].trim());
+                } catch (NumberFormatException e) {
+                    result[i] = REXPDouble.NA;
+                }
+            }
+            return result;
+        }
+        throw new ScriptException("cannot coerce a list to a numeric vector");
+    }
+
+    public static int[] integers(REXP value) throws ScriptException {
+        if (value instanceof REXPInteger && !(value instanceof REXPFactor)) {
+            return ((REXPInteger) value).asIntegers();
+        }
+        double[] doubles = doubles(value);
+        int[] result = new int[doubles.length];
+        for (int i = 0; i < doubles.length; i++) {
+            result[i] = Double.isNaN(doubles[i]) || Math.abs(doubles[i]) > Integer.MAX_VALUE ? REXPInteger.NA :
+                    (int) doubles[i];
+        }
+        return result;
+    }
+
+    public static byte[] logicals(REXP value) throws ScriptException {
+        if (value instanceof REXPLogical) {
+            return ((REXPLogical) value).asBytes();
+        }
+        if (value instanceof REXPString && !(value instanceof REXPFactor)) {
+            String[] strings = strings(value);
+            byte[] result = new byte[strings.length];
+            for (int i = 0; i < strings.length; i++) {
+                if ("TRUE".equals(strings[i]) || "true".equals(strings[i]) || "T".equals(strings[i])) {
+                    result[i] = REXPLogical.TRUE;
+                } else if ("FALSE".equals(strings[i]) || "false".equals(strings[i]) || "F".equals(strings[i])) {
+                    result[i] = REXPLogical.FALSE;
+                } else {
+                    result[i] = REXPLogical.NA;
+                }
+            }
+            return result;
+        }
+        double[] doubles = doubles(value);
+        byte[] result = new byte[doubles.length];
+        for (int i = 0; i < doubles.length; i++) {
+            result[i] = Double.isNaN(doubles[i]) ? REXPLogical.NA :
+                    (doubles[i] != 0 ? REXPLogical.TRUE : REXPLogical.FALSE);
+        }
+        return result;
+    }
+
+    public static String[] strings(REXP value) throws ScriptException {
+        try {
+            if (value instanceof REXPString || value instanceof REXPFactor) {
+                return value.asStrings();
+            }
+            if (value instanceof REXPNull) {
+                return new String[0];
+            }
+            if (value instanceof REXPLogical) {
+                byte[] bytes = ((REXPLogical) value).asBytes();
+                String[] result = new String[bytes.length];
+                for (int i = 0; i < bytes.length; i++) {
+                    result[i] = REXPLogical.isNA(bytes[i]) ? null : (bytes[i] == REXPLogical.TRUE ? "TRUE" : "FALSE");
+                }
+                return result;
+            }
+            if (value instanceof REXPInteger) {
+                int[] ints = value.asIntegers();
+                String[] result = new String[ints.length];
+                for (int i = 0; i < ints.length; i++) {
+                    result[i] = REXPInteger.isNA(ints[i]) ? null : String.valueOf(ints[i]);
+                }
+                return result;
+            }
+            if (value instanceof REXPDouble) {
+                double[] doubles = value.asDoubles();
+                String[] result = new String[doubles.length];
+                for (int i = 0; i < doubles.length; i++) {
+                    result[i] = format(doubles[i]);
+                }
+                return result;
+            }
+        } catch (REXPMismatchException e) {
+            throw new ScriptException(e.getMessage());
+        }
+        throw new ScriptException("cannot coerce a list to a character vector");
+    }
+
+    /**
+     * Formats a double the way {@code as.character} does, with up to 15 significant digits.
+     */
+    static String format(double value) {
+        if (REXPDouble.isNA(value)) {
+            return null;
+        }
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        BigDecimal decimal = new BigDecimal(value).round(new MathContext(15)).stripTrailingZeros();
+        if (decimal.scale() > 15 || decimal.precision() - decimal.scale() > 15) {
+            String text = String.format("%.14e", value);
+            String mantissa = text.substring(0, text.indexOf('e')).replaceAll("\\.?0+$", "");
+            int exponent = Integer.parseInt(text.substring(text.indexOf('e') + 1));
+            return mantissa + "e" + (exponent < 0 ? "-" : "+") + (Math.abs(exponent) < 10 ? "0" : "") +
+                    Math.abs(exponent);
+        }
+        return decimal.toPlainString();
+    }
+
+    static boolean isTrue(REXP value) throws ScriptException {
+        byte[] logicals = logicals(value);
+        if (logicals.length == 0 || REXPLogical.isNA(logicals[0])) {
+            throw new ScriptException("missing value where TRUE/FALSE needed");
+        }
+        return logicals[0] == REXPLogical.TRUE;
+    }
+
+    /**
+     * Coerces a value to the given vector type.
+     */
+    static REXP coerce(REXP value, int type) throws ScriptException {
+        switch (type) {
+            case LOGICAL:
+                return new REXPLogical(logicals(value));
+            case INTEGER:
+                return new REXPInteger(integers(value));
+            case DOUBLE:
+                return new REXPDouble(doubles(value));
+            case STRING:
+                return new REXPString(strings(value));
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Selects the elements at the given zero based positions, a negative position selects NA.
+     */
+    static REXP select(REXP value, int[] positions) throws ScriptException {
+        switch (typeOf(value)) {
+            case LOGICAL: {
+                byte[] source = logicals(value);
+                byte[] result = new byte[positions.length];
+                for (int i = 0; i < positions.length; i++) {
+                    result[i] = positions[i] < 0 || positions[i] >= source.length ? REXPLogical.NA :
+                            source[positions[i]];
+                }
+                return new REXPLogical(result);
+            }
+            case INTEGER: {
+                int[] source = integers(value);
+                int[] result = new int[positions.length];
+                for (int i = 0; i < positions.length; i++) {
+                    result[i] = positions[i] < 0 || positions[i] >= source.length ? REXPInteger.NA :
+                            source[positions[i]];
+                }
+                return new REXPInteger(result);
+            }
+            case DOUBLE: {
+                double[] source = doubles(value);
+                double[] result = new double[positions.length];
+                for (int i = 0; i < positions.length; i++) {
+                    result[i] = positions[i] < 0 || positions[i] >= source.length ? REXPDouble.NA :
+                            source[positions[i]];
+                }
+                return new REXPDouble(result);
+            }
+            case STRING: {
+                String[] source = strings(value);
+                String[] result = new String[positions.length];
+                for (int i = 0; i < positions.length; i++) {
+                    result[i] = positions[i] < 0 || positions[i] >= source.length ? null : source[positions[i]];
+                }
+                return new REXPString(result);
+            }
+            default: {
+                RList source = list(value);
+                RList result = new RList();
+                for (int position : positions) {
+                    result.add(position < 0 || position >= source.size() ? new REXPNull() : source.at(position));
+                }
+                return new REXPGenericVector(result);
+            }
+        }
+    }
+
+    static RList list(REXP value) throws ScriptException {
+        try {
+            if (value.isList()) {
+                return value.asList();
+            }
+        } catch (REXPMismatchException e) {
+            throw new ScriptException(e.getMessage());
+        }
+        RList list = new RList();
+        int length = length(value);
+        for (int i = 0; i < length; i++) {
+            list.add(select(value, new int[]{i}));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.exception.SiddhiAppRuntimeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tests handing batches over to the asynchronous evaluator.
+ */
+public class AsyncEvaluatorTestCase {
+
+    @Test
+    public void testInterruptedSubmit() throws Exception {
+        final CountDownLatch evaluating = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final List<RBatch> released = new ArrayList<RBatch>();
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        AsyncEvaluator evaluator = new AsyncEvaluator(new Consumer<RBatch>() {
+            @Override
+            public void accept(RBatch batch) {
+                evaluating.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, new Consumer<RBatch>() {
+            @Override
+            public void accept(RBatch batch) {
+                released.add(batch);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, executorService, true, 1);
+        evaluator.submit(new RBatch());
+        evaluating.await();
+
+        // The only slot is taken, hence the interrupted caller gives the batch back instead of handing it over
+        RBatch batch = new RBatch();
+        Thread.currentThread().interrupt();
+        try {
+            try {
+                evaluator.submit(batch);
+                AssertJUnit.fail("Interrupted submission should fail");
+            } catch (SiddhiAppRuntimeException e) {
+                AssertJUnit.assertTrue(Thread.interrupted());
+            }
+            // The first batch still holds the only slot while it is being evaluated
+            AssertJUnit.assertEquals(1, released.size());
+            AssertJUnit.assertSame(batch, released.get(0));
+            AssertJUnit.assertEquals(1, evaluator.getInFlight());
+        } finally {
+            Thread.interrupted();
+            proceed.countDown();
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedEvaluation() throws Exception {
+        final RBatch failing = new RBatch();
+        final List<RBatch> released = new ArrayList<RBatch>();
+        final CountDownLatch notified = new CountDownLatch(2);
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        AsyncEvaluator evaluator = new AsyncEvaluator(new Consumer<RBatch>() {
+            @Override
+            public void accept(RBatch batch) {
+                if (batch == failing) {
+                    throw new AssertionError("Evaluation failure");
+                }
+            }
+        }, new Consumer<RBatch>() {
+            @Override
+            public void accept(RBatch batch) {
+                released.add(batch);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                notified.countDown();
+            }
+        }, executorService, true, 1);
+        try {
+            // An error thrown by one evaluation neither holds its slot nor stops the batches ordered after it
+            RBatch batch = new RBatch();
+            evaluator.submit(failing);
+            evaluator.submit(batch);
+            AssertJUnit.assertTrue(notified.await(10, TimeUnit.SECONDS));
+            AssertJUnit.assertSame(batch, evaluator.poll());
+            AssertJUnit.assertNull(evaluator.poll());
+            AssertJUnit.assertEquals(0, evaluator.getInFlight());
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedSubmit() throws Exception {
+        final List<RBatch> released = new ArrayList<RBatch>();
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        executorService.shutdown();
+        AsyncEvaluator evaluator = new AsyncEvaluator(new Consumer<RBatch>() {
+            @Override
+            public void accept(RBatch batch) {
+            }
+        }, new Consumer<RBatch>() {
+            @Override
+            public void accept(RBatch batch) {
+                released.add(batch);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, executorService, true, 1);
+        // A batch the executor does not take is released along with its slot
+        RBatch batch = new RBatch();
+        evaluator.submit(batch);
+        evaluator.submit(new RBatch());
+        AssertJUnit.assertEquals(2, released.size());
+        AssertJUnit.assertSame(batch, released.get(0));
+        AssertJUnit.assertEquals(0, evaluator.getInFlight());
+    }
+}
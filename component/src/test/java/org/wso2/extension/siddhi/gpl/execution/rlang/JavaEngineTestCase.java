@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
+import org.wso2.siddhi.core.query.output.callback.QueryCallback;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.EventPrinter;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the R stream processors on the pure Java stand-in engine, hence these tests do not need R.
+ */
+public class JavaEngineTestCase {
+
+    static final Logger LOG = Logger.getLogger(JavaEngineTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testJavaEngineEval() throws InterruptedException {
+        LOG.info("r:eval java engine test");
+        String defineStream = "define stream weather (time long, temp double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from weather#window.lengthBatch(2)" +
+                "#r:eval(\"c <- sum(time); m <- sum(temp); \", \"c long, m double\", time, temp)" +
+                " select c, m" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("query1", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                EventPrinter.print(timeStamp, inEvents, removeEvents);
+                for (Event event : inEvents) {
+                    count.incrementAndGet();
+                    if (count.get() == 1) {
+                        AssertJUnit.assertEquals(30L, event.getData(0));
+                        AssertJUnit.assertEquals(31d, event.getData(1));
+                    }
+                    if (count.get() == 2) {
+                        AssertJUnit.assertEquals(70L, event.getData(0));
+                        AssertJUnit.assertEquals(71d, event.getData(1));
+                    }
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("weather");
+        inputHandler.send(new Object[]{10L, 10.5});
+        inputHandler.send(new Object[]{20L, 20.5});
+        inputHandler.send(new Object[]{30L, 30.5});
+        inputHandler.send(new Object[]{40L, 40.5});
+        inputHandler.send(new Object[]{50L, 50.5});
+        SiddhiTestHelper.waitForEvents(100, 2, count, 10000);
+        AssertJUnit.assertEquals(2, count.get());
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void testJavaEngineEvalSource() throws InterruptedException {
+        LOG.info("r:evalSource java engine test");
+        String defineStream = "define stream weather (time long, temp double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from weather#window.lengthBatch(2)" +
+                "#r:evalSource(\"src/test/resources/sample3.R\", \"c string, m bool\", time, temp)" +
+                " select *" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("query1", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                EventPrinter.print(timeStamp, inEvents, removeEvents);
+                for (Event event : inEvents) {
+                    count.incrementAndGet();
+                    AssertJUnit.assertEquals("178.6", event.getData(2));
+                    AssertJUnit.assertEquals(true, event.getData(3));
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("weather");
+        inputHandler.send(new Object[]{123L, 55.6d});
+        inputHandler.send(new Object[]{101L, 72.3d});
+        SiddhiTestHelper.waitForEvents(100, 1, count, 10000);
+        AssertJUnit.assertEquals(1, count.get());
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class)
+    public void testUnknownEngine() {
+        LOG.info("r:eval unknown engine test");
+        String defineStream = "define stream weather (time long, temp double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from weather#window.lengthBatch(2)" +
+                "#r:eval(\"c <- sum(time); \", \"c long\", time)" +
+                " select c" +
+                " insert into dataOut;";
+        RTestHelper.createSiddhiManager("unknown").createSiddhiAppRuntime(executionPlan);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the adaptation of the micro batch size to the latency target, using a simulated cost of evaluation.
+ */
+public class RAdaptiveBatchTestCase {
+
+    @Test
+    public void testConvergence() {
+        // 2 ms per call and 10 us per row meet a 10 ms target up to 800 rows
+        RAdaptiveBatch adaptiveBatch = new RAdaptiveBatch(10, 16);
+        for (int i = 0; i < 1000; i++) {
+            int rows = adaptiveBatch.getBatchSize();
+            adaptiveBatch.record(rows, 2 + 0.01 * rows);
+        }
+        AssertJUnit.assertTrue(adaptiveBatch.getBatchSize() > 600);
+        AssertJUnit.assertTrue(adaptiveBatch.getBatchSize() <= 800);
+        AssertJUnit.assertEquals(2.0, adaptiveBatch.getCostPerCall(), 0.1);
+        AssertJUnit.assertEquals(0.01, adaptiveBatch.getCostPerRow(), 0.001);
+        AssertJUnit.assertTrue(adaptiveBatch.getLatencyP99() <= 10);
+    }
+
+    @Test
+    public void testCostSpike() {
+        RAdaptiveBatch adaptiveBatch = new RAdaptiveBatch(10, 16);
+        for (int i = 0; i < 1000; i++) {
+            int rows = adaptiveBatch.getBatchSize();
+            adaptiveBatch.record(rows, 2 + 0.01 * rows);
+        }
+        // Rows become ten times as expensive, the batches shrink to meet the target again
+        for (int i = 0; i < 1000; i++) {
+            int rows = adaptiveBatch.getBatchSize();
+            adaptiveBatch.record(rows, 2 + 0.1 * rows);
+        }
+        AssertJUnit.assertTrue(adaptiveBatch.getBatchSize() <= 80);
+        AssertJUnit.assertTrue(adaptiveBatch.getBatchSize() > 40);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests evaluating batches off the Siddhi thread.
+ */
+public class RAsyncTestCase {
+
+    static final Logger LOG = Logger.getLogger(RAsyncTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testAsyncEval() throws InterruptedException {
+        LOG.info("r:eval async java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream weather (time long, temp double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from weather#window.lengthBatch(2)" +
+                "#r:eval(\"Sys.sleep(0.2); c <- sum(time); m <- sum(temp)\", \"c long, m double\", " +
+                "'mode=async, async.max.in.flight=4', time, temp)" +
+                " select c, m" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(siddhiManager, executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("weather");
+        long start = System.currentTimeMillis();
+        for (int i = 1; i <= 6; i++) {
+            inputHandler.send(new Object[]{i * 10L, i + 0.5});
+        }
+        // Sending does not wait for the evaluations, which take 600 ms in total
+        AssertJUnit.assertTrue(System.currentTimeMillis() - start < 400);
+        SiddhiTestHelper.waitForEvents(100, 3, count, 10000);
+        AssertJUnit.assertEquals(3, count.get());
+        // Results keep the order of the batches
+        AssertJUnit.assertArrayEquals(new Object[]{30L, 4.0}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{70L, 8.0}, results.get(1));
+        AssertJUnit.assertArrayEquals(new Object[]{110L, 12.0}, results.get(2));
+        siddhiAppRuntime.shutdown();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.RBackend;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.RBackendFactory;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.RserveBackend;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter.Builtins;
+import org.wso2.extension.siddhi.gpl.execution.rlang.engine.interpreter.ScriptAnalyzer;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+import org.wso2.siddhi.core.util.config.InMemoryConfigReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests evaluating simple aggregation scripts in Java instead of R.
+ */
+public class RFastPathTestCase {
+
+    static final Logger LOG = Logger.getLogger(RFastPathTestCase.class);
+
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+    }
+
+    @Test
+    public void testFastPath() throws InterruptedException {
+        LOG.info("r:eval fast path test");
+        AssertJUnit.assertTrue(ScriptAnalyzer.isNative("c <- sum(time); m <- mean(temp, na.rm = TRUE)",
+                Arrays.asList("time", "temp")));
+        AssertJUnit.assertFalse(ScriptAnalyzer.isNative("m <- mean(temp, 0.1)", Arrays.asList("temp")));
+        AssertJUnit.assertFalse(ScriptAnalyzer.isNative("m <- temp * pi", Arrays.asList("temp")));
+        AssertJUnit.assertFalse(ScriptAnalyzer.isNative("m <- log(temp)", Arrays.asList("temp")));
+        AssertJUnit.assertFalse(ScriptAnalyzer.isNative("if (!exists('m')) m <- 0", Arrays.asList("temp")));
+        AssertJUnit.assertFalse(ScriptAnalyzer.isNative("b <- coef(lm(temp ~ time))[2]",
+                Arrays.asList("time", "temp")));
+        // The extended precision of R loses the 1 next to 1e20, unlike a compensated sum
+        AssertJUnit.assertEquals(0.0, Builtins.sum(new double[]{1e20, 1, -1e20}));
+        AssertJUnit.assertEquals(1.0, Builtins.sum(new double[]{1e16, 1, -1e16}));
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        // The script only uses functions implemented in Java, hence it runs although JRI is selected
+        String executionPlan = "define stream weather (time long, temp double); " +
+                "@info(name = 'query1') from weather#window.lengthBatch(4)" +
+                "#r:eval(\"q <- quantile(temp, 0.9); m <- mean(temp); v <- var(temp)\", " +
+                "\"q double, m double, v double\", time, temp)" +
+                " select q, m, v" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(
+                RTestHelper.createSiddhiManager("jri", "fast.path", "true"), executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("weather");
+        inputHandler.send(new Object[]{1L, 2.0});
+        inputHandler.send(new Object[]{2L, 4.0});
+        inputHandler.send(new Object[]{3L, 6.0});
+        inputHandler.send(new Object[]{4L, 9.0});
+        SiddhiTestHelper.waitForEvents(100, 1, count, 10000);
+        siddhiAppRuntime.shutdown();
+        AssertJUnit.assertEquals(1, count.get());
+        double h = 1 + 3 * 0.9 - 3;
+        AssertJUnit.assertEquals((1 - h) * 6 + h * 9, (Double) results.get(0)[0], 0);
+        AssertJUnit.assertEquals(5.25, (Double) results.get(0)[1], 0);
+        AssertJUnit.assertEquals(26.75 / 3, (Double) results.get(0)[2], 0);
+    }
+
+    @Test
+    public void testSameResultsAsR() throws Exception {
+        LOG.info("r:eval fast path against R test");
+        if (System.getenv("R_HOME") != null) {
+            // Every function the analyzer accepts must give R's result to the last bit, on awkward inputs too
+            String[] expressions = {"sum(x)", "mean(x)", "var(x)", "sd(x)", "median(x)", "quantile(x, 0.9)",
+                    "min(x)", "max(x)", "range(x)", "length(x)", "sqrt(abs(x))", "x * 3 / 7 + 1 - x", "x[[2]]",
+                    "c(x, sum(x))[length(x) + 1]"};
+            Random random = new Random(42);
+            List<double[]> inputs = new ArrayList<double[]>();
+            inputs.add(new double[]{1e20, 1, -1e20});
+            inputs.add(new double[]{0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 0.9, 1.0});
+            for (int size : new int[]{2, 1000, 1001}) {
+                double[] values = new double[size];
+                for (int i = 0; i < size; i++) {
+                    values[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(31) - 15);
+                }
+                inputs.add(values);
+            }
+            Map<String, String> configs = new HashMap<String, String>();
+            configs.put("r.eval." + RBackendFactory.ENGINE, RBackendFactory.RSERVE);
+            configs.put("r.eval." + RserveBackend.WORKERS, "1");
+            configs.put("r.eval." + RserveBackend.PORT, "6398");
+            RBackend r = RBackendFactory.acquire(new InMemoryConfigReader("r.eval", configs));
+            RBackend java = RBackendFactory.acquire(new InMemoryConfigReader("r.eval", configs),
+                    RBackendFactory.JAVA);
+            REXP rEnv = r.newEnvironment();
+            REXP javaEnv = java.newEnvironment();
+            try {
+                for (String expression : expressions) {
+                    String script = "result <- " + expression;
+                    AssertJUnit.assertTrue(expression, ScriptAnalyzer.isNative(script, Arrays.asList("x")));
+                    for (double[] input : inputs) {
+                        double[] expected = evaluate(r, rEnv, script, input);
+                        double[] actual = evaluate(java, javaEnv, script, input);
+                        AssertJUnit.assertEquals(expression, expected.length, actual.length);
+                        for (int i = 0; i < expected.length; i++) {
+                            AssertJUnit.assertEquals(expression + " of " + input.length + " values",
+                                    Double.doubleToRawLongBits(expected[i]), Double.doubleToRawLongBits(actual[i]));
+                        }
+                    }
+                }
+            } finally {
+                r.releaseEnvironment(rEnv);
+                java.releaseEnvironment(javaEnv);
+                RBackendFactory.release(r);
+                RBackendFactory.release(java);
+            }
+        }
+    }
+
+    private static double[] evaluate(RBackend backend, REXP env, String script, double[] input) throws Exception {
+        REXP result = backend.evaluate(env, new String[]{"x"}, new REXP[]{new REXPDouble(input)},
+                backend.parse(script), backend.parse("list(result)"));
+        return ((REXP) result.asList().get(0)).asDoubles();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests the metrics of the stages of an evaluation.
+ */
+public class RMetricsTestCase {
+
+    static final Logger LOG = Logger.getLogger(RMetricsTestCase.class);
+
+    private SiddhiManager siddhiManager;
+
+    @BeforeMethod
+    public void init() {
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        LOG.info("r:eval metrics java engine test");
+        String defineStream = "define stream readings (value double, label string); ";
+        String executionPlan = "@app:name('metrics') @app:statistics(reporter = 'jmx') " + defineStream +
+                " @info(name = 'query1') from readings#window.lengthBatch(4)" +
+                "#r:eval(\"total <- sum(value)\", \"total double\", value, label)" +
+                " select total" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.start();
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        for (int i = 0; i < 8; i++) {
+            inputHandler.send(new Object[]{1.0, "abcd"});
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Map<String, ObjectName> metrics = new HashMap<String, ObjectName>();
+        for (ObjectName name : server.queryNames(null, null)) {
+            String metric = name.getKeyProperty("name");
+            if (metric != null && metric.contains(".SiddhiApps.metrics.Siddhi.Queries.query1.r.")) {
+                metrics.put(metric.substring(metric.lastIndexOf(".r.") + 3), name);
+            }
+        }
+        // Each batch holds 4 doubles of 8 bytes and 4 strings of 12 bytes
+        AssertJUnit.assertEquals(2L, server.getAttribute(metrics.get("batch.size"), "Count"));
+        AssertJUnit.assertEquals(4.0, server.getAttribute(metrics.get("batch.size"), "Mean"));
+        AssertJUnit.assertEquals(80.0, server.getAttribute(metrics.get("batch.bytes"), "Mean"));
+        AssertJUnit.assertEquals(2L, server.getAttribute(metrics.get("marshal"), "Count"));
+        AssertJUnit.assertEquals(2L, server.getAttribute(metrics.get("eval"), "Count"));
+        AssertJUnit.assertEquals(2L, server.getAttribute(metrics.get("unmarshal"), "Count"));
+        AssertJUnit.assertEquals(0L, server.getAttribute(metrics.get("errors"), "Count"));
+        siddhiAppRuntime.shutdown();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.query.output.callback.QueryCallback;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests micro batching the events of queries without a batch window.
+ */
+public class RMicroBatchTestCase {
+
+    static final Logger LOG = Logger.getLogger(RMicroBatchTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testMicroBatch() throws InterruptedException {
+        LOG.info("r:eval micro batch java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (value double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings" +
+                "#r:eval(\"total <- sum(value); n <- length(value)\", \"total double, n int\", " +
+                "'batch.size=3, batch.latency=200', value)" +
+                " select total, n" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(siddhiManager, executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{1.0});
+        inputHandler.send(new Object[]{2.0});
+        AssertJUnit.assertEquals(0, count.get());
+        // The third event fills the micro batch
+        inputHandler.send(new Object[]{4.0});
+        AssertJUnit.assertEquals(1, count.get());
+        // A lone event is flushed once it has waited for the latency
+        inputHandler.send(new Object[]{8.0});
+        SiddhiTestHelper.waitForEvents(100, 2, count, 10000);
+        AssertJUnit.assertEquals(2, count.get());
+        AssertJUnit.assertArrayEquals(new Object[]{7.0, 3}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{8.0, 1}, results.get(1));
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void testAdaptiveBatch() throws Exception {
+        LOG.info("r:eval adaptive batch java engine test");
+        String defineStream = "define stream readings (value double); ";
+        String executionPlan = "@app:name('adaptive') " + defineStream + " @info(name = 'query1') from readings" +
+                "#r:eval(\"total <- sum(value)\", \"total double\", " +
+                "'batch.size=4, batch.latency.target=1000', value)" +
+                " select total" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("query1", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                count.addAndGet(inEvents.length);
+            }
+        });
+        siddhiAppRuntime.start();
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        for (int i = 0; i < 64; i++) {
+            inputHandler.send(new Object[]{1.0});
+        }
+        AssertJUnit.assertEquals(16, count.get());
+        // Batches this cheap grow once enough of them are measured
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = server.queryNames(new ObjectName(
+                "org.wso2.extension.siddhi.gpl.execution.rlang:type=AdaptiveBatch,app=\"adaptive\",*"), null)
+                .iterator().next();
+        AssertJUnit.assertEquals(16L, server.getAttribute(name, "Evaluations"));
+        AssertJUnit.assertTrue((Integer) server.getAttribute(name, "BatchSize") > 4);
+        siddhiAppRuntime.shutdown();
+        AssertJUnit.assertFalse(server.isRegistered(name));
+    }
+}
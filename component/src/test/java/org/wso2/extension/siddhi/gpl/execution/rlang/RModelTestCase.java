@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.query.output.callback.QueryCallback;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.EventPrinter;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the models loaded from files, and the models trained by one query and scored by another.
+ */
+public class RModelTestCase {
+
+    static final Logger LOG = Logger.getLogger(RModelTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testModel() throws InterruptedException {
+        LOG.info("r:evalSource model java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (value double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings#window.lengthBatch(2)" +
+                "#r:eval(\"score <- sum(model$slope * value + model$intercept)\", \"score double\", " +
+                "'model.model=src/test/resources/model.R', value)" +
+                " select score" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(siddhiManager, executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{1.0});
+        inputHandler.send(new Object[]{2.0});
+        SiddhiTestHelper.waitForEvents(100, 1, count, 10000);
+        AssertJUnit.assertEquals(1, count.get());
+        AssertJUnit.assertArrayEquals(new Object[]{8.0}, results.get(0));
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void testTrainAndScore() throws InterruptedException {
+        LOG.info("r:eval train and score java engine test");
+        final AtomicInteger trained = new AtomicInteger(0);
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStreams = "define stream history (value double); define stream readings (value double); ";
+        String executionPlan = defineStreams + " @info(name = 'train') from history#window.lengthBatch(2)" +
+                "#r:eval(\"fit <- list(mean = mean(value)); n <- length(value)\", \"n int\", 'train=fit', value)" +
+                " select n" +
+                " insert into fits;" +
+                " @info(name = 'score') from readings" +
+                "#r:eval(\"deviation <- if (is.null(fit)) 0 else value - fit$mean\", \"deviation double\", " +
+                "'score=fit', value)" +
+                " select deviation" +
+                " insert into scores;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("train", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                EventPrinter.print(timeStamp, inEvents, removeEvents);
+                trained.addAndGet(inEvents.length);
+            }
+        });
+        siddhiAppRuntime.addCallback("score", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                EventPrinter.print(timeStamp, inEvents, removeEvents);
+                for (Event event : inEvents) {
+                    results.add(event.getData());
+                    count.incrementAndGet();
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        InputHandler readings = siddhiAppRuntime.getInputHandler("readings");
+        // Nothing has been trained yet
+        readings.send(new Object[]{5.0});
+        InputHandler history = siddhiAppRuntime.getInputHandler("history");
+        history.send(new Object[]{1.0});
+        history.send(new Object[]{3.0});
+        SiddhiTestHelper.waitForEvents(100, 1, trained, 10000);
+        AssertJUnit.assertEquals(1, trained.get());
+        readings.send(new Object[]{5.0});
+        SiddhiTestHelper.waitForEvents(100, 2, count, 10000);
+        AssertJUnit.assertEquals(2, count.get());
+        AssertJUnit.assertArrayEquals(new Object[]{0.0}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{3.0}, results.get(1));
+        siddhiAppRuntime.shutdown();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests emitting the outputs of a batch per input event and per row of a data frame.
+ */
+public class ROutputTestCase {
+
+    static final Logger LOG = Logger.getLogger(ROutputTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testPerEventOutput() throws InterruptedException {
+        LOG.info("r:eval per event output java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (sensor string, value double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings#window.lengthBatch(4)" +
+                "#r:eval(\"score <- value * 2; alert <- value > mean(value); n <- length(value)\", " +
+                "\"score double, alert bool, n int\", 'output=event, shard.by=sensor', sensor, value)" +
+                " select sensor, value, score, alert, n" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(
+                RTestHelper.createSiddhiManager("java", "java.workers", "2"), executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{"s1", 1.0});
+        inputHandler.send(new Object[]{"s2", 10.0});
+        inputHandler.send(new Object[]{"s1", 3.0});
+        inputHandler.send(new Object[]{"s2", 20.0});
+        SiddhiTestHelper.waitForEvents(100, 4, count, 10000);
+        AssertJUnit.assertEquals(4, count.get());
+        // Every event gets its own row of the per key evaluation, in the order of arrival
+        AssertJUnit.assertArrayEquals(new Object[]{"s1", 1.0, 2.0, false, 2}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{"s2", 10.0, 20.0, false, 2}, results.get(1));
+        AssertJUnit.assertArrayEquals(new Object[]{"s1", 3.0, 6.0, true, 2}, results.get(2));
+        AssertJUnit.assertArrayEquals(new Object[]{"s2", 20.0, 40.0, true, 2}, results.get(3));
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void testDataFrameOutput() throws InterruptedException {
+        LOG.info("r:eval data frame output java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (value double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings#window.lengthBatch(4)" +
+                "#r:eval(\"top <- data.frame(rank = 1:2, best = head(sort(value, decreasing = TRUE), 2), " +
+                "n = length(value))\", \"rank int, best double, n long\", 'output=rows, output.frame=top', value)" +
+                " select rank, best, n" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(siddhiManager, executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{3.0});
+        inputHandler.send(new Object[]{9.0});
+        inputHandler.send(new Object[]{1.0});
+        inputHandler.send(new Object[]{7.0});
+        SiddhiTestHelper.waitForEvents(100, 2, count, 10000);
+        AssertJUnit.assertEquals(2, count.get());
+        // One event per row of the data frame
+        AssertJUnit.assertArrayEquals(new Object[]{1, 9.0, 4L}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{2, 7.0, 4L}, results.get(1));
+        siddhiAppRuntime.shutdown();
+    }
+}
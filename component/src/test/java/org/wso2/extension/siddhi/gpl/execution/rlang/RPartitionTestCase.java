@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.core.util.EventPrinter;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the pooled environments of partitioned queries.
+ */
+public class RPartitionTestCase {
+
+    static final Logger LOG = Logger.getLogger(RPartitionTestCase.class);
+
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+    }
+
+    @Test
+    public void testPartitionEnvironments() throws InterruptedException {
+        LOG.info("r:eval partitioned java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String executionPlan = "define stream readings (sensor string, region string, value double); " +
+                "partition with (sensor of readings) begin " +
+                "@info(name = 'query1') from readings#window.lengthBatch(1)" +
+                "#r:eval(\"if (!exists('total')) total <- 0; total <- total + sum(value); last <- region[1]\", " +
+                "\"total double, last string\", 'strings=factor', region, value)" +
+                " select sensor, total, last" +
+                " insert into dataOut; " +
+                "end;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.createSiddhiManager("java", "environments.max", "1")
+                .createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("dataOut", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                EventPrinter.print(events);
+                for (Event event : events) {
+                    results.add(event.getData());
+                    count.incrementAndGet();
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{"s1", "eu", 1.0});
+        inputHandler.send(new Object[]{"s1", "us", 2.0});
+        // A single environment is kept, hence s2 gets the one of s1 once reset, and s1 then gets it back reset
+        inputHandler.send(new Object[]{"s2", "us", 4.0});
+        inputHandler.send(new Object[]{"s1", "eu", 8.0});
+        SiddhiTestHelper.waitForEvents(100, 4, count, 10000);
+        AssertJUnit.assertEquals(4, count.get());
+        AssertJUnit.assertArrayEquals(new Object[]{"s1", 1.0, "eu"}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{"s1", 3.0, "us"}, results.get(1));
+        AssertJUnit.assertArrayEquals(new Object[]{"s2", 4.0, "us"}, results.get(2));
+        AssertJUnit.assertArrayEquals(new Object[]{"s1", 8.0, "eu"}, results.get(3));
+        siddhiAppRuntime.shutdown();
+    }
+}
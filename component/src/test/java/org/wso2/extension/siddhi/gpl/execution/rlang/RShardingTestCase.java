@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests sharding batches by key across the R workers, and evaluating the groups of a batch in one call.
+ */
+public class RShardingTestCase {
+
+    static final Logger LOG = Logger.getLogger(RShardingTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testShardedEval() throws InterruptedException {
+        LOG.info("r:eval sharded java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (sensor string, value double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings#window.lengthBatch(6)" +
+                "#r:eval(\"total <- sum(value); n <- length(value)\", \"total double, n int\", " +
+                "'shard.by=sensor', sensor, value)" +
+                " select sensor, total, n" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(
+                RTestHelper.createSiddhiManager("java", "java.workers", "2"), executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{"s2", 1.0});
+        inputHandler.send(new Object[]{"s1", 2.0});
+        inputHandler.send(new Object[]{"s2", 3.0});
+        inputHandler.send(new Object[]{"s3", 4.0});
+        inputHandler.send(new Object[]{"s1", 5.0});
+        inputHandler.send(new Object[]{"s4", 6.0});
+        SiddhiTestHelper.waitForEvents(100, 4, count, 10000);
+        AssertJUnit.assertEquals(4, count.get());
+        // Results leave in the order the keys first appeared in the batch
+        AssertJUnit.assertArrayEquals(new Object[]{"s2", 4.0, 2}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{"s1", 7.0, 2}, results.get(1));
+        AssertJUnit.assertArrayEquals(new Object[]{"s3", 4.0, 1}, results.get(2));
+        AssertJUnit.assertArrayEquals(new Object[]{"s4", 6.0, 1}, results.get(3));
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class)
+    public void testUnknownShardKey() {
+        LOG.info("r:eval unknown shard key test");
+        String defineStream = "define stream weather (time long, temp double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from weather#window.lengthBatch(2)" +
+                "#r:eval(\"c <- sum(time); \", \"c long\", 'shard.by=sensor', time)" +
+                " select c" +
+                " insert into dataOut;";
+        siddhiManager.createSiddhiAppRuntime(executionPlan);
+    }
+
+    @Test
+    public void testGroupBy() throws InterruptedException {
+        LOG.info("r:eval group by java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (sensor string, value double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings#window.lengthBatch(5)" +
+                "#r:eval(\"avg <- mean(value); n <- length(value)\", \"avg double, n int\", 'group.by=sensor', " +
+                "sensor, value)" +
+                " select sensor, avg, n" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(siddhiManager, executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{"s1", 1.0});
+        inputHandler.send(new Object[]{"s2", 10.0});
+        inputHandler.send(new Object[]{"s1", 3.0});
+        inputHandler.send(new Object[]{"s3", 5.0});
+        inputHandler.send(new Object[]{"s2", 20.0});
+        SiddhiTestHelper.waitForEvents(100, 3, count, 10000);
+        AssertJUnit.assertEquals(3, count.get());
+        // One event per group, in the order the groups first appear in the batch
+        AssertJUnit.assertArrayEquals(new Object[]{"s1", 2.0, 2}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{"s2", 15.0, 2}, results.get(1));
+        AssertJUnit.assertArrayEquals(new Object[]{"s3", 5.0, 1}, results.get(2));
+        siddhiAppRuntime.shutdown();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.query.output.callback.QueryCallback;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+import org.wso2.siddhi.core.util.persistence.IncrementalFileSystemPersistenceStore;
+import org.wso2.siddhi.core.util.snapshot.PersistenceReference;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests saving the environment of a query in Siddhi snapshots.
+ */
+public class RSnapshotTestCase {
+
+    static final Logger LOG = Logger.getLogger(RSnapshotTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        LOG.info("r:eval snapshot java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String executionPlan = "@app:name('snapshot') define stream readings (value double); " +
+                "@info(name = 'query1') from readings#window.length(3)" +
+                "#r:eval(\"if (!exists('calls')) calls <- 0; if (!exists('total')) total <- 0; " +
+                "if (!exists('n')) n <- 0; calls <- calls + 1; " +
+                "total <- total + sum(.added$value) - sum(.removed$value); " +
+                "n <- n + length(.added$value) - length(.removed$value); m <- total / n\", " +
+                "\"m double, calls double\", 'window=delta', value)" +
+                " select m, calls" +
+                " insert into dataOut;";
+        QueryCallback callback = RTestHelper.collect(results, count);
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("query1", callback);
+        siddhiAppRuntime.start();
+        for (int i = 1; i <= 3; i++) {
+            siddhiAppRuntime.getInputHandler("readings").send(new Object[]{(double) i});
+        }
+        SiddhiTestHelper.waitForEvents(100, 3, count, 10000);
+        byte[] snapshot = siddhiAppRuntime.snapshot();
+        siddhiAppRuntime.shutdown();
+
+        // The variables of the script and the pending expirations carry on from the snapshot
+        siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("query1", callback);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.restore(snapshot);
+        siddhiAppRuntime.getInputHandler("readings").send(new Object[]{4.0});
+        // Unchanged variables are not serialized again, yet every variable is part of the next snapshot
+        siddhiAppRuntime.restore(siddhiAppRuntime.snapshot());
+        siddhiAppRuntime.getInputHandler("readings").send(new Object[]{5.0});
+        SiddhiTestHelper.waitForEvents(100, 5, count, 10000);
+        AssertJUnit.assertArrayEquals(new Object[]{2.0, 3.0}, results.get(2));
+        AssertJUnit.assertArrayEquals(new Object[]{3.0, 4.0}, results.get(3));
+        AssertJUnit.assertArrayEquals(new Object[]{4.0, 5.0}, results.get(4));
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void testIncrementalPersistence() throws Exception {
+        LOG.info("r:eval incremental persistence java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String executionPlan = "@app:name('incrementalPersistence') define stream readings (value double); " +
+                "@info(name = 'query1') from readings#window.length(3)" +
+                "#r:eval(\"if (!exists('calls')) calls <- 0; if (!exists('total')) total <- 0; " +
+                "if (!exists('n')) n <- 0; calls <- calls + 1; " +
+                "total <- total + sum(.added$value) - sum(.removed$value); " +
+                "n <- n + length(.added$value) - length(.removed$value); m <- total / n\", " +
+                "\"m double, calls double\", 'window=delta', value)" +
+                " select m, calls" +
+                " insert into dataOut;";
+        QueryCallback callback = RTestHelper.collect(results, count);
+        SiddhiManager siddhiManager = RTestHelper.createSiddhiManager("java");
+        siddhiManager.setIncrementalPersistenceStore(new IncrementalFileSystemPersistenceStore(
+                Files.createTempDirectory("siddhi-r-persistence").toString()));
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("query1", callback);
+        siddhiAppRuntime.start();
+        // The first persistence saves every variable, the following ones the changed variables only
+        for (int i = 1; i <= 4; i++) {
+            siddhiAppRuntime.getInputHandler("readings").send(new Object[]{(double) i});
+            if (i >= 2) {
+                persist(siddhiAppRuntime);
+            }
+        }
+        SiddhiTestHelper.waitForEvents(100, 4, count, 10000);
+        siddhiAppRuntime.shutdown();
+
+        siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("query1", callback);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.restoreLastRevision();
+        siddhiAppRuntime.getInputHandler("readings").send(new Object[]{5.0});
+        SiddhiTestHelper.waitForEvents(100, 5, count, 10000);
+        AssertJUnit.assertArrayEquals(new Object[]{3.0, 4.0}, results.get(3));
+        AssertJUnit.assertArrayEquals(new Object[]{4.0, 5.0}, results.get(4));
+        siddhiAppRuntime.shutdown();
+    }
+
+    private static void persist(SiddhiAppRuntime siddhiAppRuntime) throws Exception {
+        PersistenceReference reference = siddhiAppRuntime.persist();
+        for (Future<?> future : reference.getIncrementalStateFuture()) {
+            future.get();
+        }
+        // Revisions are named after the time they are taken at
+        Thread.sleep(10);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.testng.AssertJUnit;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.query.output.callback.QueryCallback;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.EventPrinter;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+import org.wso2.siddhi.core.util.config.InMemoryConfigManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Set-up shared by the tests which run the R stream processors on a given engine.
+ */
+final class RTestHelper {
+
+    private RTestHelper() {
+
+    }
+
+    /**
+     * Creates a Siddhi manager whose R stream processors run on the given engine.
+     *
+     * @param engine           name of the engine
+     * @param systemParameters further system parameters of both processors, as pairs of name and value
+     * @return Siddhi manager
+     */
+    static SiddhiManager createSiddhiManager(String engine, String... systemParameters) {
+        Map<String, String> configs = new HashMap<>();
+        configs.put("r.eval.engine", engine);
+        configs.put("r.evalSource.engine", engine);
+        for (int i = 0; i < systemParameters.length; i += 2) {
+            configs.put("r.eval." + systemParameters[i], systemParameters[i + 1]);
+            configs.put("r.evalSource." + systemParameters[i], systemParameters[i + 1]);
+        }
+        SiddhiManager siddhiManager = new SiddhiManager();
+        siddhiManager.setConfigManager(new InMemoryConfigManager(configs, null));
+        return siddhiManager;
+    }
+
+    /**
+     * Creates and starts a Siddhi app, collecting the events emitted by its query 'query1'.
+     *
+     * @param siddhiManager Siddhi manager
+     * @param executionPlan Siddhi app
+     * @param results       list receiving the data of the events
+     * @param count         counter of the events
+     * @return started Siddhi app
+     */
+    static SiddhiAppRuntime start(SiddhiManager siddhiManager, String executionPlan, List<Object[]> results,
+                                  AtomicInteger count) {
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("query1", collect(results, count));
+        siddhiAppRuntime.start();
+        return siddhiAppRuntime;
+    }
+
+    /**
+     * Creates a query callback which collects the data of the emitted events.
+     *
+     * @param results list receiving the data of the events
+     * @param count   counter of the events
+     * @return query callback
+     */
+    static QueryCallback collect(final List<Object[]> results, final AtomicInteger count) {
+        return new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                EventPrinter.print(timeStamp, inEvents, removeEvents);
+                for (Event event : inEvents) {
+                    results.add(event.getData());
+                    count.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Sends the values 1 to 5 through a length window of 3 events evaluated by r:eval.
+     *
+     * @param siddhiManager Siddhi manager
+     * @param count         counter of the events
+     * @param parameters    parameters of r:eval before the input attribute 'value'
+     * @return the first two outputs of each event
+     */
+    static List<Object[]> runSlidingWindow(SiddhiManager siddhiManager, final AtomicInteger count, String parameters)
+            throws InterruptedException {
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (value double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings#window.length(3)" +
+                "#r:eval(" + parameters + ", value)" +
+                " select *" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+        siddhiAppRuntime.addCallback("query1", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                EventPrinter.print(timeStamp, inEvents, removeEvents);
+                for (Event event : inEvents) {
+                    results.add(new Object[]{event.getData(1), event.getData(2)});
+                    count.incrementAndGet();
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        for (int i = 1; i <= 5; i++) {
+            inputHandler.send(new Object[]{(double) i});
+        }
+        SiddhiTestHelper.waitForEvents(100, 5, count, 10000);
+        AssertJUnit.assertEquals(5, count.get());
+        siddhiAppRuntime.shutdown();
+        return results;
+    }
+}
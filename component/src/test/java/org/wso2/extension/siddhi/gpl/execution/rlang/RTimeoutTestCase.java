@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the evaluation timeouts, their fallback outputs and the circuit breaker.
+ */
+public class RTimeoutTestCase {
+
+    static final Logger LOG = Logger.getLogger(RTimeoutTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        LOG.info("r:eval timeout java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (value double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings#window.lengthBatch(1)" +
+                "#r:eval(\"if (value > 100) Sys.sleep(value / 1000); total <- value; label <- 'ok'\", " +
+                "\"total double, label string\", " +
+                "'timeout=200, on.timeout=fallback, fallback=-1;late, breaker.threshold=2, breaker.cooldown=60000', " +
+                "value)" +
+                " select total, label" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(siddhiManager, executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{1.0});
+        // The script hangs, it is interrupted and the fallback outputs are emitted instead
+        long start = System.currentTimeMillis();
+        inputHandler.send(new Object[]{60000.0});
+        AssertJUnit.assertTrue(System.currentTimeMillis() - start < 10000);
+        inputHandler.send(new Object[]{60000.0});
+        // Two timeouts in a row open the circuit breaker, R is skipped for the cool-down period
+        inputHandler.send(new Object[]{2.0});
+        AssertJUnit.assertEquals(4, count.get());
+        AssertJUnit.assertArrayEquals(new Object[]{1.0, "ok"}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{-1.0, "late"}, results.get(1));
+        AssertJUnit.assertArrayEquals(new Object[]{-1.0, "late"}, results.get(2));
+        AssertJUnit.assertArrayEquals(new Object[]{-1.0, "late"}, results.get(3));
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void testTimeoutReset() throws InterruptedException {
+        LOG.info("r:eval timeout reset java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (value double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings#window.lengthBatch(1)" +
+                "#r:eval(\"if (!exists('n')) n <- 0; n <- n + 1; if (value > 100) Sys.sleep(value / 1000)\", " +
+                "\"n double\", 'timeout=200, on.timeout=fallback, fallback=-1', value)" +
+                " select n" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(siddhiManager, executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{1.0});
+        inputHandler.send(new Object[]{2.0});
+        inputHandler.send(new Object[]{60000.0});
+        // The environment of the interrupted evaluation is reset before the next batch is evaluated in it
+        SiddhiTestHelper.waitForEvents(100, 3, count, 10000);
+        Thread.sleep(500);
+        inputHandler.send(new Object[]{3.0});
+        SiddhiTestHelper.waitForEvents(100, 4, count, 10000);
+        siddhiAppRuntime.shutdown();
+        AssertJUnit.assertEquals(4, count.get());
+        AssertJUnit.assertArrayEquals(new Object[]{1.0}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{2.0}, results.get(1));
+        AssertJUnit.assertArrayEquals(new Object[]{-1.0}, results.get(2));
+        AssertJUnit.assertArrayEquals(new Object[]{1.0}, results.get(3));
+    }
+}
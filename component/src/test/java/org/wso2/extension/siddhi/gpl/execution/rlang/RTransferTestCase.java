@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the ways the input columns are handed over to R.
+ */
+public class RTransferTestCase {
+
+    static final Logger LOG = Logger.getLogger(RTransferTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testReusedInputBuffers() throws InterruptedException {
+        LOG.info("r:eval reused input buffers java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream weather (time long, temp double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from weather#window.lengthBatch(2)" +
+                "#r:eval(\"last <- if (exists('previous')) sum(previous) else 0; previous <- temp\", " +
+                "\"last double\", time, temp)" +
+                " select last" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(siddhiManager, executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("weather");
+        for (int i = 1; i <= 6; i++) {
+            inputHandler.send(new Object[]{(long) i, (double) i});
+        }
+        SiddhiTestHelper.waitForEvents(100, 3, count, 10000);
+        AssertJUnit.assertEquals(3, count.get());
+        // Batches of the same size share their input buffers, which must not leak into the state of the script
+        AssertJUnit.assertEquals(0.0, results.get(0)[0]);
+        AssertJUnit.assertEquals(3.0, results.get(1)[0]);
+        AssertJUnit.assertEquals(7.0, results.get(2)[0]);
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void testFileTransfer() throws InterruptedException {
+        LOG.info("r:eval file transfer java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (sensor string, time long, count int, value double, " +
+                "valid bool); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings#window.lengthBatch(3)" +
+                "#r:eval(\"total <- sum(value[valid]); n <- sum(count); last <- paste0(sensor[3], time[3])\", " +
+                "\"total double, n int, last string\", 'transfer=file', sensor, time, count, value, valid)" +
+                " select total, n, last" +
+                " insert into dataOut;";
+        SiddhiManager fileTransferManager = RTestHelper.createSiddhiManager("java", "transfer.directory",
+                System.getProperty("java.io.tmpdir"));
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(fileTransferManager, executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{"s1", 1L, 2, 1.5, true});
+        inputHandler.send(new Object[]{"s2", 2L, 3, 10.0, false});
+        inputHandler.send(new Object[]{"s3", 3L, 4, 2.5, true});
+        SiddhiTestHelper.waitForEvents(100, 1, count, 10000);
+        AssertJUnit.assertEquals(1, count.get());
+        AssertJUnit.assertArrayEquals(new Object[]{4.0, 9, "s33"}, results.get(0));
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void testFactorStrings() throws InterruptedException {
+        LOG.info("r:eval factor strings java engine test");
+        final List<Object[]> results = Collections.synchronizedList(new ArrayList<Object[]>());
+        String defineStream = "define stream readings (sensor string, region string, value double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from readings#window.lengthBatch(3)" +
+                "#r:eval(\"last <- region[length(region)]; eu <- sum(value[region == 'eu'])\", " +
+                "\"last string, eu double\", 'strings=factor, shard.by=sensor', sensor, region, value)" +
+                " select sensor, last, eu" +
+                " insert into dataOut;";
+        SiddhiAppRuntime siddhiAppRuntime = RTestHelper.start(
+                RTestHelper.createSiddhiManager("java", "java.workers", "2"), executionPlan, results, count);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("readings");
+        inputHandler.send(new Object[]{"s1", "eu", 1.0});
+        inputHandler.send(new Object[]{"s2", "us", 2.0});
+        inputHandler.send(new Object[]{"s1", "us", 4.0});
+        // Later batches reuse the levels already sent, and add new ones
+        inputHandler.send(new Object[]{"s2", "eu", 8.0});
+        inputHandler.send(new Object[]{"s1", "eu", 16.0});
+        inputHandler.send(new Object[]{"s2", "apac", 32.0});
+        SiddhiTestHelper.waitForEvents(100, 4, count, 10000);
+        AssertJUnit.assertEquals(4, count.get());
+        AssertJUnit.assertArrayEquals(new Object[]{"s1", "us", 1.0}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{"s2", "us", 0.0}, results.get(1));
+        AssertJUnit.assertArrayEquals(new Object[]{"s2", "apac", 8.0}, results.get(2));
+        AssertJUnit.assertArrayEquals(new Object[]{"s1", "eu", 16.0}, results.get(3));
+        siddhiAppRuntime.shutdown();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests warming up the script before a query starts.
+ */
+public class RWarmupTestCase {
+
+    static final Logger LOG = Logger.getLogger(RWarmupTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        siddhiManager = RTestHelper.createSiddhiManager("java");
+    }
+
+    @Test
+    public void testWarmup() throws InterruptedException {
+        LOG.info("r:eval warm-up java engine test");
+        // The warm-up batch is evaluated in an environment of its own, the running total starts from the first event
+        List<Object[]> results = RTestHelper.runSlidingWindow(siddhiManager, count,
+                "\"if (!exists('total')) total <- 0; total <- total + sum(.added$value) - sum(.removed$value); " +
+                "n <- length(.added$value)\", " +
+                "\"total double, n int\", 'window=delta, warmup=10'");
+        AssertJUnit.assertArrayEquals(new Object[]{1.0, 1}, results.get(0));
+        AssertJUnit.assertArrayEquals(new Object[]{3.0, 1}, results.get(1));
+        AssertJUnit.assertArrayEquals(new Object[]{12.0, 1}, results.get(4));
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class)
+    public void testPackagesWithoutWarmup() {
+        LOG.info("r:eval packages without warm-up test");
+        String defineStream = "define stream weather (time long, temp double); ";
+        String executionPlan = defineStream + " @info(name = 'query1') from weather#window.lengthBatch(2)" +
+                "#r:eval(\"m <- sum(temp)\", \"m double\", 'packages=stats', temp)" +
+                " select *" +
+                " insert into dataOut;";
+        siddhiManager.createSiddhiAppRuntime(executionPlan);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang;
+
+import org.apache.log4j.Logger;
+import org.rosuda.REngine.Rserve.RConnection;
+import org.rosuda.REngine.Rserve.RserveException;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.query.output.callback.QueryCallback;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.EventPrinter;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+import org.wso2.siddhi.core.util.config.InMemoryConfigManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the R stream processors on a pool of Rserve workers. Needs R with the Rserve package installed.
+ */
+public class RserveTestCase {
+
+    static final Logger LOG = Logger.getLogger(RserveTestCase.class);
+
+    private SiddhiManager siddhiManager;
+    private AtomicInteger count = new AtomicInteger();
+
+    @BeforeMethod
+    public void init() {
+        count.set(0);
+        Map<String, String> configs = new HashMap<>();
+        configs.put("r.eval.engine", "rserve");
+        configs.put("r.eval.rserve.workers", "2");
+        siddhiManager = new SiddhiManager();
+        siddhiManager.setConfigManager(new InMemoryConfigManager(configs, null));
+    }
+
+    @Test
+    public void testRserveEval() throws InterruptedException {
+        LOG.info("r:eval rserve engine test");
+        if (System.getenv("R_HOME") != null) {
+            String defineStream = "define stream weather (time long, temp double); ";
+            String executionPlan = defineStream + " @info(name = 'query1') from weather#window.lengthBatch(2)" +
+                    "#r:eval(\"c <- sum(time); m <- sum(temp); \", \"c long, m double\", time, temp)" +
+                    " select c, m" +
+                    " insert into dataOut;";
+            SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(executionPlan);
+            siddhiAppRuntime.addCallback("query1", new QueryCallback() {
+                @Override
+                public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                    EventPrinter.print(timeStamp, inEvents, removeEvents);
+                    for (Event event : inEvents) {
+                        count.incrementAndGet();
+                        if (count.get() == 1) {
+                            AssertJUnit.assertEquals(30L, event.getData(0));
+                            AssertJUnit.assertEquals(31d, event.getData(1));
+                        }
+                        if (count.get() == 2) {
+                            AssertJUnit.assertEquals(70L, event.getData(0));
+                            AssertJUnit.assertEquals(71d, event.getData(1));
+                        }
+                    }
+                }
+            });
+            siddhiAppRuntime.start();
+            InputHandler inputHandler = siddhiAppRuntime.getInputHandler("weather");
+            inputHandler.send(new Object[]{10L, 10.5});
+            inputHandler.send(new Object[]{20L, 20.5});
+            inputHandler.send(new Object[]{30L, 30.5});
+            inputHandler.send(new Object[]{40L, 40.5});
+            inputHandler.send(new Object[]{50L, 50.5});
+            SiddhiTestHelper.waitForEvents(100, 2, count, 60000);
+            AssertJUnit.assertEquals(2, count.get());
+            siddhiAppRuntime.shutdown();
+        }
+    }
+
+    @Test
+    public void testSpawnedServer() throws Exception {
+        LOG.info("r:eval spawned rserve server test");
+        if (System.getenv("R_HOME") != null) {
+            // A port of its own, so that the server is started by the engine rather than found running
+            Map<String, String> configs = new HashMap<>();
+            configs.put("r.eval.engine", "rserve");
+            configs.put("r.eval.rserve.workers", "1");
+            configs.put("r.eval.rserve.port", "6399");
+            SiddhiManager spawningManager = new SiddhiManager();
+            spawningManager.setConfigManager(new InMemoryConfigManager(configs, null));
+            String executionPlan = "define stream weather (temp double); " +
+                    "@info(name = 'query1') from weather#window.lengthBatch(2)" +
+                    "#r:eval(\"m <- sum(temp)\", \"m double\", temp)" +
+                    " select m" +
+                    " insert into dataOut;";
+            SiddhiAppRuntime siddhiAppRuntime = spawningManager.createSiddhiAppRuntime(executionPlan);
+            siddhiAppRuntime.addCallback("query1", new QueryCallback() {
+                @Override
+                public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                    EventPrinter.print(timeStamp, inEvents, removeEvents);
+                    count.addAndGet(inEvents.length);
+                }
+            });
+            siddhiAppRuntime.start();
+            InputHandler inputHandler = siddhiAppRuntime.getInputHandler("weather");
+            inputHandler.send(new Object[]{10.5});
+            inputHandler.send(new Object[]{20.5});
+            SiddhiTestHelper.waitForEvents(100, 1, count, 60000);
+            AssertJUnit.assertEquals(1, count.get());
+            siddhiAppRuntime.shutdown();
+            // The engine stops the server it started along with it
+            long deadline = System.currentTimeMillis() + 10000;
+            boolean listening = true;
+            while (listening && System.currentTimeMillis() < deadline) {
+                try {
+                    new RConnection("localhost", 6399).close();
+                    Thread.sleep(100);
+                } catch (RserveException e) {
+                    listening = false;
+                }
+            }
+            AssertJUnit.assertFalse(listening);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REngineException;
+import org.rosuda.REngine.RList;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.util.config.InMemoryConfigReader;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests the sharing of backends, scripts, models and environments, and the saving of environments, on top of the
+ * pure Java engine.
+ */
+public class RBackendFactoryTestCase {
+
+    private RBackend backend;
+
+    @BeforeMethod
+    public void init() throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("r.eval." + RBackendFactory.ENGINE, RBackendFactory.JAVA);
+        // Evict the models as soon as they are not used
+        config.put("r.eval." + RBackendFactory.MODELS_CACHE_SIZE, "0");
+        backend = RBackendFactory.acquire(new InMemoryConfigReader("r.eval", config));
+    }
+
+    @AfterMethod
+    public void release() {
+        RBackendFactory.release(backend);
+    }
+
+    @Test
+    public void testScriptCache() throws Exception {
+        REXP first = RBackendFactory.compile(backend, "total <- sum(value)");
+        REXP second = RBackendFactory.compile(backend, "total <- sum(value)");
+        REXP other = RBackendFactory.compile(backend, "total <- max(value)");
+        // The same script is only compiled once
+        AssertJUnit.assertSame(first, second);
+        AssertJUnit.assertNotSame(first, other);
+
+        RBackendFactory.releaseScript(backend, first);
+        AssertJUnit.assertSame(first, RBackendFactory.compile(backend, "total <- sum(value)"));
+        RBackendFactory.releaseScript(backend, first);
+        RBackendFactory.releaseScript(backend, second);
+        // Once the last user is gone the script is evicted
+        AssertJUnit.assertNotSame(first, RBackendFactory.compile(backend, "total <- sum(value)"));
+    }
+
+    @Test
+    public void testModelCache() throws Exception {
+        REXP first = RBackendFactory.acquireModel(backend, "src/test/resources/model.R");
+        REXP second = RBackendFactory.acquireModel(backend, "src/test/resources/model.R");
+        // The model is only loaded once
+        AssertJUnit.assertSame(first, second);
+        AssertJUnit.assertEquals(2.0, first.asList().at("slope").asDouble());
+
+        RBackendFactory.releaseModel(backend, first);
+        AssertJUnit.assertSame(first, RBackendFactory.acquireModel(backend, "src/test/resources/model.R"));
+        RBackendFactory.releaseModel(backend, first);
+        RBackendFactory.releaseModel(backend, second);
+        // Unused models beyond the cache size are evicted
+        AssertJUnit.assertNotSame(first, RBackendFactory.acquireModel(backend, "src/test/resources/model.R"));
+    }
+
+    @Test
+    public void testEnvironmentPool() throws Exception {
+        EnvironmentPool pool = new EnvironmentPool(backend, 2, 0, 0);
+        REXP first = backend.newEnvironment();
+        backend.assign("x", new REXPDouble(1), first);
+        EnvironmentPool.Lease a = pool.lease(first);
+        EnvironmentPool.Lease b = pool.lease(backend.newEnvironment());
+        AssertJUnit.assertFalse(pool.enter(b));
+        pool.exit(b);
+        // Beyond the capacity the least recently used lease is revoked, and its environment reset
+        EnvironmentPool.Lease c = pool.lease(backend.newEnvironment());
+        AssertJUnit.assertNull(a.getEnvironment());
+        AssertJUnit.assertEquals(2, pool.getLeased());
+        AssertJUnit.assertFalse(((REXPLogical) backend.eval(backend.parse("exists('x')"), first, true)).isTRUE()[0]);
+
+        // A revoked lease gets a reset environment once used again, taken from the least recently used lease
+        AssertJUnit.assertTrue(pool.enter(a));
+        AssertJUnit.assertNotNull(a.getEnvironment());
+        AssertJUnit.assertNull(b.getEnvironment());
+        // Leases in use are never revoked
+        AssertJUnit.assertTrue(pool.enter(b));
+        AssertJUnit.assertNotNull(a.getEnvironment());
+        AssertJUnit.assertNull(c.getEnvironment());
+        pool.exit(a);
+        pool.exit(b);
+
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        pool.release();
+        AssertJUnit.assertEquals(0, pool.getLeased());
+    }
+
+    @Test
+    public void testFailedEnvironment() throws Exception {
+        final boolean[] failing = new boolean[1];
+        JavaBackend failingBackend = new JavaBackend() {
+            @Override
+            public REXP newEnvironment() {
+                if (failing[0]) {
+                    throw new IllegalStateException("No environment left");
+                }
+                return super.newEnvironment();
+            }
+        };
+        failingBackend.init(new InMemoryConfigReader("r.eval", new HashMap<String, String>()));
+        EnvironmentPool pool = new EnvironmentPool(failingBackend, 1, 0, 0);
+        EnvironmentPool.Lease a = pool.lease(failingBackend.newEnvironment());
+        EnvironmentPool.Lease b = pool.lease(failingBackend.newEnvironment());
+        AssertJUnit.assertNull(a.getEnvironment());
+        pool.release(b);
+        // Without reset environments to reuse, the next one is created
+        pool.release();
+        failing[0] = true;
+        try {
+            pool.enter(a);
+            AssertJUnit.fail("The environment should not be created");
+        } catch (IllegalStateException e) {
+            // The reservation of the failed environment is given back
+            AssertJUnit.assertEquals(0, pool.getLeased());
+        }
+        failing[0] = false;
+        AssertJUnit.assertTrue(pool.enter(a));
+        AssertJUnit.assertNotNull(a.getEnvironment());
+        AssertJUnit.assertEquals(1, pool.getLeased());
+        pool.exit(a);
+        pool.release(a);
+        pool.release();
+    }
+
+    @Test
+    public void testSaveEnvironment() throws Exception {
+        REXP env = backend.newEnvironment();
+        REXP restored = backend.newEnvironment();
+        try {
+            backend.eval(backend.parse("x <- c(1, 2); s <- c('a', NA); .siddhi.codes.s <- 1"), env, false);
+            RList saved = backend.saveEnvironment(0, env, new String[]{"s"}, false).asList();
+            AssertJUnit.assertEquals(Arrays.asList("x"), Arrays.asList(saved.at("names").asStrings()));
+            AssertJUnit.assertEquals(1, saved.at("changed").asList().size());
+            backend.eval(backend.parse("y <- TRUE"), env, false);
+            // Only the variables assigned since the last save are serialized again
+            saved = backend.saveEnvironment(0, env, new String[0], false).asList();
+            AssertJUnit.assertEquals(3, saved.at("names").length());
+            REXP changed = saved.at("changed");
+            AssertJUnit.assertEquals(Arrays.asList("s", "y"), Arrays.asList(changed.asList().keys()));
+
+            backend.restoreEnvironment(0, restored, changed);
+            AssertJUnit.assertEquals("a", backend.eval(backend.parse("s[1]"), restored, true).asString());
+            AssertJUnit.assertTrue(((REXPLogical) backend.eval(backend.parse("y"), restored, true)).isTRUE()[0]);
+            // Restored variables count as saved
+            AssertJUnit.assertEquals(0, backend.saveEnvironment(0, restored, new String[0], false).asList()
+                    .at("changed").asList().size());
+        } finally {
+            backend.releaseEnvironment(env);
+            backend.releaseEnvironment(restored);
+        }
+    }
+
+    @Test
+    public void testFailedInit() throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("r.eval." + RBackendFactory.ENGINE, RBackendFactory.RSERVE);
+        config.put("r.eval." + RBackendFactory.EXECUTOR, RBackendFactory.SERIALIZED);
+        config.put("r.eval." + RserveBackend.WORKERS, "none");
+        int executors = executorThreads();
+        try {
+            RBackendFactory.acquire(new InMemoryConfigReader("r.eval", config));
+            AssertJUnit.fail("The backend should not initialize with an invalid worker count");
+        } catch (REngineException e) {
+            // The executor thread started for the failed backend is stopped
+            AssertJUnit.assertEquals(executors, executorThreads());
+        }
+    }
+
+    @Test(expectedExceptions = REngineException.class)
+    public void testReadOnlyModel() throws Exception {
+        REXP model = RBackendFactory.acquireModel(backend, "src/test/resources/model.R");
+        REXP env = backend.newEnvironment();
+        try {
+            backend.bindModel(env, "model", model);
+            backend.eval(backend.parse("model <- 1"), env, true);
+        } finally {
+            backend.releaseEnvironment(env);
+            RBackendFactory.releaseModel(backend, model);
+        }
+    }
+
+    private static int executorThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && "Siddhi-R-executor".equals(thread.getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.rlang.engine;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPNull;
+import org.rosuda.REngine.REngineException;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.util.config.InMemoryConfigReader;
+
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests the R executor thread on top of the pure Java engine.
+ */
+public class SerializedBackendTestCase {
+
+    private SerializedBackend backend;
+    private ExecutorService executorService;
+
+    @BeforeMethod
+    public void init() throws Exception {
+        backend = new SerializedBackend(new JavaBackend());
+        backend.init(new InMemoryConfigReader("r.eval", new HashMap<String, String>()));
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void release() {
+        backend.release();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final REXP env = backend.newEnvironment();
+        final REXP busyEnv = backend.newEnvironment();
+        final REXP script = backend.parse("total <- sum(value)");
+        final REXP outputs = backend.parse("list(total)");
+        // Keep the executor busy while two batches of the same environment are queued behind it
+        Future<REXP> busy = executorService.submit(new Callable<REXP>() {
+            @Override
+            public REXP call() throws Exception {
+                return backend.evaluate(busyEnv, new String[0], new REXP[0], backend.parse("Sys.sleep(0.5)"),
+                        backend.parse("list()"), false);
+            }
+        });
+        Thread.sleep(100);
+        Future<REXP> first = executorService.submit(evaluation(env, script, outputs, 1.0, 2.0));
+        Thread.sleep(100);
+        Future<REXP> second = executorService.submit(evaluation(env, script, outputs, 3.0));
+        busy.get();
+
+        AssertJUnit.assertNull(first.get());
+        AssertJUnit.assertEquals(6.0, ((REXP) second.get().asList().get(0)).asDouble());
+    }
+
+    @Test
+    public void testPartialCoalescing() throws Exception {
+        final REXP env = backend.newEnvironment();
+        final REXP busyEnv = backend.newEnvironment();
+        final REXP script = backend.parse("total <- sum(value)");
+        final REXP outputs = backend.parse("list(total)");
+        Future<REXP> busy = executorService.submit(new Callable<REXP>() {
+            @Override
+            public REXP call() throws Exception {
+                return backend.evaluate(busyEnv, new String[0], new REXP[0], backend.parse("Sys.sleep(0.5)"),
+                        backend.parse("list()"), false);
+            }
+        });
+        Thread.sleep(100);
+        // The values merge but the tags do not, hence neither input is merged and both batches run on their own
+        Future<REXP> first = executorService.submit(taggedEvaluation(env, script, outputs, 1.0, 2.0));
+        Thread.sleep(100);
+        Future<REXP> second = executorService.submit(taggedEvaluation(env, script, outputs, 3.0));
+        busy.get();
+
+        AssertJUnit.assertEquals(3.0, ((REXP) first.get().asList().get(0)).asDouble());
+        AssertJUnit.assertEquals(3.0, ((REXP) second.get().asList().get(0)).asDouble());
+    }
+
+    @Test(expectedExceptions = REngineException.class)
+    public void testStopped() throws Exception {
+        backend.release();
+        backend.parse("total <- 1");
+    }
+
+    @Test
+    public void testWithoutCoalescing() throws Exception {
+        REXP env = backend.newEnvironment();
+        REXP script = backend.parse("total <- sum(value)");
+        REXP outputs = backend.parse("list(total)");
+        REXP result = backend.evaluate(env, new String[]{"value"}, new REXP[]{new REXPDouble(new double[]{1, 2})},
+                script, outputs);
+        AssertJUnit.assertEquals(3.0, ((REXP) result.asList().get(0)).asDouble());
+    }
+
+    @Test
+    public void testWorkers() throws Exception {
+        SerializedBackend workers = new SerializedBackend(new JavaBackend());
+        HashMap<String, String> config = new HashMap<String, String>();
+        config.put("r.eval." + JavaBackend.WORKERS, "2");
+        workers.init(new InMemoryConfigReader("r.eval", config));
+        try {
+            AssertJUnit.assertEquals(2, workers.getWorkerCount());
+            REXP env = workers.newEnvironment();
+            REXP script = workers.parse("total <- total + sum(value)");
+            REXP outputs = workers.parse("list(total)");
+            REXP reset = workers.parse("total <- value");
+            // Each worker keeps its own state of the environment
+            workers.evaluate(0, env, new String[]{"value"}, new REXP[]{new REXPDouble(1)}, reset, outputs);
+            workers.evaluate(1, env, new String[]{"value"}, new REXP[]{new REXPDouble(0)}, reset, outputs);
+            REXP first = workers.evaluate(1, env, new String[]{"value"}, new REXP[]{new REXPDouble(2)}, script,
+                    outputs);
+            REXP second = workers.evaluate(0, env, new String[]{"value"}, new REXP[]{new REXPDouble(3)}, script,
+                    outputs);
+            AssertJUnit.assertEquals(2.0, ((REXP) first.asList().get(0)).asDouble());
+            AssertJUnit.assertEquals(4.0, ((REXP) second.asList().get(0)).asDouble());
+        } finally {
+            workers.release();
+        }
+    }
+
+    private Callable<REXP> evaluation(final REXP env, final REXP script, final REXP outputs,
+                                      final double... values) {
+        return new Callable<REXP>() {
+            @Override
+            public REXP call() throws Exception {
+                return backend.evaluate(env, new String[]{"value"}, new REXP[]{new REXPDouble(values)}, script,
+                        outputs, true);
+            }
+        };
+    }
+
+    private Callable<REXP> taggedEvaluation(final REXP env, final REXP script, final REXP outputs,
+                                            final double... values) {
+        return new Callable<REXP>() {
+            @Override
+            public REXP call() throws Exception {
+                return backend.evaluate(env, new String[]{"value", "tag"},
+                        new REXP[]{new REXPDouble(values), new REXPNull()}, script, outputs, true);
+            }
+        };
+    }
+}